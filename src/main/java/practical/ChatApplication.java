@@ -2,14 +2,21 @@ package practical;
 
 
 import lombok.RequiredArgsConstructor;
-import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.EventListener;
 import practical.models.user.User;
 import practical.services.AuthenticationService;
 import jakarta.annotation.Resource;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration;
+import org.springframework.boot.autoconfigure.session.SessionAutoConfiguration;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import practical.services.UserService;
 
 import java.util.logging.Logger;
@@ -22,20 +29,36 @@ import static practical.models.user.Role.ADMIN;
  * <p>
  *     This class is the main class of the application.
  * </p>
+ * <p>
+ *     the steps of the startup are recorded, <code>/actuator/startup</code> shows how long every step took.
+ * </p>
  */
 @RequiredArgsConstructor
-@SpringBootApplication
+// the R2DBC pool of the reactive reads is created by ReactiveMessageReader, JPA keeps the JDBC datasource
+// the HTTP sessions are stored by practical.session only with chat.session.store=jdbc, not as soon as spring-session is there
+@SpringBootApplication(exclude = {R2dbcAutoConfiguration.class, SessionAutoConfiguration.class})
+@EnableScheduling
 public class ChatApplication {
     private static final Logger logger = Logger.getLogger(ChatApplication.class.getName());
 
-    private final UserService userService;
+    private static final int STARTUP_STEPS_CAPACITY = 4096;
 
-    private final PasswordEncoder passwordEncoder;
+    private final UserService userService;
 
     private User admin;
 
+    private Thread adminSeedThread;
+
+    @Value("${chat.admin.seed-async:false}")
+    private boolean seedAdminAsync;
+
+    @Value("${chat.startup.exit-when-ready:false}")
+    private boolean exitWhenReady;
+
     public static void main(String[] args) {
-        SpringApplication.run(ChatApplication.class, args);
+        SpringApplication application = new SpringApplication(ChatApplication.class);
+        application.setApplicationStartup(new BufferingApplicationStartup(STARTUP_STEPS_CAPACITY));
+        application.run(args);
     }
 
     /**
@@ -54,14 +77,41 @@ public class ChatApplication {
                     .role(ADMIN)
                     .build();
 
-            if(userService.getUserByEmail(admin.getEmail()) == null){
-                service.register(admin);
-            }
+            Runnable seed = () -> {
+                if(userService.getUserByEmail(admin.getEmail()) == null){
+                    service.register(admin);
+                }
+                logger.info("Admin user created with email: " + admin.getEmail());
+            };
 
-            logger.info("Admin user created with email: " + admin.getEmail() + " and password: "+ passwordEncoder.encode("admin-pw"));
+            // hashing the password takes a while, with chat.admin.seed-async the server doesn't wait for it
+            if (seedAdminAsync) {
+                adminSeedThread = new Thread(seed, "admin-seed");
+                adminSeedThread.setDaemon(true);
+                adminSeedThread.start();
+            } else {
+                seed.run();
+            }
         };
     }
 
+    /**
+     * stop the application as soon as it started, when <code>chat.startup.exit-when-ready=true</code>.
+     * used by the training run of the build that records the class data sharing (CDS) archive.
+     * @param event the ready event
+     * @throws InterruptedException if interrupted while waiting for the admin user
+     */
+    @EventListener
+    public void onReady(ApplicationReadyEvent event) throws InterruptedException {
+        if (exitWhenReady) {
+            if (adminSeedThread != null) {
+                adminSeedThread.join();
+            }
+            ConfigurableApplicationContext context = event.getApplicationContext();
+            System.exit(SpringApplication.exit(context));
+        }
+    }
+
     /**
      * This method is used to delete the admin user at the end of the application.
      * <b>for now this function deactivated, you can uncomment the @PreDestroy annotation to auto-delete the admin when the app exit</b>
@@ -0,0 +1,34 @@
+package practical.benchmark;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <h1>BenchmarkJob</h1>
+ * <p>
+ *     A benchmark that runs in the background, as shown by <code>/api/benchmarks/{jobId}</code>.
+ * </p>
+ * @param id the id of the job
+ * @param name which benchmark
+ * @param parameters the parameters it runs with
+ * @param status where the job is
+ * @param results the results of the benchmark when it is DONE, else empty
+ * @param error why the job failed, or null
+ * @param createdAt when the job was submitted
+ * @param finishedAt when the job ended, or null
+ * @see BenchmarkJobService
+ */
+public record BenchmarkJob(long id, String name, Map<String, Object> parameters, Status status, List<?> results,
+                           String error, LocalDateTime createdAt, LocalDateTime finishedAt) {
+
+    /**
+     * a benchmark runs one at a time, the others wait QUEUED.
+     */
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED
+    }
+}
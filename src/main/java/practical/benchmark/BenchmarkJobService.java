@@ -0,0 +1,129 @@
+package practical.benchmark;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * <h1>Benchmark Job Service</h1>
+ * <p>
+ *     Runs the benchmarks of the app in the background, one at a time on their own thread,
+ *     so a benchmark never holds a request thread and two benchmarks never measure each other.
+ *     the jobs are kept in memory, the last ones can be read at <code>/api/benchmarks</code>.
+ * </p>
+ * <p>
+ *     the benchmarks write to the real database: they exist only with <code>chat.benchmarks.enabled=true</code>,
+ *     for a test instance.
+ * </p>
+ * @see BenchmarkJob
+ */
+@Service
+@ConditionalOnProperty(name = "chat.benchmarks.enabled", havingValue = "true")
+public class BenchmarkJobService {
+    private static final Logger logger = Logger.getLogger(BenchmarkJobService.class.getName());
+
+    private static final int MAX_KEPT_JOBS = 20;
+
+    private final AtomicLong jobIds = new AtomicLong();
+
+    private final Map<Long, BenchmarkJob> jobs = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "benchmark");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    /**
+     * @param jobId the id of the job
+     * @return the job, with its results when it is done
+     */
+    public BenchmarkJob getJob(long jobId) {
+        BenchmarkJob job = jobs.get(jobId);
+        if (job == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Benchmark job not found");
+        }
+        return job;
+    }
+
+    /**
+     * @return the last jobs, the newest first
+     */
+    public List<BenchmarkJob> getRecentJobs() {
+        return jobs.values().stream()
+                .sorted(Comparator.comparingLong(BenchmarkJob::id).reversed())
+                .toList();
+    }
+
+    //==========================================================================
+    //============================== SUBMIT ====================================
+    //==========================================================================
+
+    /**
+     * run a benchmark after the ones already queued.
+     * @param name which benchmark
+     * @param parameters the parameters it runs with, shown with the job
+     * @param benchmark runs the benchmark and returns its results
+     * @return the job, queued
+     */
+    public BenchmarkJob submit(String name, Map<String, Object> parameters, Supplier<List<?>> benchmark) {
+        long id = jobIds.incrementAndGet();
+        BenchmarkJob job = new BenchmarkJob(id, name, parameters, BenchmarkJob.Status.QUEUED, List.of(), null,
+                LocalDateTime.now(), null);
+        jobs.put(id, job);
+        forgetOldJobs();
+        executor.execute(() -> run(job, benchmark));
+        return job;
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private void run(BenchmarkJob job, Supplier<List<?>> benchmark) {
+        jobs.put(job.id(), withStatus(job, BenchmarkJob.Status.RUNNING, List.of(), null, null));
+        try {
+            List<?> results = benchmark.get();
+            jobs.put(job.id(), withStatus(job, BenchmarkJob.Status.DONE, results, null, LocalDateTime.now()));
+            logger.info("benchmark " + job.name() + " " + job.parameters() + ": " + results);
+        } catch (RuntimeException e) {
+            jobs.put(job.id(), withStatus(job, BenchmarkJob.Status.FAILED, List.of(), e.getMessage(), LocalDateTime.now()));
+            logger.warning("benchmark " + job.name() + " failed: " + e);
+        }
+    }
+
+    private static BenchmarkJob withStatus(BenchmarkJob job, BenchmarkJob.Status status, List<?> results, String error,
+                                           LocalDateTime finishedAt) {
+        return new BenchmarkJob(job.id(), job.name(), job.parameters(), status, results, error, job.createdAt(), finishedAt);
+    }
+
+    private void forgetOldJobs() {
+        jobs.values().stream()
+                .filter(job -> job.finishedAt() != null)
+                .sorted(Comparator.comparingLong(BenchmarkJob::id))
+                .limit(Math.max(0, jobs.size() - MAX_KEPT_JOBS))
+                .forEach(job -> jobs.remove(job.id()));
+    }
+}
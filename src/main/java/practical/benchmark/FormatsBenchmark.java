@@ -0,0 +1,118 @@
+package practical.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.stereotype.Component;
+import practical.models.response.MessageResponse;
+import practical.repositories.MessageStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <h1>FormatsBenchmark</h1>
+ * <p>
+ *     Compares the formats of the API (see practical.configuration.WebConfig) on the latest messages of a chat room,
+ *     with the same object mappers as the responses: the size of the encoded list, and how many lists per second
+ *     are encoded and decoded back to {@link MessageResponse}s. every format first runs a short warm-up that is not counted.
+ * </p>
+ * <p>
+ *     it only reads the messages once, the rest is in memory. it exists only with <code>chat.benchmarks.enabled=true</code>
+ *     and runs as a job of {@link BenchmarkJobService}.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "chat.benchmarks.enabled", havingValue = "true")
+public class FormatsBenchmark {
+
+    private final MessageStore messageStore;
+
+    private final Map<String, ObjectMapper> mappers = new LinkedHashMap<>();
+
+    public FormatsBenchmark(MessageStore messageStore,
+                            ObjectMapper objectMapper,
+                            MappingJackson2CborHttpMessageConverter cborConverter,
+                            MappingJackson2SmileHttpMessageConverter smileConverter) {
+        this.messageStore = messageStore;
+        this.mappers.put("json", objectMapper);
+        this.mappers.put("cbor", cborConverter.getObjectMapper());
+        this.mappers.put("smile", smileConverter.getObjectMapper());
+    }
+
+    /**
+     * run every format, one after the other.
+     * @param chatRoomId the chat room whose latest messages are encoded
+     * @param limit how many messages in the list
+     * @param iterations how many times the list is encoded and decoded in every format
+     * @return the result of every format, json first
+     */
+    public List<Result> run(Integer chatRoomId, int limit, int iterations) {
+        List<MessageResponse> messages = messageStore.findLatestResponsesByChatRoomId(chatRoomId, limit);
+        int jsonBytes = encode(mappers.get("json"), messages).length;
+        List<Result> results = new ArrayList<>();
+        mappers.forEach((format, mapper) -> {
+            measure(format, mapper, messages, Math.max(1, iterations / 10), jsonBytes);
+            results.add(measure(format, mapper, messages, iterations, jsonBytes));
+        });
+        return results;
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private Result measure(String format, ObjectMapper mapper, List<MessageResponse> messages, int iterations,
+                           int jsonBytes) {
+        JavaType type = mapper.getTypeFactory().constructCollectionType(List.class, MessageResponse.class);
+        byte[] encoded = encode(mapper, messages);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            encode(mapper, messages);
+        }
+        long encodeNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        try {
+            for (int i = 0; i < iterations; i++) {
+                mapper.readValue(encoded, type);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't decode the messages in " + format, e);
+        }
+        long decodeNs = System.nanoTime() - start;
+
+        return new Result(format, messages.size(), encoded.length, encoded.length * 100L / Math.max(1, jsonBytes),
+                iterations * 1_000_000_000L / Math.max(1, encodeNs),
+                iterations * 1_000_000_000L / Math.max(1, decodeNs));
+    }
+
+    private static byte[] encode(ObjectMapper mapper, List<MessageResponse> messages) {
+        try {
+            return mapper.writeValueAsBytes(messages);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException("can't encode the messages", e);
+        }
+    }
+
+    /**
+     * the result of one format.
+     * @param format json, cbor or smile
+     * @param messages how many messages are in the list
+     * @param bytes the size of the encoded list
+     * @param percentOfJson the size compared to the json
+     * @param encodesPerSecond how many lists are encoded in one second
+     * @param decodesPerSecond how many lists are decoded in one second
+     */
+    public record Result(String format, int messages, int bytes, long percentOfJson, long encodesPerSecond,
+                         long decodesPerSecond) {
+    }
+}
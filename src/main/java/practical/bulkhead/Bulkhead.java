@@ -0,0 +1,158 @@
+package practical.bulkhead;
+
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <h1>Bulkhead</h1>
+ * <p>
+ *     Bounded concurrency with a bounded wait queue.
+ *     at most <code>maxConcurrent</code> calls run at once, at most <code>maxQueue</code> calls wait,
+ *     and a call that waited longer than <code>maxWaitMs</code> is shed.
+ * </p>
+ * <p>
+ *     the admins have priority: a free slot goes to a waiting admin first,
+ *     and a normal call can't take a slot while an admin is waiting.
+ * </p>
+ */
+public class Bulkhead {
+
+    @Getter
+    private final String name;
+
+    @Getter
+    private final int maxConcurrent;
+
+    @Getter
+    private final int maxQueue;
+
+    @Getter
+    private final long maxWaitMs;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition adminTurn = lock.newCondition();
+
+    private final Condition normalTurn = lock.newCondition();
+
+    private int active;
+
+    private int adminWaiting;
+
+    private int normalWaiting;
+
+    public Bulkhead(String name, int maxConcurrent, int maxQueue, long maxWaitMs) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueue = maxQueue;
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    /**
+     * take a slot, waiting up to <code>maxWaitMs</code>.
+     * @param admin true if the call is done by an admin
+     * @return the outcome, the slot must be released only when it is {@link Outcome#ACQUIRED}
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public Outcome acquire(boolean admin) throws InterruptedException {
+        lock.lock();
+        try {
+            if (canRun(admin) && (admin || normalWaiting == 0)) {
+                active++;
+                return Outcome.ACQUIRED;
+            }
+            if (adminWaiting + normalWaiting >= maxQueue) {
+                return Outcome.QUEUE_FULL;
+            }
+
+            long nanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+            Condition turn = admin ? adminTurn : normalTurn;
+            if (admin) adminWaiting++; else normalWaiting++;
+            try {
+                while (!canRun(admin)) {
+                    if (nanos <= 0) {
+                        return Outcome.TIMED_OUT;
+                    }
+                    nanos = turn.awaitNanos(nanos);
+                }
+                active++;
+                return Outcome.ACQUIRED;
+            } finally {
+                if (admin) adminWaiting--; else normalWaiting--;
+                // the signal could have been meant for this call, pass it on
+                signalNext();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * give the slot back.
+     */
+    public void release() {
+        lock.lock();
+        try {
+            active--;
+            signalNext();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how many calls are running
+     */
+    public int getActive() {
+        lock.lock();
+        try {
+            return active;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return how many calls are waiting
+     */
+    public int getWaiting() {
+        lock.lock();
+        try {
+            return adminWaiting + normalWaiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return running calls divided by the max concurrent calls (1.0 means full)
+     */
+    public double getSaturation() {
+        return (double) getActive() / maxConcurrent;
+    }
+
+    private boolean canRun(boolean admin) {
+        return active < maxConcurrent && (admin || adminWaiting == 0);
+    }
+
+    private void signalNext() {
+        if (active >= maxConcurrent) {
+            return;
+        }
+        if (adminWaiting > 0) {
+            adminTurn.signal();
+        } else if (normalWaiting > 0) {
+            normalTurn.signal();
+        }
+    }
+
+    /**
+     * the result of {@link #acquire(boolean)}.
+     */
+    public enum Outcome {
+        ACQUIRED, QUEUE_FULL, TIMED_OUT
+    }
+}
@@ -0,0 +1,62 @@
+package practical.bulkhead;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import practical.models.user.Role;
+
+/**
+ * <h1>BulkheadInterceptor</h1>
+ * <p>
+ *     Runs the {@link Bulkheaded} controller methods inside their {@link Bulkhead}.
+ *     when the bulkhead is full and its queue is full, or the wait took too long,
+ *     the answer is <code>503 Service Unavailable</code>.
+ * </p>
+ * @see BulkheadRegistry
+ */
+@Component
+@RequiredArgsConstructor
+public class BulkheadInterceptor implements HandlerInterceptor {
+
+    private static final String ACQUIRED_ATTRIBUTE = BulkheadInterceptor.class.getName() + ".acquired";
+
+    private final BulkheadRegistry bulkheadRegistry;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!(handler instanceof HandlerMethod handlerMethod)) {
+            return true;
+        }
+        Bulkheaded bulkheaded = handlerMethod.getMethodAnnotation(Bulkheaded.class);
+        if (bulkheaded == null) {
+            return true;
+        }
+
+        Bulkhead bulkhead = bulkheadRegistry.get(bulkheaded.value());
+        Bulkhead.Outcome outcome = bulkhead.acquire(request.isUserInRole(Role.ADMIN.name()));
+        if (outcome == Bulkhead.Outcome.ACQUIRED) {
+            request.setAttribute(ACQUIRED_ATTRIBUTE, bulkhead);
+            return true;
+        }
+
+        bulkheadRegistry.recordRejected(bulkhead, outcome);
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+        response.setContentType("text/plain;charset=UTF-8");
+        response.getWriter().write("Error: server is busy (" + bulkhead.getName() + "), try again later");
+        return false;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (request.getAttribute(ACQUIRED_ATTRIBUTE) instanceof Bulkhead bulkhead) {
+            request.removeAttribute(ACQUIRED_ATTRIBUTE);
+            bulkhead.release();
+        }
+    }
+}
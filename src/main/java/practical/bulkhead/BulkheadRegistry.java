@@ -0,0 +1,72 @@
+package practical.bulkhead;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <h1>BulkheadRegistry</h1>
+ * <p>
+ *     Creates the named {@link Bulkhead}s on first use, with the limits from the properties
+ *     <code>chat.bulkhead.{name}.max-concurrent</code>, <code>.max-queue</code> and <code>.max-wait-ms</code>.
+ * </p>
+ * <p>
+ *     metrics per bulkhead (tag name): <code>chat.bulkhead.active</code>, <code>chat.bulkhead.waiting</code>,
+ *     <code>chat.bulkhead.saturation</code> and <code>chat.bulkhead.rejected</code> (tag reason).
+ * </p>
+ */
+@Component
+public class BulkheadRegistry {
+
+    private final Environment environment;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> rejectedCounters = new ConcurrentHashMap<>();
+
+    public BulkheadRegistry(Environment environment, MeterRegistry meterRegistry) {
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * @param name the name of the bulkhead
+     * @return the bulkhead, created if needed
+     */
+    public Bulkhead get(String name) {
+        return bulkheads.computeIfAbsent(name, this::create);
+    }
+
+    /**
+     * count a call that was shed.
+     * @param bulkhead the bulkhead
+     * @param outcome why the call was shed
+     */
+    public void recordRejected(Bulkhead bulkhead, Bulkhead.Outcome outcome) {
+        rejectedCounters.computeIfAbsent(bulkhead.getName() + ":" + outcome, key -> Counter.builder("chat.bulkhead.rejected")
+                .tag("name", bulkhead.getName())
+                .tag("reason", outcome.name().toLowerCase())
+                .register(meterRegistry)).increment();
+    }
+
+    private Bulkhead create(String name) {
+        String prefix = "chat.bulkhead." + name;
+        Bulkhead bulkhead = new Bulkhead(name,
+                environment.getProperty(prefix + ".max-concurrent", Integer.class, 10),
+                environment.getProperty(prefix + ".max-queue", Integer.class, 50),
+                environment.getProperty(prefix + ".max-wait-ms", Long.class, 1000L));
+
+        Gauge.builder("chat.bulkhead.active", bulkhead, Bulkhead::getActive).tag("name", name).register(meterRegistry);
+        Gauge.builder("chat.bulkhead.waiting", bulkhead, Bulkhead::getWaiting).tag("name", name).register(meterRegistry);
+        Gauge.builder("chat.bulkhead.saturation", bulkhead, Bulkhead::getSaturation).tag("name", name).register(meterRegistry);
+        Gauge.builder("chat.bulkhead.max_concurrent", bulkhead, Bulkhead::getMaxConcurrent).tag("name", name).register(meterRegistry);
+        return bulkhead;
+    }
+}
@@ -0,0 +1,27 @@
+package practical.bulkhead;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <h1>Bulkheaded</h1>
+ * <p>
+ *     Put on a controller method to run it inside a named {@link Bulkhead},
+ *     so a burst on one group of endpoints can't take all the worker threads.
+ * </p>
+ * @see BulkheadInterceptor
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Bulkheaded {
+
+    String EXPENSIVE = "expensive";
+    String MESSAGES = "messages";
+
+    /**
+     * @return the name of the bulkhead
+     */
+    String value();
+}
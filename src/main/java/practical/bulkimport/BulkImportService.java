@@ -0,0 +1,676 @@
+package practical.bulkimport;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+import practical.events.EventBus;
+import practical.ids.MessageIdGenerator;
+import practical.models.event.MembershipChangedEvent;
+import practical.models.event.MessagesDeletedEvent;
+import practical.models.event.UserChangedEvent;
+import practical.models.user.Role;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * <h1>Bulk Import Service</h1>
+ * <p>
+ *     Loads users, chat rooms, memberships and messages from files, to migrate a workspace or to seed a test database,
+ *     without the API: no BCrypt (the passwords are already hashed), no entity, one JDBC batch of
+ *     <code>chat.import.batch-size</code> rows per transaction.
+ *     the ids of the users and the chat rooms are kept, so the other files refer to them.
+ * </p>
+ * <p>
+ *     every table is read by one thread and written by <code>chat.import.writers</code> threads, each with its own connection.
+ *     the users and the chat rooms are loaded at the same time, then the memberships and the messages at the same time.
+ *     when the indexes are deferred, the index of the messages by chat room is dropped during their load
+ *     and built once at the end, the reads of the messages are slow in the meantime: run it when the app is quiet.
+ *     an index that is still missing at the start (the process died during an import) is built again.
+ * </p>
+ * <p>
+ *     the files are NDJSON (one JSON object per line) or CSV with a header line, the fields are the names of the columns:
+ *     <ul>
+ *         <li>users: id, firstname, lastname, email, password (a BCrypt hash), role (USER by default,
+ *         ADMIN only when the job allows it)</li>
+ *         <li>chatrooms: id, name</li>
+ *         <li>memberships: userId, chatRoomId</li>
+ *         <li>messages: id (made from the timestamp when missing), chatRoomId, userId, text, timestamp, clientTimestamp, roomSeq</li>
+ *     </ul>
+ *     the messages are ordered by id, so a message without id gets an id of its own time ({@link MessageIdGenerator#idAt}),
+ *     not of the import: the lower bits are its row in the file plus a random offset of the job,
+ *     two messages of the same millisecond get the same id only in the same job 4 million rows apart,
+ *     or by chance in two jobs, and then the insert fails on the primary key.
+ *     the ids hold the times from 2024-01-01: an older message without id fails the job, it must come with its id.
+ *     a wrong row fails the job, the batches committed before it stay.
+ *     the jobs are kept in memory, one runs at a time.
+ * </p>
+ * @see ImportJob
+ */
+@Service
+public class BulkImportService {
+    private static final Logger logger = Logger.getLogger(BulkImportService.class.getName());
+
+    private static final Pattern BCRYPT_HASH = Pattern.compile("\\$2[aby]?\\$\\d{2}\\$[./A-Za-z0-9]{53}");
+
+    /**
+     * the secondary indexes of the messages (see {@link practical.models.Message}), built again after a deferred load.
+     * the unique index on (chat_room_id, room_seq) is kept: it is a constraint, the rows must be checked against it.
+     */
+    private static final Map<String, String> MESSAGE_INDEXES = Map.of(
+            "idx_message_chat_room_id", "create index idx_message_chat_room_id on message (chat_room_id, id)");
+
+    private static final int MAX_KEPT_JOBS = 20;
+
+    /**
+     * tells a writer that the file is read.
+     */
+    private static final List<Object[]> END_OF_FILE = List.of();
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ObjectMapper objectMapper;
+
+    private final CsvMapper csvMapper = new CsvMapper();
+
+    private final EventBus eventBus;
+
+    private final int batchSize;
+
+    private final int writers;
+
+    private final boolean shardingEnabled;
+
+    private final AtomicLong jobIds = new AtomicLong();
+
+    private final Map<Long, RunningJob> jobs = new ConcurrentHashMap<>();
+
+    private final ExecutorService jobExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bulk-import");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicInteger loaderThreads = new AtomicInteger();
+
+    private final ExecutorService loaderExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "bulk-import-loader-" + loaderThreads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Boolean h2;
+
+    public BulkImportService(JdbcTemplate jdbcTemplate,
+                             TransactionTemplate transactionTemplate,
+                             ObjectMapper objectMapper,
+                             EventBus eventBus,
+                             @Value("${chat.import.batch-size:1000}") int batchSize,
+                             @Value("${chat.import.writers:2}") int writers,
+                             @Value("${chat.sharding.enabled:false}") boolean shardingEnabled) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.eventBus = eventBus;
+        this.batchSize = batchSize;
+        this.writers = writers;
+        this.shardingEnabled = shardingEnabled;
+    }
+
+    /**
+     * build the indexes of the messages that an import dropped and did not build again.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void createMissingIndexes() {
+        try {
+            createMessageIndexes(MESSAGE_INDEXES.keySet());
+        } catch (RuntimeException e) {
+            logger.severe("the missing indexes of the messages could not be built: " + e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobExecutor.shutdownNow();
+        loaderExecutor.shutdownNow();
+    }
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    /**
+     * @param jobId the id of the job
+     * @return the job with its progress
+     */
+    public ImportJob getJob(long jobId) {
+        RunningJob job = jobs.get(jobId);
+        if (job == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Import job not found");
+        }
+        return job.snapshot();
+    }
+
+    /**
+     * @return the last jobs, the newest first
+     */
+    public List<ImportJob> getRecentJobs() {
+        return jobs.values().stream()
+                .sorted(Comparator.comparingLong((RunningJob job) -> job.id).reversed())
+                .map(RunningJob::snapshot)
+                .toList();
+    }
+
+    //==========================================================================
+    //============================== SUBMIT ====================================
+    //==========================================================================
+
+    /**
+     * copy the files to temporary files, as they come, and load them in the background.
+     * @param uploads the file of every table to import, at least one
+     * @param deferIndexes drop the index of the messages by chat room during their load
+     * @param allowAdminRoles accept the users with the role ADMIN, else they fail the job
+     * @return the job, queued
+     * @throws IOException if a file cannot be read or copied
+     */
+    public ImportJob submit(Uploads uploads, boolean deferIndexes, boolean allowAdminRoles) throws IOException {
+        Map<ImportJob.Table, TableState> tables = new EnumMap<>(ImportJob.Table.class);
+        try {
+            for (Upload upload = uploads.next(); upload != null; upload = uploads.next()) {
+                if (tables.containsKey(upload.table())) {
+                    throw new IllegalArgumentException("the part " + upload.table().getPartName() + " is sent twice");
+                }
+                if (shardingEnabled && upload.table() == ImportJob.Table.MESSAGES) {
+                    throw new IllegalStateException("the messages cannot be imported when chat.sharding.enabled is true");
+                }
+                Path path = Files.createTempFile("chat-import-" + upload.table().getPartName() + "-", ".tmp");
+                TableState table = new TableState(upload.table(), formatOf(upload), path);
+                tables.put(upload.table(), table);
+                Files.copy(upload.content(), path, StandardCopyOption.REPLACE_EXISTING);
+                if (Files.size(path) == 0) {
+                    // an empty part is a file that was not chosen
+                    tables.remove(upload.table());
+                    deleteFiles(List.of(table));
+                }
+            }
+            if (tables.isEmpty()) {
+                throw new IllegalArgumentException("no file to import, the parts are users, chatrooms, memberships and messages");
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteFiles(tables.values());
+            throw e;
+        }
+
+        RunningJob job = new RunningJob(jobIds.incrementAndGet(), deferIndexes, allowAdminRoles,
+                List.copyOf(tables.values()));
+        jobs.put(job.id, job);
+        forgetOldJobs();
+        jobExecutor.execute(() -> run(job));
+        return job.snapshot();
+    }
+
+    //==========================================================================
+    //================================ RUN =====================================
+    //==========================================================================
+
+    private void run(RunningJob job) {
+        job.status = ImportJob.Status.RUNNING;
+        logger.info("bulk import " + job.id + " started: " + job.tables.stream().map(table -> table.table).toList());
+        try {
+            for (int phase = 0; phase <= 1; phase++) {
+                int currentPhase = phase;
+                CompletableFuture.allOf(job.tables.stream()
+                                .filter(table -> table.table.getPhase() == currentPhase)
+                                .map(table -> CompletableFuture.runAsync(() -> load(job, table), loaderExecutor))
+                                .toArray(CompletableFuture[]::new))
+                        .join();
+            }
+            job.status = ImportJob.Status.DONE;
+        } catch (CompletionException | IllegalStateException e) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            job.error = cause.getMessage();
+            job.status = ImportJob.Status.FAILED;
+            logger.warning("bulk import " + job.id + " failed: " + cause);
+        } finally {
+            job.finishedAt = LocalDateTime.now();
+            deleteFiles(job.tables);
+            refreshCopies(job);
+            job.tables.forEach(table -> logger.info("bulk import " + job.id + ": " + table.snapshot()));
+        }
+    }
+
+    private void load(RunningJob job, TableState table) {
+        table.start();
+        boolean deferIndexes = job.deferIndexes && table.table == ImportJob.Table.MESSAGES;
+        List<String> droppedIndexes = deferIndexes ? dropMessageIndexes() : List.of();
+
+        RuntimeException failure = null;
+        try {
+            loadRows(job, table);
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        try {
+            createMessageIndexes(droppedIndexes);
+        } catch (RuntimeException e) {
+            logger.severe("bulk import " + job.id + ": the indexes of the messages could not be built again: " + e);
+            if (failure == null) {
+                failure = e;
+            } else {
+                failure.addSuppressed(e);
+            }
+        }
+        table.end(failure == null ? ImportJob.Status.DONE : ImportJob.Status.FAILED);
+        if (failure != null) {
+            throw failure;
+        }
+        if (table.table == ImportJob.Table.USERS) {
+            restartIdentity("users");
+        } else if (table.table == ImportJob.Table.CHAT_ROOMS) {
+            restartIdentity("chat_room");
+        }
+    }
+
+    /**
+     * this thread reads the file and makes the batches, the writers insert them.
+     * after a failure the reader stops and the writers only drain the queue.
+     */
+    private void loadRows(RunningJob job, TableState table) {
+        BlockingQueue<List<Object[]>> batches = new ArrayBlockingQueue<>(writers * 2);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        CompletableFuture<?>[] writerFutures = IntStream.range(0, writers)
+                .mapToObj(i -> CompletableFuture.runAsync(() -> write(table, batches, failure), loaderExecutor))
+                .toArray(CompletableFuture[]::new);
+        try (MappingIterator<Map<String, Object>> rows = open(table)) {
+            List<Object[]> batch = new ArrayList<>(batchSize);
+            long rowNumber = 0;
+            while (failure.get() == null && rows.hasNext()) {
+                rowNumber++;
+                batch.add(toRow(job, table.table, rows.next(), rowNumber));
+                table.rowsRead.increment();
+                if (batch.size() == batchSize) {
+                    put(batches, batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty() && failure.get() == null) {
+                put(batches, batch);
+            }
+        } catch (IOException e) {
+            failure.compareAndSet(null, new UncheckedIOException(table.table.getPartName() + ": " + e.getMessage(), e));
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            for (int i = 0; i < writers; i++) {
+                put(batches, END_OF_FILE);
+            }
+        }
+        CompletableFuture.allOf(writerFutures).join();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    private void write(TableState table, BlockingQueue<List<Object[]>> batches, AtomicReference<RuntimeException> failure) {
+        String sql = insertOf(table.table);
+        while (true) {
+            List<Object[]> batch = take(batches);
+            if (batch == END_OF_FILE) {
+                return;
+            }
+            if (failure.get() != null) {
+                continue;
+            }
+            try {
+                transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(sql, batch));
+                table.rowsInserted.add(batch.size());
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private MappingIterator<Map<String, Object>> open(TableState table) throws IOException {
+        ObjectReader reader = table.format == ImportJob.Format.CSV
+                ? csvMapper.readerFor(Map.class).with(CsvSchema.emptySchema().withHeader())
+                : objectMapper.readerFor(Map.class);
+        return reader.readValues(table.path.toFile());
+    }
+
+    private static String insertOf(ImportJob.Table table) {
+        return switch (table) {
+            case USERS -> "insert into users (id, firstname, lastname, email, password, role) values (?, ?, ?, ?, ?, ?)";
+            case CHAT_ROOMS -> "insert into chat_room (id, name) values (?, ?)";
+            case MEMBERSHIPS -> "insert into user_chat_room (user_id, chat_room_id) values (?, ?)";
+            case MESSAGES -> "insert into message (id, chat_room_id, user_id, text, timestamp, client_timestamp, room_seq) "
+                    + "values (?, ?, ?, ?, ?, ?, ?)";
+        };
+    }
+
+    /**
+     * the values of the insert of the table, from the fields of a row of the file.
+     */
+    private Object[] toRow(RunningJob job, ImportJob.Table table, Map<String, Object> row, long rowNumber) {
+        try {
+            return switch (table) {
+                case USERS -> {
+                    String password = required(row, "password");
+                    if (!BCRYPT_HASH.matcher(password).matches()) {
+                        throw new IllegalArgumentException("password must be a BCrypt hash");
+                    }
+                    String roleName = optional(row, "role");
+                    Role role = roleName == null ? Role.USER : Role.valueOf(roleName.toUpperCase(Locale.ROOT));
+                    if (role == Role.ADMIN && !job.allowAdminRoles) {
+                        throw new IllegalArgumentException("the role ADMIN is only imported with allowAdminRoles=true");
+                    }
+                    yield new Object[]{integerOf(row, "id"), required(row, "firstname"), required(row, "lastname"),
+                            required(row, "email"), password, role.name()};
+                }
+                case CHAT_ROOMS -> new Object[]{integerOf(row, "id"), required(row, "name")};
+                case MEMBERSHIPS -> new Object[]{integerOf(row, "userId"), integerOf(row, "chatRoomId")};
+                case MESSAGES -> {
+                    String id = optional(row, "id");
+                    String clientTimestamp = optional(row, "clientTimestamp");
+                    String roomSeq = optional(row, "roomSeq");
+                    LocalDateTime timestamp = LocalDateTime.parse(required(row, "timestamp"));
+                    yield new Object[]{id == null
+                            ? MessageIdGenerator.idAt(timestamp.atZone(ZoneId.systemDefault()).toInstant(), job.idOffset + rowNumber)
+                            : Long.parseLong(id),
+                            integerOf(row, "chatRoomId"), integerOf(row, "userId"), required(row, "text"), timestamp,
+                            clientTimestamp == null ? null : LocalDateTime.parse(clientTimestamp),
+                            roomSeq == null ? null : Long.parseLong(roomSeq)};
+                }
+            };
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new IllegalArgumentException(table.getPartName() + " row " + rowNumber + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static String optional(Map<String, Object> row, String field) {
+        Object value = row.get(field);
+        return value == null || value.toString().isBlank() ? null : value.toString();
+    }
+
+    private static String required(Map<String, Object> row, String field) {
+        String value = optional(row, field);
+        if (value == null) {
+            throw new IllegalArgumentException(field + " is missing");
+        }
+        return value;
+    }
+
+    private static Integer integerOf(Map<String, Object> row, String field) {
+        return Integer.valueOf(required(row, field));
+    }
+
+    private static ImportJob.Format formatOf(Upload upload) {
+        String name = upload.fileName() == null ? "" : upload.fileName().toLowerCase(Locale.ROOT);
+        String contentType = upload.contentType() == null ? "" : upload.contentType();
+        return name.endsWith(".csv") || contentType.contains("csv") ? ImportJob.Format.CSV : ImportJob.Format.NDJSON;
+    }
+
+    /**
+     * @return the indexes that were dropped
+     */
+    private List<String> dropMessageIndexes() {
+        List<String> dropped = new ArrayList<>();
+        MESSAGE_INDEXES.keySet().forEach(index -> {
+            try {
+                jdbcTemplate.execute(isH2() ? "drop index " + index : "drop index " + index + " on message");
+                dropped.add(index);
+            } catch (RuntimeException e) {
+                logger.warning("the index " + index + " is kept during the import: " + e.getMessage());
+            }
+        });
+        return dropped;
+    }
+
+    /**
+     * build the given indexes that are missing (another instance may have built them already).
+     */
+    private void createMessageIndexes(Collection<String> indexes) {
+        if (indexes.isEmpty()) {
+            return;
+        }
+        Set<String> existing = messageIndexes();
+        for (String index : indexes) {
+            if (existing.contains(index)) {
+                continue;
+            }
+            long start = System.nanoTime();
+            jdbcTemplate.execute(MESSAGE_INDEXES.get(index));
+            logger.info("index " + index + " built in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+        }
+    }
+
+    /**
+     * @return the names of the indexes of the messages, in lower case
+     */
+    private Set<String> messageIndexes() {
+        return jdbcTemplate.execute((ConnectionCallback<Set<String>>) connection -> {
+            DatabaseMetaData metaData = connection.getMetaData();
+            String table = metaData.storesUpperCaseIdentifiers() ? "MESSAGE" : "message";
+            Set<String> names = new HashSet<>();
+            try (ResultSet indexes = metaData.getIndexInfo(connection.getCatalog(), connection.getSchema(), table, false, true)) {
+                while (indexes.next()) {
+                    String name = indexes.getString("INDEX_NAME");
+                    if (name != null) {
+                        names.add(name.toLowerCase(Locale.ROOT));
+                    }
+                }
+            }
+            return names;
+        });
+    }
+
+    /**
+     * the next generated id after the imported ones (H2 does not move its identity for the given ids, MySQL does).
+     */
+    private void restartIdentity(String tableName) {
+        if (isH2()) {
+            Long maxId = jdbcTemplate.queryForObject("select coalesce(max(id), 0) from " + tableName, Long.class);
+            jdbcTemplate.execute("alter table " + tableName + " alter column id restart with " + (maxId + 1));
+        }
+    }
+
+    private boolean isH2() {
+        if (h2 == null) {
+            h2 = "H2".equals(jdbcTemplate.execute((ConnectionCallback<String>) connection ->
+                    connection.getMetaData().getDatabaseProductName()));
+        }
+        return h2;
+    }
+
+    /**
+     * the copies of all the instances are refreshed once per job, not per row: the caches and responses of the chat rooms
+     * are dropped (the same event as a deletion), the users and the memberships are read again by their listeners.
+     */
+    private void refreshCopies(RunningJob job) {
+        if (inserted(job, ImportJob.Table.USERS)) {
+            eventBus.publish(UserChangedEvent.several());
+        }
+        if (inserted(job, ImportJob.Table.MEMBERSHIPS)) {
+            eventBus.publish(new MembershipChangedEvent(null, null, true));
+        }
+        if (inserted(job, ImportJob.Table.CHAT_ROOMS) || inserted(job, ImportJob.Table.MESSAGES)) {
+            eventBus.publish(new MessagesDeletedEvent(null, null));
+        }
+    }
+
+    private static boolean inserted(RunningJob job, ImportJob.Table table) {
+        return job.tables.stream().anyMatch(state -> state.table == table && state.rowsInserted.sum() > 0);
+    }
+
+    private void deleteFiles(Iterable<TableState> tables) {
+        for (TableState table : tables) {
+            try {
+                Files.deleteIfExists(table.path);
+            } catch (IOException e) {
+                logger.warning("the file " + table.path + " could not be deleted: " + e.getMessage());
+            }
+        }
+    }
+
+    private void forgetOldJobs() {
+        jobs.values().stream()
+                .filter(job -> job.finishedAt != null)
+                .sorted(Comparator.comparingLong(job -> job.id))
+                .limit(Math.max(0, jobs.size() - MAX_KEPT_JOBS))
+                .forEach(job -> jobs.remove(job.id));
+    }
+
+    private static void put(BlockingQueue<List<Object[]>> batches, List<Object[]> batch) {
+        try {
+            batches.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("the import was interrupted");
+        }
+    }
+
+    private static List<Object[]> take(BlockingQueue<List<Object[]>> batches) {
+        try {
+            return batches.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("the import was interrupted");
+        }
+    }
+
+    /**
+     * a job while it runs, the snapshots are its {@link ImportJob}s.
+     */
+    private static final class RunningJob {
+        private final long id;
+        private final boolean deferIndexes;
+        private final boolean allowAdminRoles;
+        private final long idOffset = ThreadLocalRandom.current().nextLong();
+        private final List<TableState> tables;
+        private final LocalDateTime createdAt = LocalDateTime.now();
+        private volatile ImportJob.Status status = ImportJob.Status.QUEUED;
+        private volatile String error;
+        private volatile LocalDateTime finishedAt;
+
+        private RunningJob(long id, boolean deferIndexes, boolean allowAdminRoles, List<TableState> tables) {
+            this.id = id;
+            this.deferIndexes = deferIndexes;
+            this.allowAdminRoles = allowAdminRoles;
+            this.tables = tables;
+        }
+
+        private ImportJob snapshot() {
+            return new ImportJob(id, status, deferIndexes, allowAdminRoles, tables.stream().map(TableState::snapshot).toList(),
+                    error, createdAt, finishedAt);
+        }
+    }
+
+    /**
+     * the progress of one table of a running job.
+     */
+    private static final class TableState {
+        private final ImportJob.Table table;
+        private final ImportJob.Format format;
+        private final Path path;
+        private final LongAdder rowsRead = new LongAdder();
+        private final LongAdder rowsInserted = new LongAdder();
+        private volatile ImportJob.Status status = ImportJob.Status.QUEUED;
+        private volatile long startNanos;
+        private volatile long endNanos;
+
+        private TableState(ImportJob.Table table, ImportJob.Format format, Path path) {
+            this.table = table;
+            this.format = format;
+            this.path = path;
+        }
+
+        private void start() {
+            startNanos = System.nanoTime();
+            status = ImportJob.Status.RUNNING;
+        }
+
+        private void end(ImportJob.Status endStatus) {
+            endNanos = System.nanoTime();
+            status = endStatus;
+        }
+
+        private ImportJob.TableProgress snapshot() {
+            long elapsedMs = startNanos == 0 ? 0 : ((endNanos == 0 ? System.nanoTime() : endNanos) - startNanos) / 1_000_000;
+            long inserted = rowsInserted.sum();
+            return new ImportJob.TableProgress(table, format, status, rowsRead.sum(), inserted, elapsedMs,
+                    inserted * 1000 / Math.max(1, elapsedMs));
+        }
+    }
+
+    /**
+     * one file of an import request.
+     * @param table the table of the file
+     * @param fileName the name of the file, null when unknown
+     * @param contentType the content type of the file, null when unknown
+     * @param content the file, read to its end by {@link #submit}
+     */
+    public record Upload(ImportJob.Table table, String fileName, String contentType, InputStream content) {
+    }
+
+    /**
+     * the files of an import request, one after the other: a file is read before the next one is asked.
+     */
+    @FunctionalInterface
+    public interface Uploads {
+        /**
+         * @return the next file, null after the last one
+         * @throws IOException if the request cannot be read
+         */
+        Upload next() throws IOException;
+    }
+}
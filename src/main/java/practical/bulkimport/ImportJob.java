@@ -0,0 +1,90 @@
+package practical.bulkimport;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * <h1>ImportJob</h1>
+ * <p>
+ *     The progress of a bulk import, as shown by <code>/api/import/{jobId}</code>.
+ * </p>
+ * @param id the id of the job
+ * @param status where the job is
+ * @param deferIndexes true if the indexes of the messages are dropped during the load and built again at the end
+ * @param allowAdminRoles true if the users with the role ADMIN are imported
+ * @param tables the progress of every table of the job, in the order they are loaded
+ * @param error why the job failed, or null
+ * @param createdAt when the job was submitted
+ * @param finishedAt when the job ended, or null
+ * @see BulkImportService
+ */
+public record ImportJob(long id, Status status, boolean deferIndexes, boolean allowAdminRoles, List<TableProgress> tables,
+                        String error, LocalDateTime createdAt, LocalDateTime finishedAt) {
+
+    /**
+     * the tables that can be imported, a file for each one.
+     * the users and the chat rooms are loaded first (together), then the memberships and the messages (together),
+     * they refer to the users and the chat rooms by their id.
+     */
+    public enum Table {
+        USERS("users", 0),
+        CHAT_ROOMS("chatrooms", 0),
+        MEMBERSHIPS("memberships", 1),
+        MESSAGES("messages", 1);
+
+        private final String partName;
+
+        private final int phase;
+
+        Table(String partName, int phase) {
+            this.partName = partName;
+            this.phase = phase;
+        }
+
+        /**
+         * @return the name of the part of the multipart request with the file of the table
+         */
+        public String getPartName() {
+            return partName;
+        }
+
+        /**
+         * @return the tables of the same phase are loaded at the same time, after the tables of the previous phase
+         */
+        public int getPhase() {
+            return phase;
+        }
+    }
+
+    /**
+     * the format of a file, by its name or content type: CSV with a header line, else one JSON object per line.
+     */
+    public enum Format {
+        NDJSON,
+        CSV
+    }
+
+    /**
+     * a job runs one at a time, the others wait QUEUED.
+     */
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED
+    }
+
+    /**
+     * the progress of one table.
+     * @param table the table
+     * @param format the format of its file
+     * @param status QUEUED, RUNNING, DONE or FAILED
+     * @param rowsRead the rows read from the file so far
+     * @param rowsInserted the rows inserted (committed) so far
+     * @param elapsedMs the time since the table started, until it ended
+     * @param rowsPerSecond the inserted rows per second
+     */
+    public record TableProgress(Table table, Format format, Status status, long rowsRead, long rowsInserted,
+                                long elapsedMs, long rowsPerSecond) {
+    }
+}
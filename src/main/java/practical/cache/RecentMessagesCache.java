@@ -0,0 +1,400 @@
+package practical.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import practical.events.EventBus;
+import practical.models.event.ChatEvent;
+import practical.models.event.MembershipChangedEvent;
+import practical.models.event.MessageCreatedEvent;
+import practical.models.event.MessagesDeletedEvent;
+import practical.models.response.MessageResponse;
+import practical.repositories.MessageStore;
+
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <h1>RecentMessagesCache</h1>
+ * <p>
+ *     Keeps the latest <code>chat.cache.recent.size</code> messages of every chat room that is read,
+ *     already written as JSON (the same JSON as {@link MessageResponse}), in a ring buffer per chat room.
+ *     the last message and the first page of the history are then answered without the database
+ *     and without mapping or serializing the messages again.
+ * </p>
+ * <p>
+ *     a chat room is read from the database the first time it is asked for, then the new messages are added
+ *     when they are created (by {@link practical.services.MessagesService} and by the {@link MessageCreatedEvent}s of the other instances).
+ *     the chat room is dropped when messages are deleted ({@link MessagesDeletedEvent}) and when its members change,
+ *     because every message embeds the number of members of the chat room.
+ * </p>
+ * <p>
+ *     all the chat rooms together hold at most <code>chat.cache.recent.max-bytes</code>,
+ *     above that the chat rooms that were not read for the longest time are dropped.
+ *     with <code>chat.cache.recent.off-heap</code> the JSON is kept in direct buffers, outside of the java heap.
+ * </p>
+ * <p>
+ *     Used when <code>chat.cache.recent.enabled</code> is true.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "chat.cache.recent.enabled", havingValue = "true")
+public class RecentMessagesCache {
+
+    private final MessageStore messageStore;
+
+    private final ObjectMapper objectMapper;
+
+    private final EventBus eventBus;
+
+    private final int capacity;
+
+    private final long maxBytes;
+
+    private final boolean offHeap;
+
+    private final Map<Integer, RoomBuffer> rooms = new ConcurrentHashMap<>();
+
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter evictions;
+
+    public RecentMessagesCache(MessageStore messageStore,
+                               ObjectMapper objectMapper,
+                               EventBus eventBus,
+                               MeterRegistry meterRegistry,
+                               @Value("${chat.cache.recent.size:100}") int capacity,
+                               @Value("${chat.cache.recent.max-bytes:67108864}") long maxBytes,
+                               @Value("${chat.cache.recent.off-heap:false}") boolean offHeap) {
+        this.messageStore = messageStore;
+        this.objectMapper = objectMapper;
+        this.eventBus = eventBus;
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+        this.hits = Counter.builder("chat.cache.recent.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("chat.cache.recent.requests").tag("result", "miss").register(meterRegistry);
+        this.evictions = Counter.builder("chat.cache.recent.evictions")
+                .description("chat rooms dropped to stay under the memory cap")
+                .register(meterRegistry);
+        Gauge.builder("chat.cache.recent.bytes", totalBytes, AtomicLong::get).register(meterRegistry);
+        Gauge.builder("chat.cache.recent.rooms", rooms, Map::size).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() {
+        eventBus.subscribe(this::onEvent);
+    }
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    /**
+     * @return how many messages are kept per chat room
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * the latest messages of the chat room as a JSON array, the oldest first.
+     * must be called while the session is open, a chat room that is not cached is read from the database.
+     * @param chatRoomId the id of the chat room
+     * @param limit how many messages, at most {@link #getCapacity()}
+     * @return the JSON array
+     */
+    public byte[] getLatestJson(Integer chatRoomId, int limit) {
+        List<ByteBuffer> latest = getLatest(chatRoomId, Math.min(limit, capacity));
+        int size = 2 + Math.max(0, latest.size() - 1);
+        for (ByteBuffer json : latest) {
+            size += json.remaining();
+        }
+        ByteBuffer array = ByteBuffer.allocate(size);
+        array.put((byte) '[');
+        for (int i = 0; i < latest.size(); i++) {
+            if (i > 0) {
+                array.put((byte) ',');
+            }
+            array.put(latest.get(i));
+        }
+        array.put((byte) ']');
+        return array.array();
+    }
+
+    /**
+     * the last message of the chat room as a JSON object.
+     * @param chatRoomId the id of the chat room
+     * @return the JSON object, null when the chat room has no message
+     */
+    public byte[] getLastJson(Integer chatRoomId) {
+        List<ByteBuffer> latest = getLatest(chatRoomId, 1);
+        if (latest.isEmpty()) {
+            return null;
+        }
+        byte[] json = new byte[latest.get(0).remaining()];
+        latest.get(0).get(json);
+        return json;
+    }
+
+    //==========================================================================
+    //============================== UPDATE ====================================
+    //==========================================================================
+
+    /**
+     * add a new message to its chat room, if the chat room is cached.
+     * called by the instance that created the message, so its own reads see the message right away.
+     * @param event the event of the new message
+     */
+    public void put(MessageCreatedEvent event) {
+        RoomBuffer buffer = rooms.get(event.chatRoomId());
+        if (buffer == null || buffer.contains(event.id())) {
+            return;
+        }
+        insert(buffer, new Entry(event.id(), toBuffer(serialize(event.message()))));
+        evictIfNeeded();
+    }
+
+    /**
+     * forget the chat room, it is read again from the database the next time.
+     * @param chatRoomId the id of the chat room
+     */
+    public void invalidate(Integer chatRoomId) {
+        RoomBuffer buffer = rooms.remove(chatRoomId);
+        if (buffer != null) {
+            drop(buffer);
+        }
+    }
+
+    /**
+     * forget all the chat rooms.
+     */
+    public void invalidateAll() {
+        rooms.keySet().forEach(this::invalidate);
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private List<ByteBuffer> getLatest(Integer chatRoomId, int limit) {
+        RoomBuffer buffer = rooms.get(chatRoomId);
+        List<ByteBuffer> latest = buffer == null ? null : buffer.latest(limit);
+        if (latest != null) {
+            hits.increment();
+            return latest;
+        }
+        misses.increment();
+        return load(chatRoomId, limit);
+    }
+
+    /**
+     * read the chat room from the database.
+     * the buffer is created before the query, so the messages created during the query are not lost.
+     */
+    private List<ByteBuffer> load(Integer chatRoomId, int limit) {
+        RoomBuffer buffer = rooms.computeIfAbsent(chatRoomId, id -> new RoomBuffer());
+        List<MessageResponse> messages = messageStore.findLatestResponsesByChatRoomId(chatRoomId, capacity);
+        List<Entry> loaded = new ArrayList<>(messages.size());
+        for (MessageResponse message : messages) {
+            loaded.add(new Entry(message.id, toBuffer(serialize(message))));
+        }
+        synchronized (buffer) {
+            if (!buffer.loaded && !buffer.removed) {
+                buffer.complete = messages.size() < capacity;
+                loaded.forEach(entry -> insert(buffer, entry));
+                buffer.loaded = true;
+            }
+        }
+        evictIfNeeded();
+
+        List<ByteBuffer> latest = buffer.latest(limit);
+        if (latest != null) {
+            return latest;
+        }
+        // dropped in the meantime, answer with what was read
+        return loaded.subList(Math.max(0, loaded.size() - limit), loaded.size()).stream()
+                .map(entry -> entry.json().duplicate())
+                .toList();
+    }
+
+    /**
+     * put the entry at its place (the order of the ids), the oldest entry is dropped when the buffer is full.
+     */
+    private void insert(RoomBuffer buffer, Entry entry) {
+        long added = 0;
+        synchronized (buffer) {
+            if (buffer.removed) {
+                return;
+            }
+            ArrayDeque<Entry> entries = buffer.entries;
+            if (entries.isEmpty() || entries.peekLast().id() < entry.id()) {
+                entries.addLast(entry);
+            } else {
+                if (buffer.loaded && !buffer.complete && entry.id() < entries.peekFirst().id()) {
+                    // older than the kept messages
+                    return;
+                }
+                ArrayDeque<Entry> newer = new ArrayDeque<>();
+                while (!entries.isEmpty() && entries.peekLast().id() > entry.id()) {
+                    newer.addFirst(entries.pollLast());
+                }
+                if (!entries.isEmpty() && entries.peekLast().id() == entry.id()) {
+                    entries.addAll(newer);
+                    return;
+                }
+                entries.addLast(entry);
+                entries.addAll(newer);
+            }
+            added += entry.size();
+            if (entries.size() > capacity) {
+                added -= entries.pollFirst().size();
+                buffer.complete = false;
+            }
+            buffer.bytes += added;
+        }
+        totalBytes.addAndGet(added);
+    }
+
+    private void drop(RoomBuffer buffer) {
+        synchronized (buffer) {
+            buffer.removed = true;
+            buffer.entries.clear();
+            totalBytes.addAndGet(-buffer.bytes);
+            buffer.bytes = 0;
+        }
+    }
+
+    /**
+     * drop the chat rooms that were read the longest time ago, until the cache is back under 90% of the cap.
+     */
+    private void evictIfNeeded() {
+        if (totalBytes.get() <= maxBytes) {
+            return;
+        }
+        synchronized (rooms) {
+            if (totalBytes.get() <= maxBytes) {
+                return;
+            }
+            List<Map.Entry<Integer, RoomBuffer>> coldestFirst = new ArrayList<>(rooms.entrySet());
+            coldestFirst.sort(Comparator.comparingLong(room -> room.getValue().lastReadNanos));
+            Iterator<Map.Entry<Integer, RoomBuffer>> iterator = coldestFirst.iterator();
+            while (totalBytes.get() > maxBytes * 9 / 10 && iterator.hasNext()) {
+                Map.Entry<Integer, RoomBuffer> room = iterator.next();
+                if (rooms.remove(room.getKey(), room.getValue())) {
+                    drop(room.getValue());
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    private byte[] serialize(MessageResponse message) {
+        try {
+            return objectMapper.writeValueAsBytes(message);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ByteBuffer toBuffer(byte[] json) {
+        if (!offHeap) {
+            return ByteBuffer.wrap(json).asReadOnlyBuffer();
+        }
+        ByteBuffer direct = ByteBuffer.allocateDirect(json.length);
+        direct.put(json).flip();
+        return direct.asReadOnlyBuffer();
+    }
+
+    private void onEvent(ChatEvent chatEvent) {
+        if (chatEvent instanceof MessageCreatedEvent event) {
+            put(event);
+        } else if (chatEvent instanceof MessagesDeletedEvent event) {
+            if (event.chatRoomId() == null) {
+                invalidateAll();
+            } else {
+                invalidate(event.chatRoomId());
+            }
+        } else if (chatEvent instanceof MembershipChangedEvent event) {
+            if (event.chatRoomId() == null) {
+                invalidateAll();
+            } else {
+                invalidate(event.chatRoomId());
+            }
+        }
+    }
+
+    /**
+     * one message as JSON.
+     */
+    private record Entry(long id, ByteBuffer json) {
+        int size() {
+            return json.capacity();
+        }
+    }
+
+    /**
+     * the latest messages of one chat room, the oldest first, guarded by itself.
+     */
+    private final class RoomBuffer {
+        private final ArrayDeque<Entry> entries = new ArrayDeque<>(capacity + 1);
+        /** the latest messages were read from the database */
+        private boolean loaded;
+        /** all the messages of the chat room are in the buffer */
+        private boolean complete;
+        /** dropped from the cache, nothing is added anymore */
+        private boolean removed;
+        private long bytes;
+        private volatile long lastReadNanos = System.nanoTime();
+
+        /**
+         * @return the latest messages, null when the buffer can't answer (not loaded yet, or dropped)
+         */
+        private synchronized List<ByteBuffer> latest(int limit) {
+            if (!loaded || removed || (!complete && entries.size() < limit)) {
+                return null;
+            }
+            lastReadNanos = System.nanoTime();
+            int skip = Math.max(0, entries.size() - limit);
+            List<ByteBuffer> latest = new ArrayList<>(Math.min(limit, entries.size()));
+            for (Entry entry : entries) {
+                if (skip-- <= 0) {
+                    latest.add(entry.json().duplicate());
+                }
+            }
+            return latest;
+        }
+
+        private synchronized boolean contains(long id) {
+            Iterator<Entry> newestFirst = entries.descendingIterator();
+            while (newestFirst.hasNext()) {
+                long entryId = newestFirst.next().id();
+                if (entryId == id) {
+                    return true;
+                }
+                if (entryId < id) {
+                    return false;
+                }
+            }
+            return false;
+        }
+    }
+}
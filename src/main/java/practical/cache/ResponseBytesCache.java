@@ -0,0 +1,201 @@
+package practical.cache;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import practical.events.EventBus;
+import practical.models.event.ChatEvent;
+import practical.models.event.MembershipChangedEvent;
+import practical.models.event.MessageCreatedEvent;
+import practical.models.event.MessagesDeletedEvent;
+import practical.models.event.UserChangedEvent;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * <h1>ResponseBytesCache</h1>
+ * <p>
+ *     Keeps the encoded bytes of the responses that many clients read about the same chat room
+ *     (the chat room, the first page of its messages), so they are not serialized again for every client.
+ *     the controllers write the bytes straight to the response.
+ * </p>
+ * <p>
+ *     an entry is found by the endpoint, the chat room, the variant (like the size of the page) and the version of the chat room.
+ *     a chat room gets a new version when it is read after a {@link MessageCreatedEvent}, {@link MessagesDeletedEvent} or
+ *     {@link MembershipChangedEvent} of the chat room (or its deletion), so the old entries are never read again,
+ *     and are dropped first because they are not read anymore. the responses embed the names of the users,
+ *     so a {@link UserChangedEvent} changes the versions of all the chat rooms at once.
+ *     all the entries together hold at most <code>chat.cache.response.max-bytes</code>,
+ *     the responses bigger than <code>chat.cache.response.max-entry-bytes</code> are not kept.
+ * </p>
+ * <p>
+ *     Used when <code>chat.cache.response.enabled</code> is true.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "chat.cache.response.enabled", havingValue = "true")
+public class ResponseBytesCache {
+
+    /**
+     * <code>GET /api/chatroom/{chatRoomId}</code>
+     */
+    public static final String CHAT_ROOM = "chat-room";
+
+    /**
+     * <code>GET /api/messages/chatroom/{chatRoomId}/recent</code>, by limit.
+     */
+    public static final String RECENT_MESSAGES = "recent-messages";
+
+    /**
+     * <code>GET /api/messages/chatroom/{chatRoomId}/page</code> without <code>afterId</code>, by limit.
+     */
+    public static final String FIRST_PAGE = "first-page";
+
+    private final EventBus eventBus;
+
+    private final long maxBytes;
+
+    private final int maxEntryBytes;
+
+    /**
+     * the version of every chat room read since its last change, a change removes it.
+     */
+    private final Map<Integer, Long> roomVersions = new ConcurrentHashMap<>();
+
+    private final AtomicLong versions = new AtomicLong();
+
+    /**
+     * changed when all the chat rooms change at once.
+     */
+    private volatile long epoch;
+
+    /**
+     * the least recently read first, guarded by itself.
+     */
+    private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    public ResponseBytesCache(EventBus eventBus,
+                              MeterRegistry meterRegistry,
+                              @Value("${chat.cache.response.max-bytes:33554432}") long maxBytes,
+                              @Value("${chat.cache.response.max-entry-bytes:1048576}") int maxEntryBytes) {
+        this.eventBus = eventBus;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.hits = Counter.builder("chat.cache.response.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("chat.cache.response.requests").tag("result", "miss").register(meterRegistry);
+        Gauge.builder("chat.cache.response.bytes", totalBytes, AtomicLong::get).register(meterRegistry);
+        Gauge.builder("chat.cache.response.entries", this, ResponseBytesCache::size).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() {
+        eventBus.subscribe(this::onEvent);
+    }
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    /**
+     * the bytes of the response, encoded with the encoder when they are not kept for the current version of the chat room.
+     * @param endpoint the endpoint, one of the constants of this class
+     * @param chatRoomId the id of the chat room
+     * @param variant what else changes the response (like the size of the page), or an empty string
+     * @param encoder encodes the response
+     * @return the bytes, must not be changed
+     */
+    public byte[] get(String endpoint, Integer chatRoomId, Object variant, Supplier<byte[]> encoder) {
+        // the version is read before the encoding, a change in the meantime is a new version
+        long roomEpoch = epoch;
+        Long version = roomVersions.computeIfAbsent(chatRoomId, id -> versions.incrementAndGet());
+        Key key = new Key(endpoint, chatRoomId, variant, roomEpoch, version);
+        byte[] bytes;
+        synchronized (entries) {
+            bytes = entries.get(key);
+        }
+        if (bytes != null) {
+            hits.increment();
+            return bytes;
+        }
+        misses.increment();
+        try {
+            bytes = encoder.get();
+        } catch (RuntimeException e) {
+            // not kept for a chat room that doesn't exist (anymore)
+            roomVersions.remove(chatRoomId, version);
+            throw e;
+        }
+        if (bytes.length <= maxEntryBytes) {
+            put(key, bytes);
+        }
+        return bytes;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    //==========================================================================
+    //============================== UPDATE ====================================
+    //==========================================================================
+
+    /**
+     * the chat room changed or was deleted, the kept responses are not read anymore.
+     * its version is removed, the next read gets a new one.
+     * called by the instance that made the change (the events of the other instances come later).
+     * @param chatRoomId the id of the chat room, null when all the chat rooms changed
+     */
+    public void roomChanged(Integer chatRoomId) {
+        if (chatRoomId == null) {
+            epoch = versions.incrementAndGet();
+        } else {
+            roomVersions.remove(chatRoomId);
+        }
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private void put(Key key, byte[] bytes) {
+        synchronized (entries) {
+            byte[] previous = entries.put(key, bytes);
+            long total = totalBytes.addAndGet(bytes.length - (previous == null ? 0 : previous.length));
+            Iterator<byte[]> leastRecentlyRead = entries.values().iterator();
+            while (total > maxBytes && leastRecentlyRead.hasNext()) {
+                total = totalBytes.addAndGet(-leastRecentlyRead.next().length);
+                leastRecentlyRead.remove();
+            }
+        }
+    }
+
+    private void onEvent(ChatEvent chatEvent) {
+        if (chatEvent instanceof MessageCreatedEvent
+                || chatEvent instanceof MessagesDeletedEvent
+                || chatEvent instanceof MembershipChangedEvent) {
+            roomChanged(chatEvent.chatRoomId());
+        } else if (chatEvent instanceof UserChangedEvent) {
+            roomChanged(null);
+        }
+    }
+
+    private record Key(String endpoint, Integer chatRoomId, Object variant, long epoch, long version) {
+    }
+}
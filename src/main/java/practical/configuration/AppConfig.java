@@ -1,14 +1,17 @@
 package practical.configuration;
 
+import practical.jfr.JfrPasswordEncoder;
 import practical.repositories.UserRepository;
 import practical.models.user.Role;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.annotation.authentication.configuration.AuthenticationConfiguration;
+import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityCustomizer;
@@ -32,10 +35,16 @@ import static org.springframework.security.config.Customizer.withDefaults;
  *     handle the pages that available for each role,
  *     User, Admin, and Guest.
  * </p>
+ * <p>
+ *     the admin tools under <code>/api</code> and the deletions of users and chat rooms (purge jobs)
+ *     are only for the admins by their URL, before the shared <code>/api/**</code>,
+ *     and the <code>@PreAuthorize</code> of the other endpoints are checked (method security).
+ * </p>
  * @see practical.models.user.Role User Role
  */
 @Configuration
 @EnableWebSecurity
+@EnableMethodSecurity
 @RequiredArgsConstructor
 public class AppConfig {
     private static final String[] ALLOWED_ALL = {"/css/**", "/images/**"
@@ -43,6 +52,9 @@ public class AppConfig {
     private static final String[] ALLOWED_GUEST = {"/auth/**"};
     private static final String[] ALLOWED_USER = {"/user/**"};
     private static final String[] ALLOWED_ADMIN = {"/admin/**"};
+    private static final String[] ALLOWED_ADMIN_API = {"/api/threads/**", "/api/shards/**", "/api/jobs/**", "/api/sequencer/**",
+            "/api/messages/benchmark/**", "/api/benchmarks/**", "/api/jfr/**", "/api/sql/**", "/api/import/**"};
+    private static final String[] DELETE_ADMIN = {"/api/users/**", "/api/chatroom/**"};
     private static final String[] ALLOWED_SHARED = {"/shared/**", "/chat-room", "/api/**", "/chat-room/**"};
 
     private final UserRepository userRepository;
@@ -57,7 +69,7 @@ public class AppConfig {
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
         var _guest = combineArrays(ALLOWED_ALL, ALLOWED_GUEST);
         var _user = combineArrays(ALLOWED_USER);
-        var _admin = combineArrays(ALLOWED_ADMIN);
+        var _admin = combineArrays(ALLOWED_ADMIN, ALLOWED_ADMIN_API);
         var _shared = combineArrays(ALLOWED_SHARED);
 
         http
@@ -67,6 +79,7 @@ public class AppConfig {
                         .requestMatchers(_guest).permitAll()
                         .requestMatchers(_user).hasRole(Role.USER.name())
                         .requestMatchers(_admin).hasRole(Role.ADMIN.name())
+                        .requestMatchers(HttpMethod.DELETE, DELETE_ADMIN).hasRole(Role.ADMIN.name())
                         .requestMatchers(_shared).hasAnyRole(Role.USER.name(), Role.ADMIN.name())
                         .anyRequest().authenticated()
                 )
@@ -89,12 +102,13 @@ public class AppConfig {
 
 
     /**
-     * for use, the encoded password must be stored in the database
+     * for use, the encoded password must be stored in the database.
+     * every hash is a JFR event (see practical.jfr), the slowest part of a login.
      * @return PasswordEncoder object
      */
     @Bean
     public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+        return new JfrPasswordEncoder(new BCryptPasswordEncoder());
     }
 
     /**
@@ -0,0 +1,24 @@
+package practical.configuration;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.session.config.annotation.web.http.EnableSpringHttpSession;
+import practical.session.NearCachedJdbcSessionRepository;
+
+/**
+ * <b>SessionConfig</b>
+ * <p>
+ *     Keeps the HTTP sessions in the database instead of the memory of the servlet container,
+ *     when <code>chat.session.store=jdbc</code>, so a user can be served by any instance without sticky sessions.
+ *     the filter of spring session replaces the sessions of the container, the sessions are stored
+ *     by {@link NearCachedJdbcSessionRepository}.
+ * </p>
+ * <p>
+ *     the session cookie is <code>SESSION</code> instead of <code>JSESSIONID</code>.
+ * </p>
+ */
+@Configuration
+@EnableSpringHttpSession
+@ConditionalOnProperty(name = "chat.session.store", havingValue = "jdbc")
+public class SessionConfig {
+}
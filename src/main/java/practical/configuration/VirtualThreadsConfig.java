@@ -0,0 +1,51 @@
+package practical.configuration;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import practical.threads.PinnedThreadMonitor;
+import practical.util.VirtualThreads;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * <b>VirtualThreadsConfig</b>
+ * <p>
+ *     Runs the requests on virtual threads instead of the Tomcat thread pool, when <code>chat.threads.virtual=true</code>.
+ *     needs a Java 21 runtime (the startup fails on an older one).
+ * </p>
+ * <p>
+ *     every request blocks on the database, with virtual threads a waiting request doesn't hold a platform thread,
+ *     so the number of requests in progress is limited by the connection pool and the bulkheads, not by
+ *     <code>server.tomcat.threads.max</code>.
+ *     the async work of spring (async requests, <code>@Async</code>) runs on virtual threads too.
+ * </p>
+ * @see PinnedThreadMonitor
+ */
+@Configuration
+@ConditionalOnProperty(name = "chat.threads.virtual", havingValue = "true")
+public class VirtualThreadsConfig {
+
+    /**
+     * a new virtual thread for every request.
+     * @return the customizer of the Tomcat connector
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadsProtocolHandlerCustomizer() {
+        ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("tomcat-handler-");
+        return protocolHandler -> protocolHandler.setExecutor(executor);
+    }
+
+    /**
+     * replaces the thread pool of spring boot for the async work.
+     * @return the executor
+     */
+    @Bean(name = TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+    public AsyncTaskExecutor applicationTaskExecutor() {
+        return new TaskExecutorAdapter(VirtualThreads.newThreadPerTaskExecutor("task-"));
+    }
+}
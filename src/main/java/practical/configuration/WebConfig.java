@@ -0,0 +1,102 @@
+package practical.configuration;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.multipart.support.StandardServletMultipartResolver;
+import org.springframework.web.servlet.DispatcherServlet;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import practical.bulkhead.BulkheadInterceptor;
+import practical.jfr.JfrInterceptor;
+import practical.ratelimit.RateLimitInterceptor;
+
+import java.util.Optional;
+
+/**
+ * <b>WebConfig</b>
+ * <p>
+ *     This class is used to configure Spring MVC,
+ *     it registers the interceptors that run around the controller methods,
+ *     and the binary formats of the API.
+ * </p>
+ * <p>
+ *     every endpoint can answer (and read request bodies) in CBOR or Smile instead of JSON,
+ *     with <code>?format=cbor</code> / <code>?format=smile</code> or the <code>Accept</code> and <code>Content-Type</code> headers.
+ *     like the JSON, they carry every field with its name (the order of the <code>@JsonPropertyOrder</code> of the DTOs
+ *     does not matter to the clients): the names are the schema, a field must never be renamed or change its type,
+ *     new fields can be added anywhere, the clients skip the names they don't know.
+ *     practical.benchmark.FormatsBenchmark compares their size and speed.
+ * </p>
+ * @see RateLimitInterceptor
+ * @see BulkheadInterceptor
+ * @see JfrInterceptor
+ */
+@Configuration
+@RequiredArgsConstructor
+public class WebConfig implements WebMvcConfigurer {
+
+    private final RateLimitInterceptor rateLimitInterceptor;
+
+    private final BulkheadInterceptor bulkheadInterceptor;
+
+    private final Optional<JfrInterceptor> jfrInterceptor;
+
+    /**
+     * register the interceptors for the API
+     * @param registry the interceptor registry
+     */
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // first, the JFR event of a request holds the time in the rate limit and the bulkhead
+        jfrInterceptor.ifPresent(interceptor -> registry.addInterceptor(interceptor).addPathPatterns("/api/**"));
+        registry.addInterceptor(rateLimitInterceptor).addPathPatterns("/api/**");
+        // after the rate limit, a rejected request must not take a slot
+        registry.addInterceptor(bulkheadInterceptor).addPathPatterns("/api/**");
+    }
+
+    /**
+     * CBOR (<code>application/cbor</code>), with the same settings as the JSON mapper (dates, modules ...).
+     * @param builder the object mapper builder of spring boot
+     * @return the converter, it replaces the default one
+     */
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
+
+    /**
+     * Smile (<code>application/x-jackson-smile</code>), with the same settings as the JSON mapper.
+     * repeated field names and short strings are written once and then referenced,
+     * so it is the smallest for long lists.
+     * @param builder the object mapper builder of spring boot
+     * @return the converter, it replaces the default one
+     */
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory()).build());
+    }
+
+    /**
+     * the multipart requests are parsed by the servlet container, within the small limits of
+     * <code>spring.servlet.multipart.*</code>, except the imports: practical.controller.ImportApiController
+     * streams them itself, only for the admins.
+     * @return the resolver, it replaces the one of spring boot
+     */
+    @Bean(name = DispatcherServlet.MULTIPART_RESOLVER_BEAN_NAME)
+    public StandardServletMultipartResolver multipartResolver() {
+        return new StandardServletMultipartResolver() {
+            @Override
+            public boolean isMultipart(HttpServletRequest request) {
+                return super.isMultipart(request)
+                        && !request.getRequestURI().startsWith(request.getContextPath() + "/api/import");
+            }
+        };
+    }
+}
@@ -0,0 +1,33 @@
+package practical.controller;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * <b>ApiErrors</b>
+ * <p>
+ *     the answer of the API controllers to their exceptions: 400 with the message,
+ *     except the exceptions that carry their own status, thrown again:
+ *     the access denied goes to spring security (403, or the login page when not logged in)
+ *     and the {@link ResponseStatusException} to spring mvc (its status, like 404).
+ * </p>
+ */
+final class ApiErrors {
+
+    private ApiErrors() {
+    }
+
+    /**
+     * @param e the exception of a controller method
+     * @return ResponseEntity<String> (400)
+     * @throws Exception the exception itself when it has its own status
+     */
+    static ResponseEntity<String> badRequest(Exception e) throws Exception {
+        if (e instanceof AccessDeniedException || e instanceof AuthenticationException || e instanceof ResponseStatusException) {
+            throw e;
+        }
+        return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+    }
+}
@@ -0,0 +1,76 @@
+package practical.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import practical.benchmark.BenchmarkJob;
+import practical.benchmark.BenchmarkJobService;
+
+import java.net.URI;
+import java.util.List;
+
+/**
+ * <h1>BenchmarkApiController</h1>
+ * <p>
+ *     API class for the admins to follow the benchmarks, started by the endpoint of every benchmark.
+ *     available only when <code>chat.benchmarks.enabled</code> is true.
+ * </p>
+ * <p>
+ *     <b>Note:</b> The controller is mapped to <code>/api/benchmarks.</code>
+ * </p>
+ * @see BenchmarkJobService
+ */
+@RestController
+@RequestMapping("/api/benchmarks")
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "chat.benchmarks.enabled", havingValue = "true")
+public class BenchmarkApiController {
+
+    private final BenchmarkJobService benchmarkJobService;
+
+    /**
+     * @param job a job that was just submitted
+     * @return 202 with the job, and its location
+     */
+    static ResponseEntity<BenchmarkJob> accepted(BenchmarkJob job) {
+        return ResponseEntity.accepted().location(URI.create("/api/benchmarks/" + job.id())).body(job);
+    }
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    /**
+     * Returns the last benchmarks, the newest first.
+     * @return List<BenchmarkJob>
+     */
+    @GetMapping("")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public List<BenchmarkJob> getJobs() {
+        return benchmarkJobService.getRecentJobs();
+    }
+
+    /**
+     * Returns the benchmark, with its results when it is done.
+     * @param jobId The id of the job.
+     * @return BenchmarkJob
+     */
+    @GetMapping("/{jobId}")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public BenchmarkJob getJob(@PathVariable long jobId) {
+        return benchmarkJobService.getJob(jobId);
+    }
+
+    /**
+     * handles all the exceptions.
+     * @param e The exception.
+     * @return ResponseEntity<String>
+     * @throws Exception an access denied or a ResponseStatusException, see ApiErrors
+     */
+    @ExceptionHandler(Exception.class)
+    public ResponseEntity<String> handleException(Exception e) throws Exception {
+        return ApiErrors.badRequest(e);
+    }
+}
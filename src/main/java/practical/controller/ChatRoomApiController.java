@@ -1,18 +1,31 @@
 package practical.controller;
 
 import lombok.RequiredArgsConstructor;
+import practical.bulkhead.Bulkheaded;
+import practical.jobs.PurgeJob;
+import practical.jobs.PurgeJobService;
+import practical.models.ChatRoom;
 import practical.models.request.ChatRoomRequest;
+import practical.models.request.MembersRequest;
 import practical.models.response.ChatRoomResponse;
+import practical.models.response.MembersResponse;
 import practical.models.response.UserResponse;
+import practical.ratelimit.RateLimitClass;
+import practical.ratelimit.RateLimited;
 import practical.services.ChatRoomService;
 import practical.services.UserService;
 import jakarta.annotation.Resource;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
+import java.net.URI;
 import java.security.Principal;
-import java.util.Arrays;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
@@ -23,6 +36,10 @@ import java.util.stream.StreamSupport;
  *     API class that handles all the requests related to the chat rooms.
  * </p>
  * <p>
+ *     the chat rooms are sent with the number of their members, with <code>?include=users</code> also with all
+ *     the members (like before the pages of members).
+ * </p>
+ * <p>
  *     <b>Note:</b> The controller is mapped to <code>/api/chatroom.</code>
  * </p>
  * @see practical.models.ChatRoom The ChatRoom model.
@@ -32,10 +49,22 @@ import java.util.stream.StreamSupport;
 @RequiredArgsConstructor
 public class ChatRoomApiController {
 
+    /**
+     * the biggest page of {@link #getMembers}.
+     */
+    private static final int MAX_MEMBERS_PAGE_SIZE = 1000;
+
+    /**
+     * the value of <code>include</code> that adds the members to the chat rooms.
+     */
+    private static final String INCLUDE_USERS = "users";
+
     private final ChatRoomService chatRoomService;
 
     private final UserService userService;
 
+    private final PurgeJobService purgeJobService;
+
 
     //==========================================================================
     //=============================== GET ======================================
@@ -43,35 +72,82 @@ public class ChatRoomApiController {
 
     /**
      * Returns all the chat rooms in the database.
+     * @param include <code>users</code> to add the members of every chat room.
      * @return Iterable<ChatRoomResponse>
      */
     @GetMapping("")
-    public Iterable<ChatRoomResponse> getAllChatRooms() {
+    public Iterable<ChatRoomResponse> getAllChatRooms(@RequestParam(required = false) String include) {
         return StreamSupport.stream(chatRoomService.getAllChatRooms().spliterator(), false)
-                .map(ChatRoomResponse::getFromChatRoom)
+                .map(chatRoom -> toResponse(chatRoom, include))
                 .toList();
     }
 
     /**
      * Returns all the chat rooms that the user is in.
      * @param userId The id of the user.
+     * @param include <code>users</code> to add the members of every chat room.
      * @return Iterable<ChatRoomResponse>
      */
     @GetMapping("/user/{userId}")
-    public Iterable<ChatRoomResponse> getAllChatRoomsByUserId(@PathVariable Integer userId) {
+    public Iterable<ChatRoomResponse> getAllChatRoomsByUserId(@PathVariable Integer userId,
+                                                              @RequestParam(required = false) String include) {
         return StreamSupport.stream(chatRoomService.getAllChatRoomsByUserId(userId).spliterator(), false)
-                .map(ChatRoomResponse::getFromChatRoom)
+                .map(chatRoom -> toResponse(chatRoom, include))
                 .toList();
     }
 
     /**
-     * return one chat room by id
+     * return one chat room by id, in JSON.
+     * the JSON comes from the {@link practical.cache.ResponseBytesCache} when it is enabled.
      * @param chatRoomId the id of the chat room
-     * @return ChatRoomResponse
+     * @param response the response to write to
+     * @throws IOException if the response can't be written
      */
     @GetMapping("/{chatRoomId}")
-    public ChatRoomResponse getChatRoomById(@PathVariable Integer chatRoomId) {
-        return ChatRoomResponse.getFromChatRoom(chatRoomService.getChatRoomById(chatRoomId));
+    public void getChatRoomById(@PathVariable Integer chatRoomId, HttpServletResponse response) throws IOException {
+        byte[] json = chatRoomService.getChatRoomJson(chatRoomId);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setContentLength(json.length);
+        response.getOutputStream().write(json);
+    }
+
+    /**
+     * return one chat room by id, in a binary format (<code>?format=cbor</code> / <code>?format=smile</code>).
+     * @param chatRoomId the id of the chat room
+     * @return ChatRoomResponse
+     */
+    @GetMapping(value = "/{chatRoomId}", produces = {MediaType.APPLICATION_CBOR_VALUE, "application/x-jackson-smile"})
+    public ChatRoomResponse getChatRoomByIdBinary(@PathVariable Integer chatRoomId) {
+        return chatRoomService.getChatRoomResponseById(chatRoomId);
+    }
+
+    /**
+     * return one chat room by id with all its members (<code>?include=users</code>), in every format, not cached.
+     * @param chatRoomId the id of the chat room
+     * @return ChatRoomResponse
+     */
+    @GetMapping(value = "/{chatRoomId}", params = "include=" + INCLUDE_USERS)
+    public ChatRoomResponse getChatRoomWithUsersById(@PathVariable Integer chatRoomId) {
+        ChatRoom chatRoom = chatRoomService.getChatRoomById(chatRoomId);
+        if (chatRoom == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "ChatRoom not found");
+        }
+        return toResponse(chatRoom, INCLUDE_USERS);
+    }
+
+    /**
+     * return one page of the members of a chat room, in the order of the user ids.
+     * the next page is read with <code>afterId</code> = <code>nextAfterId</code> of the page.
+     * @param chatRoomId the id of the chat room
+     * @param afterId only the users after this id, 0 for the first page
+     * @param limit the size of the page (at most 1000)
+     * @return MembersResponse
+     */
+    @GetMapping("/{chatRoomId}/members")
+    public MembersResponse getMembers(@PathVariable Integer chatRoomId,
+                                      @RequestParam(defaultValue = "0") int afterId,
+                                      @RequestParam(defaultValue = "100") int limit) {
+        return chatRoomService.getMembers(chatRoomId, afterId, Math.min(Math.max(limit, 1), MAX_MEMBERS_PAGE_SIZE));
     }
 
     /**
@@ -80,6 +156,8 @@ public class ChatRoomApiController {
      * @return Set<UserResponse>
      */
     @GetMapping("/filter/not-friends/{userId}")
+    @RateLimited(RateLimitClass.EXPENSIVE_READ)
+    @Bulkheaded(Bulkheaded.EXPENSIVE)
     public Set<UserResponse> getAllUsersNotInChatRoomWithUserId(@PathVariable Integer userId){
         return chatRoomService.getAllUsersNotInChatRoomWithUserId(userService.getUserById(userId)).stream()
                 .map(UserResponse::getFromUser)
@@ -92,6 +170,8 @@ public class ChatRoomApiController {
      * @return Set<UserResponse>
      */
     @GetMapping("/filter/friends/{userId}")
+    @RateLimited(RateLimitClass.EXPENSIVE_READ)
+    @Bulkheaded(Bulkheaded.EXPENSIVE)
     public Set<UserResponse> getAllUsersInChatRoomWithUserId(@PathVariable Integer userId){
         return chatRoomService.getAllUsersInChatRoomWithUserId(userService.getUserById(userId)).stream()
                 .map(UserResponse::getFromUser)
@@ -105,39 +185,53 @@ public class ChatRoomApiController {
     /**
      * Creates a new chat room.
      * @param chatRoomRequest The request body that contains the chat room data.
+     * @param include <code>users</code> to add the members.
      * @return ChatRoomResponse
      */
     @PostMapping("")
-    public ChatRoomResponse createChatRoom(@RequestBody ChatRoomRequest chatRoomRequest) {
-        return ChatRoomResponse.getFromChatRoom(chatRoomService.createChatRoom(chatRoomRequest));
+    public ChatRoomResponse createChatRoom(@RequestBody ChatRoomRequest chatRoomRequest,
+                                           @RequestParam(required = false) String include) {
+        return toResponse(chatRoomService.createChatRoom(chatRoomRequest), include);
     }
 
     /**
      * Adds a user to a chat room.
      * @param chatRoomId The id of the chat room.
      * @param userId The id of the user.
+     * @param include <code>users</code> to add the members.
      * @return ChatRoomResponse
      */
     @PostMapping("/{chatRoomId}/user/{userId}")
-    public ChatRoomResponse addUserToChatRoom(@PathVariable Integer chatRoomId, @PathVariable Integer userId) {
-        return ChatRoomResponse.getFromChatRoom(chatRoomService.addUserToChatRoom(chatRoomId, userId));
+    public ChatRoomResponse addUserToChatRoom(@PathVariable Integer chatRoomId, @PathVariable Integer userId,
+                                              @RequestParam(required = false) String include) {
+        return toResponse(chatRoomService.addUserToChatRoom(chatRoomId, userId), include);
     }
 
     /**
      * Creates a new chat room and adds the users to it.
+     * the users are found and added all at once, in one transaction.
      * @param chatRoomRequest The request body that contains the chat room data.
      * @param principal The principal object that contains the user data.
+     * @param include <code>users</code> to add the members.
      * @return ChatRoomResponse
      */
     @PostMapping("/create-add")
-    public ChatRoomResponse createChatRoomAndAddUsers(@RequestBody ChatRoomRequest chatRoomRequest, Principal principal) {
-        var chatRoom = chatRoomService.createChatRoom(chatRoomRequest);
-        Arrays.stream(chatRoomRequest.users)
-                .toList().forEach(user ->
-                    chatRoomService.addUserToChatRoom(chatRoom.getId(),
-                            userService.getUserByEmail(user.email).getId()));
+    public ChatRoomResponse createChatRoomAndAddUsers(@RequestBody ChatRoomRequest chatRoomRequest, Principal principal,
+                                                      @RequestParam(required = false) String include) {
+        return toResponse(chatRoomService.createChatRoomWithUsers(chatRoomRequest), include);
+    }
 
-        return ChatRoomResponse.getFromChatRoom(chatRoom);
+    /**
+     * Adds many users to a chat room at once (by email), the users that are already in it are skipped.
+     * @param chatRoomId The id of the chat room.
+     * @param membersRequest The users to add.
+     * @param include <code>users</code> to add the members.
+     * @return ChatRoomResponse
+     */
+    @PostMapping("/{chatRoomId}/users")
+    public ChatRoomResponse addUsersToChatRoom(@PathVariable Integer chatRoomId, @RequestBody MembersRequest membersRequest,
+                                               @RequestParam(required = false) String include) {
+        return toResponse(chatRoomService.addUsersToChatRoom(chatRoomId, membersRequest.users), include);
     }
 
 
@@ -148,13 +242,15 @@ public class ChatRoomApiController {
     /**
      * Deletes all the chat rooms in the database.
      * available only for admin.
-     * @return ResponseEntity<String>
+     * the chat rooms are deleted in the background, the job can be followed at <code>/api/jobs/{jobId}</code>.
+     * not {@link Bulkheaded}: the request only saves the job, the jobs run one at a time on the thread of the
+     * {@link PurgeJobService}.
+     * @return 202 with the job, and its location.
      */
     @DeleteMapping("")
     @PreAuthorize("hasRole('ROLE_ADMIN')")
-    public ResponseEntity<String> deleteAllChatRooms() {
-        chatRoomService.deleteAllChatRooms();
-        return ResponseEntity.ok("All chat rooms deleted");
+    public ResponseEntity<PurgeJob> deleteAllChatRooms() {
+        return accepted(purgeJobService.submit(PurgeJob.Type.ALL_CHAT_ROOMS, null));
     }
 
     /**
@@ -171,27 +267,60 @@ public class ChatRoomApiController {
         return ResponseEntity.ok("User deleted from chat room");
     }
 
+    /**
+     * Deletes many users from a chat room at once (by email).
+     * available only for admin.
+     * @param chatRoomId The id of the chat room.
+     * @param membersRequest The users to delete.
+     * @param include <code>users</code> to add the members.
+     * @return ChatRoomResponse
+     */
+    @DeleteMapping("/{chatRoomId}/users")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public ChatRoomResponse deleteUsersFromChatRoom(@PathVariable Integer chatRoomId, @RequestBody MembersRequest membersRequest,
+                                                    @RequestParam(required = false) String include) {
+        return toResponse(chatRoomService.deleteUsersFromChatRoom(chatRoomId, membersRequest.users), include);
+    }
+
     /**
      * Deletes a chat room by id.
      * available only for admin.
+     * the chat room is deleted in the background, the job can be followed at <code>/api/jobs/{jobId}</code>.
      * @param chatRoomId The id of the chat room.
-     * @return ResponseEntity<String>
+     * @return 202 with the job, and its location.
      */
     @DeleteMapping("/{chatRoomId}")
     @PreAuthorize("hasRole('ROLE_ADMIN')")
-    public ResponseEntity<String> deleteChatRoomById(@PathVariable Integer chatRoomId) {
-        chatRoomService.deleteChatRoomById(chatRoomId);
-        return ResponseEntity.ok("Chat room deleted");
+    public ResponseEntity<PurgeJob> deleteChatRoomById(@PathVariable Integer chatRoomId) {
+        ChatRoom chatRoom = chatRoomService.getChatRoomById(chatRoomId);
+        if (chatRoom == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "ChatRoom not found");
+        }
+        return accepted(purgeJobService.submit(PurgeJob.Type.CHAT_ROOM, chatRoom.getId()));
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private static ChatRoomResponse toResponse(ChatRoom chatRoom, String include) {
+        ChatRoomResponse response = ChatRoomResponse.getFromChatRoom(chatRoom);
+        return INCLUDE_USERS.equals(include) ? response.loadUsers(chatRoom) : response;
+    }
+
+    private ResponseEntity<PurgeJob> accepted(PurgeJob job) {
+        return ResponseEntity.accepted().location(URI.create("/api/jobs/" + job.id())).body(job);
     }
 
     /**
      * Handles all the exceptions that are thrown by the controller.
      * @param e The exception that was thrown.
      * @return ResponseEntity<String>
+     * @throws Exception an access denied or a ResponseStatusException, see ApiErrors
      */
     @ExceptionHandler(Exception.class)
-    public ResponseEntity<String> handleException(Exception e) {
-        return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+    public ResponseEntity<String> handleException(Exception e) throws Exception {
+        return ApiErrors.badRequest(e);
     }
 
 }
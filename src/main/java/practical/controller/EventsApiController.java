@@ -0,0 +1,55 @@
+package practical.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import practical.services.MessageEventDispatcher;
+
+/**
+ * <h1>EventsApiController</h1>
+ * <p>
+ *     API controller for the Server-Sent Events streams.
+ *     lightweight push transport for clients that can't use web sockets.
+ * </p>
+ * <p>
+ *     <b>Note:</b> The controller is mapped to <code>/api/events.</code>
+ * </p>
+ * @see MessageEventDispatcher
+ */
+@RestController
+@RequestMapping("/api/events")
+@RequiredArgsConstructor
+public class EventsApiController {
+
+    private final MessageEventDispatcher messageEventDispatcher;
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    /**
+     * Opens a stream with the new messages of all the chat rooms the user is in.
+     * when the client reconnects with the <code>Last-Event-ID</code> header, the missed messages are replayed first.
+     * @param userId The id of the user.
+     * @param lastEventId The id of the last event the client received.
+     * @return SseEmitter
+     */
+    @GetMapping(value = "/user/{userId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamUserEvents(@PathVariable Integer userId,
+                                       @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        return messageEventDispatcher.subscribe(userId, lastEventId);
+    }
+
+    /**
+     * handles all the exceptions.
+     * @param e The exception.
+     * @return ResponseEntity<String>
+     * @throws Exception an access denied or a ResponseStatusException, see ApiErrors
+     */
+    @ExceptionHandler(Exception.class)
+    public ResponseEntity<String> handleException(Exception e) throws Exception {
+        return ApiErrors.badRequest(e);
+    }
+}
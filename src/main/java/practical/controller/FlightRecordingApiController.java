@@ -0,0 +1,132 @@
+package practical.controller;
+
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import practical.jfr.OnDemandFlightRecorder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * <h1>FlightRecordingApiController</h1>
+ * <p>
+ *     API class for the admins to profile the running application with Java Flight Recorder:
+ *     start a bounded recording, stop it and download the <code>.jfr</code> file
+ *     (open it with JDK Mission Control or <code>jfr print --categories Chat</code>).
+ * </p>
+ * <p>
+ *     <b>Note:</b> The controller is mapped to <code>/api/jfr.</code>
+ * </p>
+ * @see OnDemandFlightRecorder
+ */
+@RestController
+@RequestMapping("/api/jfr")
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "chat.jfr.enabled", havingValue = "true", matchIfMissing = true)
+public class FlightRecordingApiController {
+
+    private final OnDemandFlightRecorder flightRecorder;
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    /**
+     * Returns the state of the current recording.
+     * @return RecordingStatus
+     */
+    @GetMapping("")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public OnDemandFlightRecorder.RecordingStatus getStatus() {
+        return flightRecorder.getStatus();
+    }
+
+    /**
+     * Downloads the data of the current recording, running (what was recorded until now) or stopped.
+     * @param response the response the file is written to
+     * @throws IOException if the recording cannot be written
+     */
+    @GetMapping("/recording")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public void downloadRecording(HttpServletResponse response) throws IOException {
+        Path file = flightRecorder.dump();
+        try {
+            response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            response.setContentLengthLong(Files.size(file));
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                    "attachment; filename=\"chat-" + flightRecorder.getStatus().id() + ".jfr\"");
+            Files.copy(file, response.getOutputStream());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    //==========================================================================
+    //=============================== POST =====================================
+    //==========================================================================
+
+    /**
+     * Starts a new recording, the data of the previous one is deleted.
+     * @param seconds the recording stops by itself after this time (at most chat.jfr.max-duration-seconds)
+     * @param settings the settings of the JDK events, default (low overhead) or profile
+     * @param thresholdMs the events of the application shorter than this are not recorded
+     * @return RecordingStatus
+     */
+    @PostMapping("/start")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public OnDemandFlightRecorder.RecordingStatus startRecording(@RequestParam(defaultValue = "60") long seconds,
+                                                                @RequestParam(defaultValue = "default") String settings,
+                                                                @RequestParam(defaultValue = "0") long thresholdMs) {
+        return flightRecorder.start(Duration.ofSeconds(seconds), settings, Duration.ofMillis(Math.max(thresholdMs, 0)));
+    }
+
+    /**
+     * Stops the running recording, it can still be downloaded.
+     * @return RecordingStatus
+     */
+    @PostMapping("/stop")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public OnDemandFlightRecorder.RecordingStatus stopRecording() {
+        return flightRecorder.stop();
+    }
+
+    //==========================================================================
+    //============================== DELETE ====================================
+    //==========================================================================
+
+    /**
+     * Stops the recording if it runs and deletes its data.
+     * @return RecordingStatus
+     */
+    @DeleteMapping("")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public OnDemandFlightRecorder.RecordingStatus deleteRecording() {
+        flightRecorder.close();
+        return flightRecorder.getStatus();
+    }
+
+    /**
+     * handles all the exceptions.
+     * @param e The exception.
+     * @return ResponseEntity<String>
+     * @throws Exception an access denied or a ResponseStatusException, see ApiErrors
+     */
+    @ExceptionHandler(Exception.class)
+    public ResponseEntity<String> handleException(Exception e) throws Exception {
+        return ApiErrors.badRequest(e);
+    }
+}
@@ -0,0 +1,143 @@
+package practical.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.apache.tomcat.util.http.fileupload.FileItemIterator;
+import org.apache.tomcat.util.http.fileupload.FileItemStream;
+import org.apache.tomcat.util.http.fileupload.FileUpload;
+import org.apache.tomcat.util.http.fileupload.impl.SizeException;
+import org.apache.tomcat.util.http.fileupload.servlet.ServletRequestContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import practical.bulkimport.BulkImportService;
+import practical.bulkimport.ImportJob;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+
+/**
+ * <h1>ImportApiController</h1>
+ * <p>
+ *     API class for the admins to load users, chat rooms, memberships and messages from files (NDJSON or CSV),
+ *     much faster than through the API.
+ * </p>
+ * <p>
+ *     the files can be large: the request is not parsed by the servlet container (its multipart limits are small,
+ *     see practical.configuration.WebConfig#multipartResolver), the parts are read here, after the authorization,
+ *     and copied one after the other, up to <code>chat.import.max-request-bytes</code>.
+ *     the options are in the query string and the CSRF token in the <code>X-CSRF-TOKEN</code> header:
+ *     a form field would make the container parse the request.
+ * </p>
+ * <p>
+ *     <b>Note:</b> The controller is mapped to <code>/api/import.</code>
+ * </p>
+ * @see BulkImportService
+ */
+@RestController
+@RequestMapping("/api/import")
+@RequiredArgsConstructor
+public class ImportApiController {
+
+    private final BulkImportService bulkImportService;
+
+    @Value("${chat.import.max-request-bytes:10737418240}")
+    private long maxRequestBytes;
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    /**
+     * Returns the last imports, the newest first.
+     * @return List<ImportJob>
+     */
+    @GetMapping("")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public List<ImportJob> getJobs() {
+        return bulkImportService.getRecentJobs();
+    }
+
+    /**
+     * Returns the import with the progress of every table.
+     * @param jobId The id of the job.
+     * @return ImportJob
+     */
+    @GetMapping("/{jobId}")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public ImportJob getJob(@PathVariable long jobId) {
+        return bulkImportService.getJob(jobId);
+    }
+
+    //==========================================================================
+    //=============================== POST =====================================
+    //==========================================================================
+
+    /**
+     * Starts an import, the files are loaded in the background.
+     * the parts are users, chatrooms, memberships and messages (any of them), the options are in the query string:
+     * deferIndexes (drop the indexes of the messages during their load and build them at the end)
+     * and allowAdminRoles (import the users with the role ADMIN, else they fail the import).
+     * @param request The multipart request, read here.
+     * @return ResponseEntity<ImportJob> (202, with the location of the job)
+     * @throws IOException if a file cannot be read or copied
+     */
+    @PostMapping(value = "", consumes = "multipart/form-data")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public ResponseEntity<ImportJob> importFiles(HttpServletRequest request) throws IOException {
+        // not request.getParameter: it would parse the whole body
+        MultiValueMap<String, String> options = ServletUriComponentsBuilder.fromRequest(request).build().getQueryParams();
+        boolean deferIndexes = Boolean.parseBoolean(options.getFirst("deferIndexes"));
+        boolean allowAdminRoles = Boolean.parseBoolean(options.getFirst("allowAdminRoles"));
+
+        FileUpload upload = new FileUpload();
+        upload.setSizeMax(maxRequestBytes);
+        ImportJob job;
+        try {
+            FileItemIterator parts = upload.getItemIterator(new ServletRequestContext(request));
+            job = bulkImportService.submit(() -> nextFile(parts), deferIndexes, allowAdminRoles);
+        } catch (IOException e) {
+            // the limit is checked on the Content-Length, or while the parts are read
+            if (e instanceof SizeException || e.getCause() instanceof SizeException) {
+                throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, e.getMessage(), e);
+            }
+            throw e;
+        }
+        return ResponseEntity.accepted().location(URI.create("/api/import/" + job.id())).body(job);
+    }
+
+    /**
+     * @return the next part with the file of a table, the other parts are skipped
+     */
+    private static BulkImportService.Upload nextFile(FileItemIterator parts) throws IOException {
+        while (parts.hasNext()) {
+            FileItemStream part = parts.next();
+            if (part.isFormField()) {
+                continue;
+            }
+            for (ImportJob.Table table : ImportJob.Table.values()) {
+                if (table.getPartName().equals(part.getFieldName())) {
+                    return new BulkImportService.Upload(table, part.getName(), part.getContentType(), part.openStream());
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * handles all the exceptions.
+     * @param e The exception.
+     * @return ResponseEntity<String>
+     * @throws Exception an access denied or a ResponseStatusException, see ApiErrors
+     */
+    @ExceptionHandler(Exception.class)
+    public ResponseEntity<String> handleException(Exception e) throws Exception {
+        return ApiErrors.badRequest(e);
+    }
+}
@@ -0,0 +1,65 @@
+package practical.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import practical.jobs.PurgeJob;
+import practical.jobs.PurgeJobService;
+
+import java.util.List;
+
+/**
+ * <h1>JobsApiController</h1>
+ * <p>
+ *     API class for the admins to follow the background jobs (the deletion of users and chat rooms).
+ * </p>
+ * <p>
+ *     <b>Note:</b> The controller is mapped to <code>/api/jobs.</code>
+ * </p>
+ * @see PurgeJobService
+ */
+@RestController
+@RequestMapping("/api/jobs")
+@RequiredArgsConstructor
+public class JobsApiController {
+
+    private final PurgeJobService purgeJobService;
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    /**
+     * Returns the last jobs, the newest first.
+     * @param limit how many jobs
+     * @return List<PurgeJob>
+     */
+    @GetMapping("")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public List<PurgeJob> getJobs(@RequestParam(defaultValue = "50") int limit) {
+        return purgeJobService.getRecentJobs(Math.min(Math.max(limit, 1), 1000));
+    }
+
+    /**
+     * Returns the job with its progress.
+     * @param jobId The id of the job.
+     * @return PurgeJob
+     */
+    @GetMapping("/{jobId}")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public PurgeJob getJob(@PathVariable long jobId) {
+        return purgeJobService.getJob(jobId);
+    }
+
+    /**
+     * handles all the exceptions.
+     * @param e The exception.
+     * @return ResponseEntity<String>
+     * @throws Exception an access denied or a ResponseStatusException, see ApiErrors
+     */
+    @ExceptionHandler(Exception.class)
+    public ResponseEntity<String> handleException(Exception e) throws Exception {
+        return ApiErrors.badRequest(e);
+    }
+}
@@ -1,14 +1,33 @@
 package practical.controller;
 
 import lombok.RequiredArgsConstructor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletResponse;
+import practical.benchmark.BenchmarkJob;
+import practical.benchmark.BenchmarkJobService;
+import practical.benchmark.FormatsBenchmark;
+import practical.bulkhead.Bulkheaded;
+import practical.models.Message;
 import practical.models.request.MessageRequest;
 import practical.models.response.MessageResponse;
+import practical.models.response.NormalizedMessagesWriter;
+import practical.models.user.User;
+import practical.ratelimit.RateLimitClass;
+import practical.ratelimit.RateLimited;
+import practical.repositories.MessageStoreBenchmark;
 import practical.services.MessagesService;
+import practical.services.UserService;
 import jakarta.annotation.Resource;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.stream.StreamSupport;
 
 /**
@@ -26,7 +45,30 @@ import java.util.stream.StreamSupport;
 @RequiredArgsConstructor
 public class MessagesApiController {
 
-    private MessagesService messagesService;
+    /**
+     * the biggest page of {@link #getMessagesPageByChatRoomId}.
+     */
+    private static final int MAX_PAGE_SIZE = 500;
+
+    private static final String SMILE_MEDIA_TYPE = "application/x-jackson-smile";
+
+    private final MessagesService messagesService;
+
+    private final ObjectMapper objectMapper;
+
+    private final UserService userService;
+
+    /**
+     * present when <code>chat.benchmarks.enabled</code> is true and <code>chat.sharding.enabled</code> is false.
+     */
+    private final Optional<MessageStoreBenchmark> messageStoreBenchmark;
+
+    /**
+     * present when <code>chat.benchmarks.enabled</code> is true.
+     */
+    private final Optional<FormatsBenchmark> formatsBenchmark;
+
+    private final Optional<BenchmarkJobService> benchmarkJobService;
 
     //==========================================================================
     //=============================== GET ======================================
@@ -37,6 +79,8 @@ public class MessagesApiController {
      * @return Iterable<MessageResponse>
      */
     @GetMapping("")
+    @RateLimited(RateLimitClass.EXPENSIVE_READ)
+    @Bulkheaded(Bulkheaded.EXPENSIVE)
     public Iterable<MessageResponse> getAllMessages() {
         return StreamSupport.stream(messagesService.getAllMessages().spliterator(), false)
                 .map(MessageResponse::getFromMessage)
@@ -49,6 +93,7 @@ public class MessagesApiController {
      * @return Iterable<MessageResponse>
      */
     @GetMapping("/chatroom/{chatRoomId}")
+    @Bulkheaded(Bulkheaded.MESSAGES)
     public Iterable<MessageResponse> getMessagesByChatRoomId(@PathVariable Integer chatRoomId) {
         return StreamSupport.stream(messagesService.getMessagesByChatRoomId(chatRoomId).spliterator(), false)
                 .map(MessageResponse::getFromMessage)
@@ -56,13 +101,119 @@ public class MessagesApiController {
     }
 
     /**
-     * Returns the last message in the chat room.
+     * Returns one page of the messages that are in the chat room, the oldest first, in JSON.
+     * the next page is read with <code>afterId</code> = the id of the last message of the page,
+     * the pages don't skip or repeat messages even when new ones are sent in between.
+     * the first page comes from the {@link practical.cache.ResponseBytesCache} when it is enabled.
      * @param chatRoomId The id of the chat room.
-     * @return MessageResponse
+     * @param afterId only the messages after this id, 0 for the first page.
+     * @param limit the size of the page (at most 500).
+     * @param response the response to write to
+     * @throws IOException if the response can't be written
+     */
+    @GetMapping("/chatroom/{chatRoomId}/page")
+    @Bulkheaded(Bulkheaded.MESSAGES)
+    public void getMessagesPageByChatRoomId(@PathVariable Integer chatRoomId,
+                                            @RequestParam(defaultValue = "0") long afterId,
+                                            @RequestParam(defaultValue = "50") int limit,
+                                            HttpServletResponse response) throws IOException {
+        writeJson(messagesService.getMessagesPageJson(chatRoomId, afterId, Math.min(Math.max(limit, 1), MAX_PAGE_SIZE)), response);
+    }
+
+    /**
+     * Returns one page of the messages that are in the chat room, in a binary format (<code>?format=cbor</code> / <code>?format=smile</code>).
+     * @param chatRoomId The id of the chat room.
+     * @param afterId only the messages after this id, 0 for the first page.
+     * @param limit the size of the page (at most 500).
+     * @return List<MessageResponse>
+     */
+    @GetMapping(value = "/chatroom/{chatRoomId}/page", produces = {MediaType.APPLICATION_CBOR_VALUE, SMILE_MEDIA_TYPE})
+    @Bulkheaded(Bulkheaded.MESSAGES)
+    public List<MessageResponse> getMessagesPageByChatRoomIdBinary(@PathVariable Integer chatRoomId,
+                                                                   @RequestParam(defaultValue = "0") long afterId,
+                                                                   @RequestParam(defaultValue = "50") int limit) {
+        return messagesService.getMessagesPageResponses(chatRoomId, afterId, Math.min(Math.max(limit, 1), MAX_PAGE_SIZE));
+    }
+
+    /**
+     * Returns all the messages in the database, in the normalized format.
+     * selected with <code>?format=normalized</code> or <code>Accept: application/vnd.chat.normalized+json</code>.
+     * @param response the response to write to
+     * @throws IOException if the response can't be written
+     * @see NormalizedMessagesWriter
+     */
+    @GetMapping(value = "", produces = NormalizedMessagesWriter.MEDIA_TYPE)
+    @RateLimited(RateLimitClass.EXPENSIVE_READ)
+    @Bulkheaded(Bulkheaded.EXPENSIVE)
+    public void getAllMessagesNormalized(HttpServletResponse response) throws IOException {
+        writeNormalized(messagesService.getAllMessages(), response);
+    }
+
+    /**
+     * Returns all the messages that are in the chat room, in the normalized format.
+     * selected with <code>?format=normalized</code> or <code>Accept: application/vnd.chat.normalized+json</code>.
+     * @param chatRoomId The id of the chat room.
+     * @param response the response to write to
+     * @throws IOException if the response can't be written
+     * @see NormalizedMessagesWriter
+     */
+    @GetMapping(value = "/chatroom/{chatRoomId}", produces = NormalizedMessagesWriter.MEDIA_TYPE)
+    @Bulkheaded(Bulkheaded.MESSAGES)
+    public void getMessagesByChatRoomIdNormalized(@PathVariable Integer chatRoomId, HttpServletResponse response) throws IOException {
+        writeNormalized(messagesService.getMessagesByChatRoomId(chatRoomId), response);
+    }
+
+    /**
+     * Returns the last message in the chat room, in JSON.
+     * the JSON comes from the {@link practical.cache.RecentMessagesCache} when it is enabled.
+     * @param chatRoomId The id of the chat room.
+     * @param response the response to write to
+     * @throws IOException if the response can't be written
      */
     @GetMapping("/chatroom/{chatRoomId}/last")
-    public MessageResponse getLastMessageInChatRoom(@PathVariable Integer chatRoomId) {
-        return MessageResponse.getFromMessage(messagesService.getLastMessageInChatRoom(chatRoomId));
+    @Bulkheaded(Bulkheaded.MESSAGES)
+    public void getLastMessageInChatRoom(@PathVariable Integer chatRoomId, HttpServletResponse response) throws IOException {
+        writeJson(messagesService.getLastMessageJson(chatRoomId), response);
+    }
+
+    /**
+     * Returns the last message in the chat room, in a binary format (<code>?format=cbor</code> / <code>?format=smile</code>).
+     * @param chatRoomId The id of the chat room.
+     * @return MessageResponse
+     */
+    @GetMapping(value = "/chatroom/{chatRoomId}/last", produces = {MediaType.APPLICATION_CBOR_VALUE, SMILE_MEDIA_TYPE})
+    @Bulkheaded(Bulkheaded.MESSAGES)
+    public MessageResponse getLastMessageInChatRoomBinary(@PathVariable Integer chatRoomId) {
+        return messagesService.getLastMessageResponse(chatRoomId);
+    }
+
+    /**
+     * Returns the latest messages in the chat room, the oldest first (the first page of the history), in JSON.
+     * the JSON comes from the {@link practical.cache.RecentMessagesCache} when it is enabled and the limit is not bigger than the cache.
+     * @param chatRoomId The id of the chat room.
+     * @param limit how many messages (at most 500).
+     * @param response the response to write to
+     * @throws IOException if the response can't be written
+     */
+    @GetMapping("/chatroom/{chatRoomId}/recent")
+    @Bulkheaded(Bulkheaded.MESSAGES)
+    public void getRecentMessagesByChatRoomId(@PathVariable Integer chatRoomId,
+                                              @RequestParam(defaultValue = "50") int limit,
+                                              HttpServletResponse response) throws IOException {
+        writeJson(messagesService.getLatestMessagesJson(chatRoomId, Math.min(Math.max(limit, 1), MAX_PAGE_SIZE)), response);
+    }
+
+    /**
+     * Returns the latest messages in the chat room, the oldest first, in a binary format (<code>?format=cbor</code> / <code>?format=smile</code>).
+     * @param chatRoomId The id of the chat room.
+     * @param limit how many messages (at most 500).
+     * @return List<MessageResponse>
+     */
+    @GetMapping(value = "/chatroom/{chatRoomId}/recent", produces = {MediaType.APPLICATION_CBOR_VALUE, SMILE_MEDIA_TYPE})
+    @Bulkheaded(Bulkheaded.MESSAGES)
+    public List<MessageResponse> getRecentMessagesByChatRoomIdBinary(@PathVariable Integer chatRoomId,
+                                                                     @RequestParam(defaultValue = "50") int limit) {
+        return messagesService.getLatestMessageResponses(chatRoomId, Math.min(Math.max(limit, 1), MAX_PAGE_SIZE));
     }
 
     //==========================================================================
@@ -75,10 +226,61 @@ public class MessagesApiController {
      * @return MessageResponse
      */
     @PostMapping("")
+    @RateLimited(RateLimitClass.MESSAGE_POST)
+    @Bulkheaded(Bulkheaded.MESSAGES)
     public MessageResponse createMessage(@RequestBody MessageRequest message) {
         return MessageResponse.getFromMessage(messagesService.createMessage(message));
     }
 
+    /**
+     * Starts the comparison of the JPA and the JDBC message stores on the main database in the background,
+     * with the current user as the sender.
+     * only with <code>chat.benchmarks.enabled</code>, not available with <code>chat.sharding.enabled</code>.
+     * @param messages how many messages are inserted in every store.
+     * @param reads how many times every read is done.
+     * @param principal the current user.
+     * @return 202 with the job (results in <code>/api/benchmarks/{jobId}</code>)
+     * @see MessageStoreBenchmark
+     */
+    @PostMapping("/benchmark/store")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public ResponseEntity<BenchmarkJob> runStoreBenchmark(@RequestParam(defaultValue = "2000") int messages,
+                                                          @RequestParam(defaultValue = "2000") int reads,
+                                                          Principal principal) {
+        MessageStoreBenchmark benchmark = messageStoreBenchmark.orElseThrow(() -> new IllegalStateException(
+                "the store benchmark needs chat.benchmarks.enabled and is not available with sharding"));
+        User sender = userService.getUserByEmail(principal.getName());
+        int messageCount = Math.min(Math.max(messages, 1), 100_000);
+        int readCount = Math.min(Math.max(reads, 1), 100_000);
+        return BenchmarkApiController.accepted(benchmarkJobService.orElseThrow().submit("message-store",
+                Map.of("messages", messageCount, "reads", readCount),
+                () -> benchmark.run(sender, messageCount, readCount)));
+    }
+
+    /**
+     * Starts the comparison of the JSON, CBOR and Smile encodings of the latest messages of a chat room in the background:
+     * their size, and how fast they are encoded and decoded.
+     * only with <code>chat.benchmarks.enabled</code>.
+     * @param chatRoomId the chat room whose messages are encoded.
+     * @param limit how many messages in the list.
+     * @param iterations how many times the list is encoded and decoded in every format.
+     * @return 202 with the job (results in <code>/api/benchmarks/{jobId}</code>)
+     * @see FormatsBenchmark
+     */
+    @PostMapping("/benchmark/formats")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public ResponseEntity<BenchmarkJob> runFormatsBenchmark(@RequestParam Integer chatRoomId,
+                                                            @RequestParam(defaultValue = "200") int limit,
+                                                            @RequestParam(defaultValue = "2000") int iterations) {
+        FormatsBenchmark benchmark = formatsBenchmark
+                .orElseThrow(() -> new IllegalStateException("the benchmarks are disabled (chat.benchmarks.enabled)"));
+        int messageLimit = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        int iterationCount = Math.min(Math.max(iterations, 1), 100_000);
+        return BenchmarkApiController.accepted(benchmarkJobService.orElseThrow().submit("formats",
+                Map.of("chatRoomId", chatRoomId, "limit", messageLimit, "iterations", iterationCount),
+                () -> benchmark.run(chatRoomId, messageLimit, iterationCount)));
+    }
+
     //==========================================================================
     //============================== DELETE ====================================
     //==========================================================================
@@ -90,7 +292,7 @@ public class MessagesApiController {
      */
     @DeleteMapping("/{messageId}")
     @PreAuthorize("hasRole('ROLE_ADMIN')")
-    public ResponseEntity<String> deleteMessageById(@PathVariable Integer messageId) {
+    public ResponseEntity<String> deleteMessageById(@PathVariable Long messageId) {
         messagesService.deleteMessageById(messageId);
         return ResponseEntity.ok("Message deleted successfully");
     }
@@ -108,14 +310,31 @@ public class MessagesApiController {
         return ResponseEntity.ok("Messages deleted successfully");
     }
 
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private void writeNormalized(Iterable<Message> messages, HttpServletResponse response) throws IOException {
+        response.setContentType(NormalizedMessagesWriter.MEDIA_TYPE);
+        response.setCharacterEncoding("UTF-8");
+        NormalizedMessagesWriter.write(messages, objectMapper.getFactory(), response.getOutputStream());
+    }
+
+    private void writeJson(byte[] json, HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setContentLength(json.length);
+        response.getOutputStream().write(json);
+    }
+
     /**
      * handles all the exceptions.
      * @param e The exception.
      * @return ResponseEntity<String>
+     * @throws Exception an access denied or a ResponseStatusException, see ApiErrors
      */
     @ExceptionHandler(Exception.class)
-    public ResponseEntity<String> handleException(Exception e) {
-        return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+    public ResponseEntity<String> handleException(Exception e) throws Exception {
+        return ApiErrors.badRequest(e);
     }
 
 }
@@ -0,0 +1,77 @@
+package practical.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import practical.services.PresenceService;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <h1>PresenceApiController</h1>
+ * <p>
+ *     API class that tells who is online in the chat rooms.
+ *     the answers come from memory, see {@link PresenceService}.
+ * </p>
+ * <p>
+ *     <b>Note:</b> The controller is mapped to <code>/api/presence.</code>
+ * </p>
+ */
+@RestController
+@RequestMapping("/api/presence")
+@RequiredArgsConstructor
+public class PresenceApiController {
+
+    private final PresenceService presenceService;
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    /**
+     * Returns the ids of the online users in the chat room.
+     * @param chatRoomId The id of the chat room.
+     * @return Set<Integer>
+     */
+    @GetMapping("/chatroom/{chatRoomId}")
+    public Set<Integer> getOnlineMembers(@PathVariable Integer chatRoomId) {
+        return presenceService.getOnlineMembers(chatRoomId);
+    }
+
+    /**
+     * Returns the number of online users in every chat room the user is in.
+     * @param userId The id of the user.
+     * @return Map<Integer, Integer> chat room id to online count
+     */
+    @GetMapping("/user/{userId}/counts")
+    public Map<Integer, Integer> getOnlineCountsForUser(@PathVariable Integer userId) {
+        return presenceService.getOnlineCountsForUser(userId);
+    }
+
+    //==========================================================================
+    //=============================== POST =====================================
+    //==========================================================================
+
+    /**
+     * Keeps the user online, the clients without an event stream should call it periodically.
+     * @param userId The id of the user.
+     * @return ResponseEntity<String>
+     */
+    @PostMapping("/user/{userId}/heartbeat")
+    public ResponseEntity<String> heartbeat(@PathVariable Integer userId) {
+        presenceService.heartbeat(userId);
+        return ResponseEntity.ok("ok");
+    }
+
+    /**
+     * handles all the exceptions.
+     * @param e The exception.
+     * @return ResponseEntity<String>
+     * @throws Exception an access denied or a ResponseStatusException, see ApiErrors
+     */
+    @ExceptionHandler(Exception.class)
+    public ResponseEntity<String> handleException(Exception e) throws Exception {
+        return ApiErrors.badRequest(e);
+    }
+}
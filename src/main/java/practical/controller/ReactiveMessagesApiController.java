@@ -0,0 +1,77 @@
+package practical.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import practical.models.response.MessageResponse;
+import practical.reactive.ReactiveMessageReader;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * <h1>ReactiveMessagesApiController</h1>
+ * <p>
+ *     Non-blocking API for reading the message history, the same answers as {@link MessagesApiController}
+ *     but read with R2DBC instead of JPA, so no request thread waits for the database.
+ * </p>
+ * <p>
+ *     with <code>Accept: application/x-ndjson</code> the messages are streamed, one JSON object per line,
+ *     at the speed of the client. with <code>application/json</code> they are sent as one array.
+ * </p>
+ * <p>
+ *     <b>Note:</b> The controller is mapped to <code>/api/reactive/messages.</code>
+ * </p>
+ * @see ReactiveMessageReader
+ */
+@RestController
+@RequestMapping("/api/reactive/messages")
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "chat.sharding.enabled", havingValue = "false", matchIfMissing = true)
+public class ReactiveMessagesApiController {
+
+    private final ReactiveMessageReader reactiveMessageReader;
+
+    @Value("${chat.reactive.page-size:200}")
+    private int pageSize;
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    /**
+     * Returns the messages of the chat room, oldest first.
+     * @param chatRoomId The id of the chat room.
+     * @param afterId only the messages after this id (to continue a stream that was cut).
+     * @return Flux<MessageResponse>
+     */
+    @GetMapping(value = "/chatroom/{chatRoomId}",
+            produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public Flux<MessageResponse> getMessagesByChatRoomId(@PathVariable Integer chatRoomId,
+                                                         @RequestParam(defaultValue = "0") long afterId) {
+        return reactiveMessageReader.findByChatRoomId(chatRoomId, afterId, pageSize);
+    }
+
+    /**
+     * Returns the last message in the chat room.
+     * @param chatRoomId The id of the chat room.
+     * @return Mono<MessageResponse>
+     */
+    @GetMapping("/chatroom/{chatRoomId}/last")
+    public Mono<MessageResponse> getLastMessageInChatRoom(@PathVariable Integer chatRoomId) {
+        return reactiveMessageReader.findLastByChatRoomId(chatRoomId);
+    }
+
+    /**
+     * handles all the exceptions.
+     * @param e The exception.
+     * @return ResponseEntity<String>
+     * @throws Exception an access denied or a ResponseStatusException, see ApiErrors
+     */
+    @ExceptionHandler(Exception.class)
+    public ResponseEntity<String> handleException(Exception e) throws Exception {
+        return ApiErrors.badRequest(e);
+    }
+}
@@ -0,0 +1,97 @@
+package practical.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import practical.benchmark.BenchmarkJob;
+import practical.benchmark.BenchmarkJobService;
+import practical.sequencer.HotRoomBenchmark;
+import practical.sequencer.RoomSequencer;
+import practical.models.user.User;
+import practical.services.UserService;
+
+import java.security.Principal;
+import java.util.Map;
+import java.util.Optional;
+
+import static practical.controller.BenchmarkApiController.accepted;
+
+/**
+ * <h1>SequencerApiController</h1>
+ * <p>
+ *     API class for the admins to see the room sequencer and to measure it.
+ *     available only when <code>chat.sequencer.enabled</code> is true.
+ * </p>
+ * <p>
+ *     <b>Note:</b> The controller is mapped to <code>/api/sequencer.</code>
+ * </p>
+ * @see RoomSequencer
+ */
+@RestController
+@RequestMapping("/api/sequencer")
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "chat.sequencer.enabled", havingValue = "true")
+public class SequencerApiController {
+
+    private final RoomSequencer roomSequencer;
+
+    private final Optional<HotRoomBenchmark> hotRoomBenchmark;
+
+    private final Optional<BenchmarkJobService> benchmarkJobService;
+
+    private final UserService userService;
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    /**
+     * Returns how many chat rooms have a mailbox in the sequencer.
+     * @return Map<String, Integer>
+     */
+    @GetMapping("")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public Map<String, Integer> getSequencer() {
+        return Map.of("activeRooms", roomSequencer.getActiveRooms());
+    }
+
+    //==========================================================================
+    //=============================== POST =====================================
+    //==========================================================================
+
+    /**
+     * Starts the hot room benchmark in the background, with the current user as the sender.
+     * only with <code>chat.benchmarks.enabled</code>.
+     * @param messages how many messages in every mode.
+     * @param senders how many senders at the same time.
+     * @param principal the current user.
+     * @return 202 with the job (results in <code>/api/benchmarks/{jobId}</code>)
+     */
+    @PostMapping("/benchmark")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public ResponseEntity<BenchmarkJob> runBenchmark(@RequestParam(defaultValue = "2000") int messages,
+                                                     @RequestParam(defaultValue = "32") int senders,
+                                                     Principal principal) {
+        HotRoomBenchmark benchmark = hotRoomBenchmark
+                .orElseThrow(() -> new IllegalStateException("the benchmarks are disabled (chat.benchmarks.enabled)"));
+        User sender = userService.getUserByEmail(principal.getName());
+        int messageCount = Math.min(Math.max(messages, 1), 100_000);
+        int senderCount = Math.min(Math.max(senders, 1), 256);
+        return accepted(benchmarkJobService.orElseThrow().submit("hot-room",
+                Map.of("messages", messageCount, "senders", senderCount),
+                () -> benchmark.run(sender, messageCount, senderCount)));
+    }
+
+    /**
+     * handles all the exceptions.
+     * @param e The exception.
+     * @return ResponseEntity<String>
+     * @throws Exception an access denied or a ResponseStatusException, see ApiErrors
+     */
+    @ExceptionHandler(Exception.class)
+    public ResponseEntity<String> handleException(Exception e) throws Exception {
+        return ApiErrors.badRequest(e);
+    }
+}
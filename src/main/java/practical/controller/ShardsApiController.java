@@ -0,0 +1,113 @@
+package practical.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import practical.sharding.MessageShardRouter;
+import practical.sharding.ShardRebalancer;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <h1>ShardsApiController</h1>
+ * <p>
+ *     API class for the admins to look at the message shards and move chat rooms between them.
+ *     available only when <code>chat.sharding.enabled</code> is true.
+ * </p>
+ * <p>
+ *     <b>Note:</b> The controller is mapped to <code>/api/shards.</code>
+ * </p>
+ * @see practical.sharding.ShardedMessageStore
+ */
+@RestController
+@RequestMapping("/api/shards")
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "chat.sharding.enabled", havingValue = "true")
+public class ShardsApiController {
+
+    private final MessageShardRouter router;
+
+    private final ShardRebalancer rebalancer;
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    /**
+     * Returns the number of messages in every shard.
+     * @return Map<String, Long>
+     */
+    @GetMapping("")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public Map<String, Long> getShards() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        router.getShards().forEach(shard -> counts.put(shard.name(),
+                shard.jdbcTemplate().queryForObject("select count(*) from messages", Long.class)));
+        return counts;
+    }
+
+    /**
+     * Returns the shard that holds the messages of the chat room.
+     * @param chatRoomId The id of the chat room.
+     * @return the name of the shard
+     */
+    @GetMapping("/chatroom/{chatRoomId}")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public String getShardOfChatRoom(@PathVariable Integer chatRoomId) {
+        return router.shardFor(chatRoomId).name();
+    }
+
+    /**
+     * Returns the last moves, the newest first.
+     * @return List<MoveJob>
+     */
+    @GetMapping("/moves")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public List<ShardRebalancer.MoveJob> getMoves() {
+        return rebalancer.getRecentMoves();
+    }
+
+    /**
+     * Returns the move, with what was moved when it is done.
+     * @param moveId The id of the move.
+     * @return MoveJob
+     */
+    @GetMapping("/moves/{moveId}")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public ShardRebalancer.MoveJob getMove(@PathVariable long moveId) {
+        return rebalancer.getMove(moveId);
+    }
+
+    //==========================================================================
+    //=============================== POST =====================================
+    //==========================================================================
+
+    /**
+     * Moves the messages of the chat room to another shard, in the background.
+     * @param chatRoomId The id of the chat room.
+     * @param shardName The name of the new shard.
+     * @return 202 with the move, and its location.
+     */
+    @PostMapping("/chatroom/{chatRoomId}/move/{shardName}")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public ResponseEntity<ShardRebalancer.MoveJob> moveChatRoom(@PathVariable Integer chatRoomId, @PathVariable String shardName) {
+        ShardRebalancer.MoveJob move = rebalancer.submitMove(chatRoomId, shardName);
+        return ResponseEntity.accepted().location(URI.create("/api/shards/moves/" + move.id())).body(move);
+    }
+
+    /**
+     * handles all the exceptions.
+     * @param e The exception.
+     * @return ResponseEntity<String>
+     * @throws Exception an access denied or a ResponseStatusException, see ApiErrors
+     */
+    @ExceptionHandler(Exception.class)
+    public ResponseEntity<String> handleException(Exception e) throws Exception {
+        return ApiErrors.badRequest(e);
+    }
+}
@@ -0,0 +1,78 @@
+package practical.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import practical.sql.SqlStatistics;
+
+import java.util.List;
+
+/**
+ * <h1>SqlApiController</h1>
+ * <p>
+ *     API class for the admins to see which SQL statements cost the most, by their fingerprint
+ *     (the statement without its values).
+ * </p>
+ * <p>
+ *     <b>Note:</b> The controller is mapped to <code>/api/sql.</code>
+ * </p>
+ * @see SqlStatistics
+ */
+@RestController
+@RequestMapping("/api/sql")
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "chat.sql.stats.enabled", havingValue = "true", matchIfMissing = true)
+public class SqlApiController {
+
+    private final SqlStatistics sqlStatistics;
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    /**
+     * Returns the statements that took the most time since the start (or the last reset).
+     * @param limit how many statements
+     * @param orderBy total (time), count, p99, max or rows
+     * @return List<QueryStats>
+     */
+    @GetMapping("/top")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public List<SqlStatistics.QueryStats> getTopQueries(@RequestParam(defaultValue = "20") int limit,
+                                                        @RequestParam(defaultValue = "total") String orderBy) {
+        return sqlStatistics.getTop(Math.min(Math.max(limit, 1), 1000), orderBy);
+    }
+
+    //==========================================================================
+    //============================== DELETE ====================================
+    //==========================================================================
+
+    /**
+     * Forgets all the counters, to measure from now on.
+     * @return ResponseEntity<String>
+     */
+    @DeleteMapping("/stats")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public ResponseEntity<String> resetStatistics() {
+        sqlStatistics.reset();
+        return ResponseEntity.ok("SQL statistics reset");
+    }
+
+    /**
+     * handles all the exceptions.
+     * @param e The exception.
+     * @return ResponseEntity<String>
+     * @throws Exception an access denied or a ResponseStatusException, see ApiErrors
+     */
+    @ExceptionHandler(Exception.class)
+    public ResponseEntity<String> handleException(Exception e) throws Exception {
+        return ApiErrors.badRequest(e);
+    }
+}
@@ -0,0 +1,100 @@
+package practical.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import practical.benchmark.BenchmarkJob;
+import practical.benchmark.BenchmarkJobService;
+import practical.threads.PinnedThreadMonitor;
+import practical.threads.ThreadsBenchmark;
+import practical.util.VirtualThreads;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static practical.controller.BenchmarkApiController.accepted;
+
+/**
+ * <h1>ThreadsApiController</h1>
+ * <p>
+ *     API class for the admins to see where the virtual threads are pinned to their carrier threads
+ *     (when <code>chat.threads.virtual</code> is true), and to compare them with the platform threads.
+ * </p>
+ * <p>
+ *     <b>Note:</b> The controller is mapped to <code>/api/threads.</code>
+ * </p>
+ * @see PinnedThreadMonitor
+ */
+@RestController
+@RequestMapping("/api/threads")
+@RequiredArgsConstructor
+public class ThreadsApiController {
+
+    private final Optional<PinnedThreadMonitor> pinnedThreadMonitor;
+
+    private final Optional<ThreadsBenchmark> threadsBenchmark;
+
+    private final Optional<BenchmarkJobService> benchmarkJobService;
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    /**
+     * Returns the places where virtual threads were pinned, the longest total first.
+     * @return List<PinnedSite>
+     */
+    @GetMapping("/pinned")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public List<PinnedThreadMonitor.PinnedSite> getPinnedSites() {
+        return pinnedThreadMonitor
+                .orElseThrow(() -> new IllegalStateException("the virtual threads are disabled (chat.threads.virtual)"))
+                .getPinnedSites();
+    }
+
+    //==========================================================================
+    //=============================== POST =====================================
+    //==========================================================================
+
+    /**
+     * Starts the benchmark of the platform threads against the virtual threads in the background.
+     * only with <code>chat.benchmarks.enabled</code>, on Java 21.
+     * @param chatRoomId the chat room that every request reads.
+     * @param concurrency the levels of concurrency, in their order.
+     * @param requests how many requests at every level.
+     * @param blockingMs how long every request blocks after its read.
+     * @return 202 with the job (results in <code>/api/benchmarks/{jobId}</code>)
+     */
+    @PostMapping("/benchmark")
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    public ResponseEntity<BenchmarkJob> runBenchmark(@RequestParam Integer chatRoomId,
+                                                     @RequestParam(defaultValue = "50,200,800,3200") List<Integer> concurrency,
+                                                     @RequestParam(defaultValue = "4000") int requests,
+                                                     @RequestParam(defaultValue = "20") long blockingMs) {
+        ThreadsBenchmark benchmark = threadsBenchmark
+                .orElseThrow(() -> new IllegalStateException("the benchmarks are disabled (chat.benchmarks.enabled)"));
+        if (!VirtualThreads.isSupported()) {
+            throw new IllegalStateException("virtual threads need Java 21 or later, running on Java " + Runtime.version());
+        }
+        List<Integer> concurrencies = concurrency.stream().map(level -> Math.min(Math.max(level, 1), 10_000)).toList();
+        int requestCount = Math.min(Math.max(requests, 1), 100_000);
+        long blocking = Math.min(Math.max(blockingMs, 0), 1000);
+        return accepted(benchmarkJobService.orElseThrow().submit("threads",
+                Map.of("chatRoomId", chatRoomId, "concurrency", concurrencies, "requests", requestCount,
+                        "blockingMs", blocking),
+                () -> benchmark.run(chatRoomId, concurrencies, requestCount, blocking)));
+    }
+
+    /**
+     * handles all the exceptions.
+     * @param e The exception.
+     * @return ResponseEntity<String>
+     * @throws Exception an access denied or a ResponseStatusException, see ApiErrors
+     */
+    @ExceptionHandler(Exception.class)
+    public ResponseEntity<String> handleException(Exception e) throws Exception {
+        return ApiErrors.badRequest(e);
+    }
+}
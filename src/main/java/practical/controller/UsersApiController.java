@@ -1,12 +1,23 @@
 package practical.controller;
 
 import lombok.RequiredArgsConstructor;
+import practical.bulkhead.Bulkheaded;
+import practical.jobs.PurgeJob;
+import practical.jobs.PurgeJobService;
 import practical.models.response.UserResponse;
+import practical.models.response.UserSearchResponse;
+import practical.models.user.User;
+import practical.ratelimit.RateLimitClass;
+import practical.ratelimit.RateLimited;
+import practical.services.UserSearchService;
 import practical.services.UserService;
 import jakarta.annotation.Resource;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import java.net.URI;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -26,7 +37,16 @@ import java.util.stream.StreamSupport;
 @RequiredArgsConstructor
 public class UsersApiController {
 
-    private UserService userService;
+    /**
+     * the biggest page of {@link #searchUsers}.
+     */
+    private static final int MAX_SEARCH_PAGE_SIZE = 100;
+
+    private final UserService userService;
+
+    private final UserSearchService userSearchService;
+
+    private final PurgeJobService purgeJobService;
 
     //==========================================================================
     //=============================== GET ======================================
@@ -37,12 +57,29 @@ public class UsersApiController {
      * @return all the users in the database.
      */
     @GetMapping("")
+    @RateLimited(RateLimitClass.EXPENSIVE_READ)
+    @Bulkheaded(Bulkheaded.EXPENSIVE)
     public Iterable<UserResponse> getAllUsers() {
         return StreamSupport.stream(userService.getAllUsers().spliterator(), false)
                 .map(UserResponse::getFromUser)
                 .collect(Collectors.toList());
     }
 
+    /**
+     * find users by the beginning of their first name, last name or email (typeahead).
+     * the best matches come first: a name equal to the prefix, a name starting with it, then an email starting with it.
+     * @param prefix the beginning of the names or email, several words must all match
+     * @param page the number of the page, from 0
+     * @param size the size of the page (at most 100)
+     * @return one page of the users, without their chat rooms
+     */
+    @GetMapping("/search")
+    public UserSearchResponse searchUsers(@RequestParam String prefix,
+                                          @RequestParam(defaultValue = "0") int page,
+                                          @RequestParam(defaultValue = "20") int size) {
+        return userSearchService.search(prefix, Math.max(page, 0), Math.min(Math.max(size, 1), MAX_SEARCH_PAGE_SIZE));
+    }
+
     /**
      * get user by email
      * @param email email of the user
@@ -69,50 +106,66 @@ public class UsersApiController {
     //==========================================================================
 
     /**
-     * This method is responsible for deleting all the users in the database.
+     * This method is responsible for deleting all the users in the database (except the admin).
      * only the admin can do this.
-     * @return ResponseEntity with the message "All users deleted".
+     * the users are deleted in the background, the job can be followed at <code>/api/jobs/{jobId}</code>.
+     * @return 202 with the job, and its location.
      */
     @DeleteMapping("")
     @PreAuthorize("hasRole('ROLE_ADMIN')")
-    public ResponseEntity<String> deleteAllUsers() {
-        userService.deleteAllUsers();
-        return ResponseEntity.ok("All users deleted");
+    public ResponseEntity<PurgeJob> deleteAllUsers() {
+        return accepted(purgeJobService.submit(PurgeJob.Type.ALL_USERS, null));
     }
 
     /**
      * This method is responsible for deleting the user with the given email.
      * only the admin can do this.
+     * the user is deleted in the background, the job can be followed at <code>/api/jobs/{jobId}</code>.
      * @param email email of the user to be deleted.
-     * @return ResponseEntity with the message "User with email: {user email} deleted".
+     * @return 202 with the job, and its location.
      */
     @DeleteMapping("/email/{email}")
     @PreAuthorize("hasRole('ROLE_ADMIN')")
-    public ResponseEntity<String> deleteUserByEmail(@PathVariable String email) {
-        userService.deleteUserByEmail(email);
-        return ResponseEntity.ok("User with email: " + email + " deleted");
+    public ResponseEntity<PurgeJob> deleteUserByEmail(@PathVariable String email) {
+        return accepted(purgeJobService.submit(PurgeJob.Type.USER, idOf(userService.getUserByEmail(email))));
     }
 
     /**
      * This method is responsible for deleting the user with the given id.
      * only the admin can do this.
+     * the user is deleted in the background, the job can be followed at <code>/api/jobs/{jobId}</code>.
      * @param userId id of the user to be deleted.
-     * @return ResponseEntity with the message "User with id: {user id} deleted".
+     * @return 202 with the job, and its location.
      */
     @DeleteMapping("/id/{userId}")
     @PreAuthorize("hasRole('ROLE_ADMIN')")
-    public ResponseEntity<String> deleteUserById(@PathVariable Integer userId) {
-        userService.deleteUserById(userId);
-        return ResponseEntity.ok("User with id: " + userId + " deleted");
+    public ResponseEntity<PurgeJob> deleteUserById(@PathVariable Integer userId) {
+        return accepted(purgeJobService.submit(PurgeJob.Type.USER, idOf(userService.getUserById(userId))));
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private Integer idOf(User user) {
+        if (user == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found");
+        }
+        return user.getId();
+    }
+
+    private ResponseEntity<PurgeJob> accepted(PurgeJob job) {
+        return ResponseEntity.accepted().location(URI.create("/api/jobs/" + job.id())).body(job);
     }
 
     /**
      * handle the all the exceptions that can occur.
      * @param e exception
      * @return error message
+     * @throws Exception an access denied or a ResponseStatusException, see ApiErrors
      */
     @ExceptionHandler(Exception.class)
-    public ResponseEntity<String> handleException(Exception e) {
-        return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+    public ResponseEntity<String> handleException(Exception e) throws Exception {
+        return ApiErrors.badRequest(e);
     }
 }
@@ -0,0 +1,36 @@
+package practical.events;
+
+import practical.models.event.ChatEvent;
+
+import java.util.function.Consumer;
+
+/**
+ * <h1>EventBus</h1>
+ * <p>
+ *     This interface carries the {@link ChatEvent}s between the services and between the instances of the application.
+ *     The events of one chat room are delivered to the listeners in the order they were published.
+ * </p>
+ * <p>
+ *     The implementation is selected with the property <code>chat.event-bus.type</code>:
+ *     <ul>
+ *         <li><code>jvm</code> (default) {@link InJvmEventBus} for a single instance.</li>
+ *         <li><code>jdbc</code> {@link JdbcEventBus} shares the events through the database between several instances.</li>
+ *     </ul>
+ * </p>
+ */
+public interface EventBus {
+
+    /**
+     * publish an event to all the listeners (on all the instances).
+     * inside a transaction the event is published when the transaction commits.
+     * @param event the event to publish
+     */
+    void publish(ChatEvent event);
+
+    /**
+     * register a listener for all the events.
+     * the listeners are called on the bus thread, so they should not block.
+     * @param listener the listener
+     */
+    void subscribe(Consumer<ChatEvent> listener);
+}
@@ -0,0 +1,85 @@
+package practical.events;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import practical.models.event.ChatEvent;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <h1>InJvmEventBus</h1>
+ * <p>
+ *     {@link EventBus} for a single instance of the application.
+ *     The events are delivered by one background thread, so they keep the order they were published in.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "chat.event-bus.type", havingValue = "jvm", matchIfMissing = true)
+public class InJvmEventBus implements EventBus {
+    private static final Logger logger = Logger.getLogger(InJvmEventBus.class.getName());
+
+    private final List<Consumer<ChatEvent>> listeners = new CopyOnWriteArrayList<>();
+
+    private final ExecutorService deliveryExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "event-bus-delivery");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Override
+    public void publish(ChatEvent event) {
+        afterCommit(() -> deliveryExecutor.execute(() -> deliver(listeners, event)));
+    }
+
+    @Override
+    public void subscribe(Consumer<ChatEvent> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * run the action when the current transaction commits, or now when there is no transaction.
+     * so the listeners never see a change that is not in the database yet, or that is rolled back.
+     * @param action the action
+     */
+    static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * call every listener with the event, one failing listener doesn't stop the others.
+     * @param listeners the listeners
+     * @param event the event
+     */
+    static void deliver(List<Consumer<ChatEvent>> listeners, ChatEvent event) {
+        for (Consumer<ChatEvent> listener : listeners) {
+            try {
+                listener.accept(event);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "event listener failed for " + event, e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        deliveryExecutor.shutdown();
+    }
+}
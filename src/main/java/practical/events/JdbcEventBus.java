@@ -0,0 +1,240 @@
+package practical.events;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import practical.models.event.ChatEvent;
+import practical.models.event.MembershipChangedEvent;
+import practical.models.event.MessagesDeletedEvent;
+import practical.models.event.MessageCreatedEvent;
+import practical.models.event.UserChangedEvent;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <h1>JdbcEventBus</h1>
+ * <p>
+ *     {@link EventBus} that shares the events between several instances through the table <code>chat_events</code>.
+ *     The events are delivered to the local listeners right away, and written to the table in batches.
+ *     every instance polls the table and delivers the events of the other instances in id order,
+ *     so the events of one chat room keep their order on all the instances.
+ * </p>
+ * <p>
+ *     <b>Note:</b> to run several instances on one machine, all of them need the same database,
+ *     for example <code>spring.datasource.url=jdbc:h2:file:./data/chat;AUTO_SERVER=TRUE</code>.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "chat.event-bus.type", havingValue = "jdbc")
+public class JdbcEventBus implements EventBus {
+    private static final Logger logger = Logger.getLogger(JdbcEventBus.class.getName());
+
+    private static final Map<String, Class<? extends ChatEvent>> EVENT_TYPES = Map.of(
+            MessageCreatedEvent.class.getSimpleName(), MessageCreatedEvent.class,
+            MembershipChangedEvent.class.getSimpleName(), MembershipChangedEvent.class,
+            MessagesDeletedEvent.class.getSimpleName(), MessagesDeletedEvent.class,
+            UserChangedEvent.class.getSimpleName(), UserChangedEvent.class);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final ObjectMapper objectMapper;
+
+    private final int batchSize;
+
+    private final long gapGraceMs;
+
+    private final long retentionMs;
+
+    /**
+     * the id of this instance, the instance skips its own events when it polls the table.
+     */
+    private final String origin = UUID.randomUUID().toString();
+
+    private final List<Consumer<ChatEvent>> listeners = new CopyOnWriteArrayList<>();
+
+    private final Queue<ChatEvent> pendingEvents = new ConcurrentLinkedQueue<>();
+
+    private final ExecutorService deliveryExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "event-bus-delivery");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private long lastSeenId;
+
+    /**
+     * when the poll found a hole in the ids (a transaction of another instance that is not committed yet).
+     */
+    private long gapSince = 0;
+
+    public JdbcEventBus(JdbcTemplate jdbcTemplate,
+                        ObjectMapper objectMapper,
+                        @Value("${chat.event-bus.jdbc.batch-size:500}") int batchSize,
+                        @Value("${chat.event-bus.jdbc.gap-grace-ms:2000}") long gapGraceMs,
+                        @Value("${chat.event-bus.jdbc.retention-ms:600000}") long retentionMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
+        this.gapGraceMs = gapGraceMs;
+        this.retentionMs = retentionMs;
+    }
+
+    /**
+     * create the table if needed, and start reading after the last event that is already there.
+     */
+    @PostConstruct
+    public void init() {
+        jdbcTemplate.execute("""
+                create table if not exists chat_events (
+                    id bigint auto_increment primary key,
+                    origin varchar(36) not null,
+                    chat_room_id int,
+                    event_type varchar(64) not null,
+                    payload longtext not null,
+                    created_at timestamp not null
+                )""");
+        Long maxId = jdbcTemplate.queryForObject("select coalesce(max(id), 0) from chat_events", Long.class);
+        lastSeenId = maxId == null ? 0 : maxId;
+    }
+
+    //==========================================================================
+    //============================== PUBLISH ===================================
+    //==========================================================================
+
+    @Override
+    public void publish(ChatEvent event) {
+        InJvmEventBus.afterCommit(() -> {
+            pendingEvents.add(event);
+            deliveryExecutor.execute(() -> InJvmEventBus.deliver(listeners, event));
+        });
+    }
+
+    @Override
+    public void subscribe(Consumer<ChatEvent> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * write the pending events to the table, in batches of <code>chat.event-bus.jdbc.batch-size</code>.
+     */
+    @Scheduled(fixedDelayString = "${chat.event-bus.jdbc.flush-interval-ms:50}")
+    public void flush() {
+        List<Object[]> batch = new ArrayList<>(batchSize);
+        Timestamp now = Timestamp.from(Instant.now());
+        ChatEvent event;
+        while ((event = pendingEvents.poll()) != null) {
+            try {
+                batch.add(new Object[]{origin, event.chatRoomId(), event.getClass().getSimpleName(),
+                        objectMapper.writeValueAsString(event), now});
+            } catch (JsonProcessingException e) {
+                logger.log(Level.WARNING, "could not serialize " + event, e);
+            }
+            if (batch.size() == batchSize) {
+                insert(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            insert(batch);
+        }
+    }
+
+    //==========================================================================
+    //=============================== POLL =====================================
+    //==========================================================================
+
+    /**
+     * read the new events of the other instances and deliver them in id order.
+     * a hole in the ids stops the poll until the hole is filled or is older than <code>chat.event-bus.jdbc.gap-grace-ms</code>,
+     * so an event that is committed late is not skipped.
+     */
+    @Scheduled(fixedDelayString = "${chat.event-bus.jdbc.poll-interval-ms:200}")
+    public void poll() {
+        List<StoredEvent> events = jdbcTemplate.query(
+                "select id, origin, event_type, payload from chat_events where id > ? order by id limit ?",
+                (rs, rowNum) -> new StoredEvent(rs.getLong("id"), rs.getString("origin"),
+                        rs.getString("event_type"), rs.getString("payload")),
+                lastSeenId, batchSize);
+
+        for (StoredEvent stored : events) {
+            if (stored.id() != lastSeenId + 1) {
+                long now = System.currentTimeMillis();
+                if (gapSince == 0) {
+                    gapSince = now;
+                }
+                if (now - gapSince < gapGraceMs) {
+                    return;
+                }
+            }
+            gapSince = 0;
+            lastSeenId = stored.id();
+            if (!origin.equals(stored.origin())) {
+                ChatEvent event = read(stored);
+                if (event != null) {
+                    deliveryExecutor.execute(() -> InJvmEventBus.deliver(listeners, event));
+                }
+            }
+        }
+    }
+
+    /**
+     * delete the events that every instance had enough time to read.
+     */
+    @Scheduled(fixedDelayString = "${chat.event-bus.jdbc.cleanup-interval-ms:60000}")
+    public void cleanup() {
+        jdbcTemplate.update("delete from chat_events where created_at < ?",
+                Timestamp.from(Instant.now().minusMillis(retentionMs)));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+        deliveryExecutor.shutdown();
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private void insert(List<Object[]> batch) {
+        jdbcTemplate.batchUpdate(
+                "insert into chat_events (origin, chat_room_id, event_type, payload, created_at) values (?, ?, ?, ?, ?)",
+                batch);
+    }
+
+    private ChatEvent read(StoredEvent stored) {
+        Class<? extends ChatEvent> type = EVENT_TYPES.get(stored.type());
+        if (type == null) {
+            logger.warning("unknown event type " + stored.type());
+            return null;
+        }
+        try {
+            return objectMapper.readValue(stored.payload(), type);
+        } catch (JsonProcessingException e) {
+            logger.log(Level.WARNING, "could not read event " + stored.id(), e);
+            return null;
+        }
+    }
+
+    private record StoredEvent(long id, String origin, String type, String payload) {
+    }
+}
@@ -0,0 +1,146 @@
+package practical.ids;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * <h1>MessageIdGenerator</h1>
+ * <p>
+ *     Gives the ids of the messages, without asking the database.
+ *     an id is a 64 bit number made of the time, the node and a sequence:
+ * </p>
+ * <pre>
+ *     | 41 bits: milliseconds since 2024-01-01 | 10 bits: node | 12 bits: sequence |
+ * </pre>
+ * <p>
+ *     so the ids of one node always grow, and the ids of all the nodes are ordered by time (up to the clock skew
+ *     between the nodes). the id is the primary key and the order of the messages, the time the message was created
+ *     can be read back from it with {@link #instantOf(long)}.
+ * </p>
+ * <p>
+ *     the time and the sequence are kept in one {@link AtomicLong}, no lock: when the 4096 ids of a millisecond are
+ *     used, or the clock goes back, the next ids borrow the following milliseconds instead of waiting.
+ *     the nodes must have different <code>chat.ids.node-id</code>. when it is not set, it is taken from the host and the pid
+ *     (two instances get the same node once in about 1024), which is only allowed when the instance is alone:
+ *     with <code>chat.event-bus.type=jdbc</code>, <code>chat.sharding.enabled=true</code> or
+ *     <code>chat.session.store=jdbc</code> the application does not start without it.
+ * </p>
+ */
+@Component
+public class MessageIdGenerator {
+    private static final Logger logger = Logger.getLogger(MessageIdGenerator.class.getName());
+
+    /**
+     * 2024-01-01T00:00:00Z, the 41 bits of milliseconds last until 2093.
+     */
+    public static final long EPOCH_MS = 1704067200000L;
+
+    private static final int NODE_BITS = 10;
+
+    private static final int SEQUENCE_BITS = 12;
+
+    private static final int TIME_BITS = 41;
+
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long nodeId;
+
+    /**
+     * (milliseconds since the epoch << SEQUENCE_BITS) | sequence, of the last id.
+     */
+    private final AtomicLong last = new AtomicLong();
+
+    public MessageIdGenerator(@Value("${chat.ids.node-id:-1}") int nodeId,
+                              @Value("${chat.event-bus.type:jvm}") String eventBusType,
+                              @Value("${chat.sharding.enabled:false}") boolean sharding,
+                              @Value("${chat.session.store:container}") String sessionStore) {
+        if (nodeId < 0 && ("jdbc".equals(eventBusType) || sharding || "jdbc".equals(sessionStore))) {
+            throw new IllegalStateException("chat.ids.node-id must be set, different on every instance, when several"
+                    + " instances share the database (chat.event-bus.type=jdbc, chat.sharding.enabled or chat.session.store=jdbc)");
+        }
+        this.nodeId = nodeId >= 0 ? checkNodeId(nodeId) : defaultNodeId();
+        logger.info("message ids: node " + this.nodeId);
+    }
+
+    /**
+     * @return a new id, bigger than all the ids given before by this node
+     */
+    public long nextId() {
+        long now = (System.currentTimeMillis() - EPOCH_MS) << SEQUENCE_BITS;
+        long next = last.accumulateAndGet(now, (previous, candidate) -> Math.max(previous + 1, candidate));
+        return ((next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS))
+                | (nodeId << SEQUENCE_BITS)
+                | (next & SEQUENCE_MASK);
+    }
+
+    /**
+     * @return the node of this instance
+     */
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @param id an id given by a generator
+     * @return when the id was given
+     */
+    public static Instant instantOf(long id) {
+        return Instant.ofEpochMilli((id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MS);
+    }
+
+    /**
+     * @param instant a time
+     * @return the smallest id that can be given at this time, to search the ids by time.
+     * 0 (before every id) for a time before 2024-01-01
+     */
+    public static long minIdAt(Instant instant) {
+        return Math.max(0, instant.toEpochMilli() - EPOCH_MS) << (NODE_BITS + SEQUENCE_BITS);
+    }
+
+    /**
+     * an id in the past, for the messages imported with their time (see practical.bulkimport.BulkImportService):
+     * the node and sequence bits are the given discriminator, the caller keeps it unique for the same millisecond.
+     * only the times the ids can hold, from 2024-01-01 to 2093: an older message keeps an id of its own.
+     * @param instant when the message was created
+     * @param discriminator the lower 22 bits of the id
+     * @return an id that sorts with the ids given at this time
+     * @throws IllegalArgumentException if the time is before 2024-01-01 or after the last time of the ids
+     */
+    public static long idAt(Instant instant, long discriminator) {
+        long millis = instant.toEpochMilli() - EPOCH_MS;
+        if (millis < 0 || millis >= 1L << TIME_BITS) {
+            throw new IllegalArgumentException("no message id for the time " + instant + ", the ids hold the times from "
+                    + Instant.ofEpochMilli(EPOCH_MS) + " to " + Instant.ofEpochMilli(EPOCH_MS + (1L << TIME_BITS) - 1)
+                    + ": give the message its id");
+        }
+        return (millis << (NODE_BITS + SEQUENCE_BITS)) | (discriminator & ((1L << (NODE_BITS + SEQUENCE_BITS)) - 1));
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private static long checkNodeId(int nodeId) {
+        if (nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("chat.ids.node-id must be between 0 and " + MAX_NODE_ID);
+        }
+        return nodeId;
+    }
+
+    private static long defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "localhost";
+        }
+        return ((host.hashCode() * 31L) + ProcessHandle.current().pid()) & MAX_NODE_ID;
+    }
+}
@@ -0,0 +1,39 @@
+package practical.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <h1>ControllerEvent</h1>
+ * <p>
+ *     JFR event of one API request, from before the interceptors to the end of the response
+ *     (rate limit, bulkhead, the controller method and the writing of the body).
+ *     the {@link ServiceEvent}s, {@link practical.sql.SqlEvent}s and {@link ResponseMappingEvent}s of the request
+ *     are on the same thread inside its time.
+ * </p>
+ * @see JfrInterceptor
+ */
+@Name("practical.Controller")
+@Label("Controller")
+@Category({"Chat", "Web"})
+@Description("An API request, from the first interceptor to the end of the response")
+@StackTrace(false)
+public class ControllerEvent extends Event {
+
+    @Label("HTTP Method")
+    String httpMethod;
+
+    @Label("Path")
+    @Description("The pattern of the mapping, like /api/messages/chatroom/{id}/last")
+    String path;
+
+    @Label("Handler")
+    String handler;
+
+    @Label("Status")
+    int status;
+}
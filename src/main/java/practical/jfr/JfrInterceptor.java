@@ -0,0 +1,58 @@
+package practical.jfr;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * <h1>JfrInterceptor</h1>
+ * <p>
+ *     Records a {@link ControllerEvent} for every API request, and ends the {@link ResponseMappingEvent}
+ *     started by {@link ResponseMappingAdvice} when the body is written.
+ *     when no flight recording is running the events are disabled, and nothing is kept in the request.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "chat.jfr.enabled", havingValue = "true", matchIfMissing = true)
+public class JfrInterceptor implements HandlerInterceptor {
+
+    private static final String CONTROLLER_EVENT_ATTRIBUTE = JfrInterceptor.class.getName() + ".controllerEvent";
+
+    static final String RESPONSE_MAPPING_EVENT_ATTRIBUTE = JfrInterceptor.class.getName() + ".responseMappingEvent";
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        ControllerEvent event = new ControllerEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            request.setAttribute(CONTROLLER_EVENT_ATTRIBUTE, event);
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (request.getAttribute(RESPONSE_MAPPING_EVENT_ATTRIBUTE) instanceof ResponseMappingEvent mappingEvent) {
+            request.removeAttribute(RESPONSE_MAPPING_EVENT_ATTRIBUTE);
+            mappingEvent.commit();
+        }
+        if (request.getAttribute(CONTROLLER_EVENT_ATTRIBUTE) instanceof ControllerEvent event) {
+            request.removeAttribute(CONTROLLER_EVENT_ATTRIBUTE);
+            event.end();
+            if (event.shouldCommit()) {
+                event.httpMethod = request.getMethod();
+                event.path = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE) instanceof String pattern
+                        ? pattern : request.getRequestURI();
+                event.handler = handler instanceof HandlerMethod handlerMethod
+                        ? handlerMethod.getBeanType().getSimpleName() + "." + handlerMethod.getMethod().getName()
+                        : handler.getClass().getSimpleName();
+                event.status = response.getStatus();
+                event.commit();
+            }
+        }
+    }
+}
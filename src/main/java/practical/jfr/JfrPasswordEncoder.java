@@ -0,0 +1,51 @@
+package practical.jfr;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * <h1>JfrPasswordEncoder</h1>
+ * <p>
+ *     {@link PasswordEncoder} that records a {@link PasswordHashEvent} around every hash of the encoder it wraps.
+ * </p>
+ */
+@RequiredArgsConstructor
+public class JfrPasswordEncoder implements PasswordEncoder {
+
+    private final PasswordEncoder passwordEncoder;
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        PasswordHashEvent event = new PasswordHashEvent();
+        event.begin();
+        try {
+            return passwordEncoder.encode(rawPassword);
+        } finally {
+            commit(event, "encode");
+        }
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        PasswordHashEvent event = new PasswordHashEvent();
+        event.begin();
+        try {
+            return passwordEncoder.matches(rawPassword, encodedPassword);
+        } finally {
+            commit(event, "matches");
+        }
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return passwordEncoder.upgradeEncoding(encodedPassword);
+    }
+
+    private void commit(PasswordHashEvent event, String operation) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package practical.jfr;
+
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import practical.sql.SqlEvent;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * <h1>OnDemandFlightRecorder</h1>
+ * <p>
+ *     Starts, stops and dumps one flight recording at a time, from <code>/api/jfr</code>.
+ *     the recording has the JDK events of a JFC settings file (<code>default</code> about 1% overhead,
+ *     <code>profile</code> more details) and the events of the application ({@link ControllerEvent}, {@link ServiceEvent},
+ *     {@link SqlEvent}, {@link ResponseMappingEvent} and {@link PasswordHashEvent}) above a threshold.
+ * </p>
+ * <p>
+ *     it is bounded: it stops by itself after <code>chat.jfr.max-duration-seconds</code> at the latest,
+ *     and keeps only the last <code>chat.jfr.max-size-mb</code> on the disk.
+ *     after it stopped its data stays until it is downloaded again, deleted or a new recording starts.
+ *     without a recording the events of the application are disabled and cost only the check.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "chat.jfr.enabled", havingValue = "true", matchIfMissing = true)
+public class OnDemandFlightRecorder {
+    private static final Logger logger = Logger.getLogger(OnDemandFlightRecorder.class.getName());
+
+    private static final List<Class<? extends jdk.jfr.Event>> EVENTS = List.of(ControllerEvent.class, ServiceEvent.class,
+            SqlEvent.class, ResponseMappingEvent.class, PasswordHashEvent.class);
+
+    private final Duration maxDuration;
+
+    private final long maxSizeBytes;
+
+    private Recording recording;
+
+    private String settings;
+
+    public OnDemandFlightRecorder(@Value("${chat.jfr.max-duration-seconds:600}") long maxDurationSeconds,
+                                  @Value("${chat.jfr.max-size-mb:100}") long maxSizeMb) {
+        this.maxDuration = Duration.ofSeconds(maxDurationSeconds);
+        this.maxSizeBytes = maxSizeMb * 1024 * 1024;
+    }
+
+    /**
+     * start a new recording, the data of the previous one is deleted.
+     * @param duration after this time the recording stops by itself (at most chat.jfr.max-duration-seconds)
+     * @param settings the JFC settings of the JDK events, default or profile
+     * @param threshold the events of the application shorter than this are not recorded
+     * @return the status of the new recording
+     */
+    public synchronized RecordingStatus start(Duration duration, String settings, Duration threshold) {
+        if (recording != null && recording.getState() == RecordingState.RUNNING) {
+            throw new IllegalStateException("a recording is already running, stop it first");
+        }
+        Configuration configuration;
+        try {
+            configuration = Configuration.getConfiguration(settings);
+        } catch (IOException | ParseException e) {
+            throw new IllegalArgumentException("unknown settings: " + settings + " (default or profile)");
+        }
+        close();
+
+        Recording newRecording = new Recording(configuration);
+        newRecording.setName("chat-on-demand");
+        newRecording.setToDisk(true);
+        newRecording.setMaxSize(maxSizeBytes);
+        newRecording.setDuration(duration.compareTo(maxDuration) > 0 || duration.isNegative() || duration.isZero()
+                ? maxDuration : duration);
+        EVENTS.forEach(event -> newRecording.enable(event).withThreshold(threshold));
+        newRecording.start();
+        this.recording = newRecording;
+        this.settings = settings;
+        logger.info("flight recording " + newRecording.getId() + " started (" + settings + ", "
+                + newRecording.getDuration().toSeconds() + "s)");
+        return getStatus();
+    }
+
+    /**
+     * stop the running recording, its data is kept for the download.
+     * @return the status of the stopped recording
+     */
+    public synchronized RecordingStatus stop() {
+        if (recording == null || recording.getState() != RecordingState.RUNNING) {
+            throw new IllegalStateException("no recording is running");
+        }
+        recording.stop();
+        logger.info("flight recording " + recording.getId() + " stopped");
+        return getStatus();
+    }
+
+    /**
+     * write the data of the recording (running or stopped) to a new temporary file, the caller deletes it.
+     * @return the .jfr file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized Path dump() throws IOException {
+        if (recording == null || recording.getState() == RecordingState.NEW) {
+            throw new IllegalStateException("no recording");
+        }
+        Path file = Files.createTempFile("chat-recording-" + recording.getId() + "-", ".jfr");
+        try {
+            recording.dump(file);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        return file;
+    }
+
+    /**
+     * @return the state of the current recording, NONE when there is none
+     */
+    public synchronized RecordingStatus getStatus() {
+        if (recording == null) {
+            return new RecordingStatus(0, "NONE", null, null, null, 0, maxSizeBytes, 0);
+        }
+        return new RecordingStatus(recording.getId(), recording.getState().name(), settings,
+                recording.getStartTime(), recording.getStopTime(),
+                recording.getDuration() == null ? 0 : recording.getDuration().toSeconds(),
+                maxSizeBytes, recording.getSize());
+    }
+
+    /**
+     * stop the recording and delete its data.
+     */
+    @PreDestroy
+    public synchronized void close() {
+        if (recording != null) {
+            recording.close();
+            recording = null;
+            settings = null;
+        }
+    }
+
+    /**
+     * the state of a recording.
+     * @param id the id of JFR
+     * @param state NONE, RUNNING, STOPPED (or DELAYED, NEW, CLOSED of JFR)
+     * @param settings default or profile
+     * @param startTime when it started
+     * @param stopTime when it stopped, or when it will stop by itself
+     * @param durationSeconds after this time it stops by itself
+     * @param maxSizeBytes only the last data of this size is kept
+     * @param sizeBytes the size of its data on the disk
+     */
+    public record RecordingStatus(long id, String state, String settings, Instant startTime, Instant stopTime,
+                                  long durationSeconds, long maxSizeBytes, long sizeBytes) {
+    }
+}
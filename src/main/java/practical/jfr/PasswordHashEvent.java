@@ -0,0 +1,27 @@
+package practical.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <h1>PasswordHashEvent</h1>
+ * <p>
+ *     JFR event of one BCrypt hash, at the login (matches) or when a password is set (encode).
+ * </p>
+ * @see JfrPasswordEncoder
+ */
+@Name("practical.PasswordHash")
+@Label("Password Hash")
+@Category({"Chat", "Security"})
+@Description("A BCrypt hash of a password")
+@StackTrace(false)
+public class PasswordHashEvent extends Event {
+
+    @Label("Operation")
+    @Description("encode or matches")
+    String operation;
+}
@@ -0,0 +1,58 @@
+package practical.jfr;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import java.util.Collection;
+
+/**
+ * <h1>ResponseMappingAdvice</h1>
+ * <p>
+ *     Starts a {@link ResponseMappingEvent} just before the message converter writes the body of a response,
+ *     {@link JfrInterceptor} ends it after the controller method returned, when the body is written.
+ * </p>
+ */
+@ControllerAdvice
+@ConditionalOnProperty(name = "chat.jfr.enabled", havingValue = "true", matchIfMissing = true)
+public class ResponseMappingAdvice implements ResponseBodyAdvice<Object> {
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        ResponseMappingEvent event = new ResponseMappingEvent();
+        if (event.isEnabled() && request instanceof ServletServerHttpRequest servletRequest) {
+            event.bodyType = typeOf(body);
+            event.contentType = String.valueOf(selectedContentType);
+            event.converter = selectedConverterType.getSimpleName();
+            event.begin();
+            servletRequest.getServletRequest().setAttribute(JfrInterceptor.RESPONSE_MAPPING_EVENT_ATTRIBUTE, event);
+        }
+        return body;
+    }
+
+    /**
+     * the class of the body, with the class of the first element for the lists, like <code>ArrayList&lt;MessageResponse&gt;</code>.
+     */
+    private static String typeOf(Object body) {
+        if (body == null) {
+            return "null";
+        }
+        if (body instanceof Collection<?> collection && !collection.isEmpty() && collection.iterator().next() != null) {
+            return body.getClass().getSimpleName() + "<" + collection.iterator().next().getClass().getSimpleName() + ">";
+        }
+        return body.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,34 @@
+package practical.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <h1>ResponseMappingEvent</h1>
+ * <p>
+ *     JFR event of the writing of the body of an API response by its message converter
+ *     (JSON, CBOR, Smile, normalized, or the bytes of the caches).
+ *     the lazy loads of hibernate during the writing are {@link practical.sql.SqlEvent}s inside it.
+ * </p>
+ * @see ResponseMappingAdvice
+ */
+@Name("practical.ResponseMapping")
+@Label("Response Mapping")
+@Category({"Chat", "Web"})
+@Description("The writing of the body of a response")
+@StackTrace(false)
+public class ResponseMappingEvent extends Event {
+
+    @Label("Body Type")
+    String bodyType;
+
+    @Label("Content Type")
+    String contentType;
+
+    @Label("Converter")
+    String converter;
+}
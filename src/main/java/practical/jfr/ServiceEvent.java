@@ -0,0 +1,33 @@
+package practical.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <h1>ServiceEvent</h1>
+ * <p>
+ *     JFR event of one call of a public method of a <code>*Service</code> bean.
+ *     it is around the transaction of the method, so the SQL of the flush and the commit are inside it.
+ * </p>
+ * @see ServiceEventAspect
+ */
+@Name("practical.Service")
+@Label("Service Method")
+@Category({"Chat", "Service"})
+@Description("A call of a public method of a service")
+@StackTrace(false)
+public class ServiceEvent extends Event {
+
+    @Label("Service")
+    String service;
+
+    @Label("Method")
+    String method;
+
+    @Label("Failed")
+    boolean failed;
+}
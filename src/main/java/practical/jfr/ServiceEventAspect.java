@@ -0,0 +1,50 @@
+package practical.jfr;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * <h1>ServiceEventAspect</h1>
+ * <p>
+ *     Records a {@link ServiceEvent} around every public method of the <code>*Service</code> beans of the application.
+ *     it runs before the transaction of <code>@Transactional</code> (highest precedence), so the event also
+ *     holds the flush and the commit.
+ *     the calls of a service to its own methods do not go through the proxy and have no event of their own.
+ * </p>
+ * <p>
+ *     when no flight recording is running it only checks that the event is disabled.
+ * </p>
+ */
+@Aspect
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@ConditionalOnProperty(name = "chat.jfr.enabled", havingValue = "true", matchIfMissing = true)
+public class ServiceEventAspect {
+
+    @Around("execution(public * practical..*Service.*(..))")
+    public Object record(ProceedingJoinPoint joinPoint) throws Throwable {
+        ServiceEvent event = new ServiceEvent();
+        if (!event.isEnabled()) {
+            return joinPoint.proceed();
+        }
+        event.begin();
+        try {
+            return joinPoint.proceed();
+        } catch (Throwable e) {
+            event.failed = true;
+            throw e;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.service = joinPoint.getSignature().getDeclaringType().getSimpleName();
+                event.method = joinPoint.getSignature().getName();
+                event.commit();
+            }
+        }
+    }
+}
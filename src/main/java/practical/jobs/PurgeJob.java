@@ -0,0 +1,46 @@
+package practical.jobs;
+
+import java.time.LocalDateTime;
+
+/**
+ * <h1>PurgeJob</h1>
+ * <p>
+ *     The state of a background deletion, as saved in the table <code>purge_jobs</code>.
+ * </p>
+ * @param id the id of the job
+ * @param type what is deleted
+ * @param targetId the id of the user or chat room, null for the ALL types
+ * @param status where the job is
+ * @param cursorId for the ALL types, the last user or chat room that was completely deleted
+ * @param deletedMessages how many messages were deleted so far
+ * @param deletedMemberships how many memberships (user in chat room) were deleted so far
+ * @param deletedEntities how many users or chat rooms were deleted so far
+ * @param error why the job failed, or null
+ * @param createdAt when the job was submitted
+ * @param updatedAt the last progress of the job
+ * @see PurgeJobService
+ */
+public record PurgeJob(long id, Type type, Integer targetId, Status status, Integer cursorId,
+                       long deletedMessages, long deletedMemberships, long deletedEntities,
+                       String error, LocalDateTime createdAt, LocalDateTime updatedAt) {
+
+    /**
+     * what the job deletes.
+     */
+    public enum Type {
+        USER,
+        CHAT_ROOM,
+        ALL_USERS,
+        ALL_CHAT_ROOMS
+    }
+
+    /**
+     * QUEUED and RUNNING jobs are resumed after a restart.
+     */
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED
+    }
+}
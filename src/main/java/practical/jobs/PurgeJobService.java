@@ -0,0 +1,380 @@
+package practical.jobs;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+import practical.events.EventBus;
+import practical.models.event.MembershipChangedEvent;
+import practical.models.event.MessagesDeletedEvent;
+import practical.models.event.UserChangedEvent;
+import practical.repositories.MessageStore;
+
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <h1>Purge Job Service</h1>
+ * <p>
+ *     Deletes users and chat rooms in the background, instead of one big transaction in the request.
+ *     the messages and the memberships are deleted in chunks of <code>chat.jobs.purge.chunk-size</code>,
+ *     every chunk in its own short transaction, with a pause of <code>chat.jobs.purge.pause-ms</code> between them,
+ *     so the hot tables are never locked for long.
+ *     the user or the chat room itself is deleted last, with what was added in the meantime.
+ * </p>
+ * <p>
+ *     the jobs are saved in the table <code>purge_jobs</code> with their progress, and run one at a time.
+ *     every step can run again without harm, so a job that was cut by a restart simply starts again from its cursor:
+ *     the unfinished jobs are taken again when their heartbeat is older than <code>chat.jobs.purge.stale-ms</code>
+ *     (by this instance or by any other one that shares the database).
+ * </p>
+ * @see PurgeJob
+ */
+@Service
+public class PurgeJobService {
+    private static final Logger logger = Logger.getLogger(PurgeJobService.class.getName());
+
+    private static final String COLUMNS = "id, type, target_id, status, cursor_id, deleted_messages, "
+            + "deleted_memberships, deleted_entities, error, created_at, updated_at";
+
+    private static final RowMapper<PurgeJob> ROW_MAPPER = (rs, rowNum) -> new PurgeJob(
+            rs.getLong("id"),
+            PurgeJob.Type.valueOf(rs.getString("type")),
+            (Integer) rs.getObject("target_id"),
+            PurgeJob.Status.valueOf(rs.getString("status")),
+            (Integer) rs.getObject("cursor_id"),
+            rs.getLong("deleted_messages"),
+            rs.getLong("deleted_memberships"),
+            rs.getLong("deleted_entities"),
+            rs.getString("error"),
+            rs.getTimestamp("created_at").toLocalDateTime(),
+            rs.getTimestamp("updated_at").toLocalDateTime());
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final MessageStore messageStore;
+
+    private final EventBus eventBus;
+
+    private final int chunkSize;
+
+    private final long pauseMs;
+
+    private final long staleMs;
+
+    /**
+     * the id of this instance, the owner of the jobs it runs.
+     */
+    private final String owner = UUID.randomUUID().toString();
+
+    /**
+     * the jobs that are queued or running on this instance.
+     */
+    private final Set<Long> localJobs = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService jobExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "purge-jobs");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public PurgeJobService(JdbcTemplate jdbcTemplate,
+                           TransactionTemplate transactionTemplate,
+                           MessageStore messageStore,
+                           EventBus eventBus,
+                           @Value("${chat.jobs.purge.chunk-size:500}") int chunkSize,
+                           @Value("${chat.jobs.purge.pause-ms:50}") long pauseMs,
+                           @Value("${chat.jobs.purge.stale-ms:60000}") long staleMs) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.messageStore = messageStore;
+        this.eventBus = eventBus;
+        this.chunkSize = chunkSize;
+        this.pauseMs = pauseMs;
+        this.staleMs = staleMs;
+    }
+
+    @PostConstruct
+    public void init() {
+        jdbcTemplate.execute("""
+                create table if not exists purge_jobs (
+                    id bigint auto_increment primary key,
+                    type varchar(32) not null,
+                    target_id int,
+                    status varchar(16) not null,
+                    cursor_id int,
+                    deleted_messages bigint not null default 0,
+                    deleted_memberships bigint not null default 0,
+                    deleted_entities bigint not null default 0,
+                    error varchar(1000),
+                    owner varchar(36),
+                    heartbeat_at timestamp,
+                    created_at timestamp not null,
+                    updated_at timestamp not null
+                )""");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobExecutor.shutdownNow();
+    }
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    /**
+     * @param jobId the id of the job
+     * @return the job
+     */
+    public PurgeJob getJob(long jobId) {
+        return jdbcTemplate.query("select " + COLUMNS + " from purge_jobs where id = ?", ROW_MAPPER, jobId).stream()
+                .findFirst()
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Job not found"));
+    }
+
+    /**
+     * @param limit how many jobs
+     * @return the last jobs, the newest first
+     */
+    public List<PurgeJob> getRecentJobs(int limit) {
+        return jdbcTemplate.query("select " + COLUMNS + " from purge_jobs order by id desc limit ?", ROW_MAPPER, limit);
+    }
+
+    //==========================================================================
+    //============================== SUBMIT ====================================
+    //==========================================================================
+
+    /**
+     * save a new job and start it in the background.
+     * @param type what to delete
+     * @param targetId the id of the user or the chat room, null for the ALL types
+     * @return the job, queued
+     */
+    public PurgeJob submit(PurgeJob.Type type, Integer targetId) {
+        Timestamp now = Timestamp.from(Instant.now());
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(
+                    "insert into purge_jobs (type, target_id, status, created_at, updated_at) values (?, ?, ?, ?, ?)",
+                    Statement.RETURN_GENERATED_KEYS);
+            statement.setString(1, type.name());
+            statement.setObject(2, targetId);
+            statement.setString(3, PurgeJob.Status.QUEUED.name());
+            statement.setTimestamp(4, now);
+            statement.setTimestamp(5, now);
+            return statement;
+        }, keyHolder);
+        long jobId = keyHolder.getKey().longValue();
+        start(jobId);
+        return getJob(jobId);
+    }
+
+    /**
+     * take the unfinished jobs that nobody is running, after a restart and then from time to time.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${chat.jobs.purge.scan-interval-ms:30000}",
+            fixedDelayString = "${chat.jobs.purge.scan-interval-ms:30000}")
+    public void resumeJobs() {
+        jdbcTemplate.queryForList("""
+                        select id from purge_jobs
+                        where status in ('QUEUED', 'RUNNING') and (heartbeat_at is null or heartbeat_at < ?)
+                        order by id""",
+                Long.class, staleBefore()).forEach(this::start);
+    }
+
+    //==========================================================================
+    //================================ RUN =====================================
+    //==========================================================================
+
+    private void start(long jobId) {
+        if (localJobs.add(jobId)) {
+            jobExecutor.execute(() -> {
+                try {
+                    run(jobId);
+                } finally {
+                    localJobs.remove(jobId);
+                }
+            });
+        }
+    }
+
+    private void run(long jobId) {
+        if (!claim(jobId)) {
+            return;
+        }
+        PurgeJob job = getJob(jobId);
+        logger.info("purge job started: " + job);
+        try {
+            switch (job.type()) {
+                case USER -> purgeUser(jobId, job.targetId());
+                case CHAT_ROOM -> purgeChatRoom(jobId, job.targetId());
+                case ALL_USERS -> purgeAll(jobId, job.cursorId(),
+                        "select id from users where (role is null or role <> 'ADMIN') and id > ? order by id limit 1", this::purgeUser);
+                case ALL_CHAT_ROOMS -> purgeAll(jobId, job.cursorId(),
+                        "select id from chat_room where id > ? order by id limit 1", this::purgeChatRoom);
+            }
+            finish(jobId, PurgeJob.Status.DONE, null);
+        } catch (InterruptedException e) {
+            // shutting down, the job is resumed after the restart
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "purge job " + jobId + " failed", e);
+            finish(jobId, PurgeJob.Status.FAILED, String.valueOf(e.getMessage()));
+        }
+    }
+
+    /**
+     * delete the user: the messages, then the memberships, then the user. the admin is never deleted.
+     */
+    private void purgeUser(long jobId, Integer userId) throws InterruptedException {
+        List<String> roles = jdbcTemplate.queryForList("select role from users where id = ?", String.class, userId);
+        if (roles.isEmpty() || "ADMIN".equals(roles.get(0))) {
+            return;
+        }
+        repeatChunks(() -> messageStore.deleteChunkByUserId(userId, chunkSize),
+                deleted -> progress(jobId, deleted, 0, 0));
+        // the messages of the user are in many chat rooms
+        eventBus.publish(new MessagesDeletedEvent(null, null));
+        repeatChunks(() -> deleteMemberships("chat_room_id", "user_id", userId,
+                        chatRoomId -> eventBus.publish(new MembershipChangedEvent(chatRoomId, userId, false))),
+                deleted -> progress(jobId, 0, deleted, 0));
+
+        transactionTemplate.executeWithoutResult(status -> {
+            // what was added since the chunks
+            messageStore.deleteAllByUserId(userId);
+            deleteMemberships("chat_room_id", "user_id", userId,
+                    chatRoomId -> eventBus.publish(new MembershipChangedEvent(chatRoomId, userId, false)));
+            jdbcTemplate.update("delete from users where id = ?", userId);
+        });
+        eventBus.publish(new MessagesDeletedEvent(null, null));
+        eventBus.publish(UserChangedEvent.deleted(userId));
+        progress(jobId, 0, 0, 1);
+    }
+
+    /**
+     * delete the chat room: the messages, then the memberships, then the chat room.
+     */
+    private void purgeChatRoom(long jobId, Integer chatRoomId) throws InterruptedException {
+        repeatChunks(() -> messageStore.deleteChunkByChatRoomId(chatRoomId, chunkSize),
+                deleted -> progress(jobId, deleted, 0, 0));
+        eventBus.publish(new MessagesDeletedEvent(chatRoomId, null));
+        repeatChunks(() -> deleteMemberships("user_id", "chat_room_id", chatRoomId,
+                        userId -> eventBus.publish(new MembershipChangedEvent(chatRoomId, userId, false))),
+                deleted -> progress(jobId, 0, deleted, 0));
+
+        transactionTemplate.executeWithoutResult(status -> {
+            messageStore.deleteByChatRoomId(chatRoomId);
+            deleteMemberships("user_id", "chat_room_id", chatRoomId,
+                    userId -> eventBus.publish(new MembershipChangedEvent(chatRoomId, userId, false)));
+            jdbcTemplate.update("delete from chat_room where id = ?", chatRoomId);
+        });
+        eventBus.publish(new MessagesDeletedEvent(chatRoomId, null));
+        progress(jobId, 0, 0, 1);
+    }
+
+    /**
+     * purge every target one after the other, the cursor is saved after every target.
+     */
+    private void purgeAll(long jobId, Integer cursorId, String nextTargetSql, TargetPurge purge) throws InterruptedException {
+        int cursor = cursorId == null ? 0 : cursorId;
+        while (true) {
+            List<Integer> next = jdbcTemplate.queryForList(nextTargetSql, Integer.class, cursor);
+            if (next.isEmpty()) {
+                return;
+            }
+            cursor = next.get(0);
+            purge.purge(jobId, cursor);
+            jdbcTemplate.update("update purge_jobs set cursor_id = ? where id = ?", cursor, jobId);
+        }
+    }
+
+    /**
+     * run the chunk until it deletes nothing, with a pause between the chunks.
+     * @param chunk deletes one chunk, returns how many rows were deleted
+     * @param counted called after every chunk with how many rows were deleted
+     */
+    private void repeatChunks(IntSupplier chunk, IntConsumer counted) throws InterruptedException {
+        int deleted;
+        while ((deleted = chunk.getAsInt()) > 0) {
+            counted.accept(deleted);
+            Thread.sleep(pauseMs);
+        }
+    }
+
+    /**
+     * delete one chunk of rows of <code>user_chat_room</code>, in one transaction.
+     * @return how many were deleted
+     */
+    private int deleteMemberships(String otherColumn, String column, Integer id, IntConsumer removed) {
+        Integer[] deleted = {0};
+        transactionTemplate.executeWithoutResult(status -> {
+            List<Integer> otherIds = jdbcTemplate.queryForList(
+                    "select " + otherColumn + " from user_chat_room where " + column + " = ? limit ?",
+                    Integer.class, id, chunkSize);
+            jdbcTemplate.batchUpdate("delete from user_chat_room where " + column + " = ? and " + otherColumn + " = ?",
+                    otherIds.stream().map(otherId -> new Object[]{id, otherId}).toList());
+            otherIds.forEach(removed::accept);
+            deleted[0] = otherIds.size();
+        });
+        return deleted[0];
+    }
+
+    private boolean claim(long jobId) {
+        Timestamp now = Timestamp.from(Instant.now());
+        return jdbcTemplate.update("""
+                        update purge_jobs set status = 'RUNNING', owner = ?, heartbeat_at = ?, updated_at = ?
+                        where id = ? and status in ('QUEUED', 'RUNNING')
+                        and (heartbeat_at is null or heartbeat_at < ? or owner = ?)""",
+                owner, now, now, jobId, staleBefore(), owner) == 1;
+    }
+
+    private void progress(long jobId, long messages, long memberships, long entities) {
+        Timestamp now = Timestamp.from(Instant.now());
+        jdbcTemplate.update("""
+                        update purge_jobs set deleted_messages = deleted_messages + ?,
+                        deleted_memberships = deleted_memberships + ?, deleted_entities = deleted_entities + ?,
+                        heartbeat_at = ?, updated_at = ? where id = ?""",
+                messages, memberships, entities, now, now, jobId);
+    }
+
+    private void finish(long jobId, PurgeJob.Status status, String error) {
+        jdbcTemplate.update("update purge_jobs set status = ?, error = ?, owner = null, updated_at = ? where id = ?",
+                status.name(), error, Timestamp.from(Instant.now()), jobId);
+        logger.info("purge job " + jobId + " " + status);
+    }
+
+    private Timestamp staleBefore() {
+        return Timestamp.from(Instant.now().minusMillis(staleMs));
+    }
+
+    @FunctionalInterface
+    private interface TargetPurge {
+        void purge(long jobId, Integer targetId) throws InterruptedException;
+    }
+}
@@ -7,6 +7,7 @@ import jakarta.persistence.*;
 import jakarta.validation.constraints.NotEmpty;
 import lombok.*;
 import org.hibernate.Hibernate;
+import org.hibernate.annotations.Formula;
 
 import java.util.HashSet;
 import java.util.Objects;
@@ -62,6 +63,24 @@ public class ChatRoom {
     @JsonManagedReference
     private Set<User> users = new HashSet<>();
 
+    /**
+     * counted by the database when the chat room is loaded, so the members don't have to be loaded.
+     */
+    @Formula("(select count(*) from user_chat_room ucr where ucr.chat_room_id = id)")
+    private Integer memberCount;
+
+    /**
+     * the number of members now: from the members when they are loaded (they may have changed since the chat room was loaded),
+     * else from {@link #memberCount}.
+     * @return the number of members
+     */
+    public int currentMemberCount() {
+        if (users != null && Hibernate.isInitialized(users)) {
+            return users.size();
+        }
+        return memberCount == null ? 0 : memberCount;
+    }
+
 
     @Override
     public boolean equals(Object o) {
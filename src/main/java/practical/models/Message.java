@@ -5,6 +5,7 @@ import practical.models.user.User;
 import jakarta.persistence.*;
 import lombok.*;
 import org.hibernate.Hibernate;
+import org.springframework.data.domain.Persistable;
 
 import java.time.LocalDateTime;
 import java.util.Objects;
@@ -28,6 +29,11 @@ import java.util.Objects;
  *         <li>{@link practical.models.request.MessageRequest} the request we need from the user.</li>
  *     </ul>
  * </p>
+ * <p>
+ *     the id is given by the server ({@link practical.ids.MessageIdGenerator}) before the message is saved, it grows with time
+ *     and is the order of the messages. <code>timestamp</code> is the time of the server, the time sent by the client
+ *     is kept in <code>clientTimestamp</code> and not used for anything.
+ * </p>
  * @see practical.services.MessagesService
  * @see MessageRepository
  * @see practical.models.response.MessageResponse
@@ -38,10 +44,14 @@ import java.util.Objects;
 @ToString
 @RequiredArgsConstructor
 @Entity
-public class Message {
+// the history of a chat room is read by id (keyset pages)
+@Table(indexes = {
+        @Index(name = "idx_message_chat_room_id", columnList = "chat_room_id, id"),
+        @Index(name = "idx_message_room_seq", columnList = "chat_room_id, room_seq", unique = true)
+})
+public class Message implements Persistable<Long> {
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
-    private Integer id;
+    private Long id;
 
     @ManyToOne
     @JoinColumn(name = "user_id", nullable = false)
@@ -55,6 +65,39 @@ public class Message {
 
     private LocalDateTime timestamp;
 
+    private LocalDateTime clientTimestamp;
+
+    /**
+     * the number of the message in its chat room (1, 2, 3...), given by {@link practical.sequencer.RoomSequencer}.
+     * null when the sequencer is off.
+     */
+    @Column(name = "room_seq")
+    private Long roomSeq;
+
+    /**
+     * the id is set before the save, so JPA can't tell from it whether the message is new.
+     * without this every save would first select the message.
+     */
+    @Transient
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    private boolean persisted;
+
+    @Override
+    public boolean isNew() {
+        return !persisted;
+    }
+
+    /**
+     * called by JPA after the message was loaded or saved, and by the stores that don't use JPA.
+     */
+    @PostLoad
+    @PostPersist
+    public void markPersisted() {
+        persisted = true;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
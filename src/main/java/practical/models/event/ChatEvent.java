@@ -0,0 +1,21 @@
+package practical.models.event;
+
+/**
+ * <h1>ChatEvent</h1>
+ * <p>
+ *     Common type of all the events that are carried by the {@link practical.events.EventBus}.
+ *     most events belong to one chat room, so the bus can keep the events of a chat room in order.
+ * </p>
+ *
+ * @see MessageCreatedEvent
+ * @see MembershipChangedEvent
+ * @see MessagesDeletedEvent
+ * @see UserChangedEvent
+ */
+public sealed interface ChatEvent permits MessageCreatedEvent, MembershipChangedEvent, MessagesDeletedEvent, UserChangedEvent {
+
+    /**
+     * @return the id of the chat room the event belongs to, null for the events of several chat rooms.
+     */
+    Integer chatRoomId();
+}
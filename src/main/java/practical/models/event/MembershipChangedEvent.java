@@ -0,0 +1,15 @@
+package practical.models.event;
+
+/**
+ * <h1>MembershipChangedEvent</h1>
+ * <p>
+ *     This record is published every time a user joins or leaves a chat room.
+ *     a bulk import publishes one event without a chat room and a user for all the memberships it added.
+ * </p>
+ *
+ * @param chatRoomId the id of the chat room, null when the members of several chat rooms changed.
+ * @param userId     the id of the user that joined or left, null when several users joined or left.
+ * @param joined     true if the user joined the chat room, false if the user left it.
+ */
+public record MembershipChangedEvent(Integer chatRoomId, Integer userId, boolean joined) implements ChatEvent {
+}
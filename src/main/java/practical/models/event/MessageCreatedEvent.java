@@ -0,0 +1,49 @@
+package practical.models.event;
+
+import practical.models.Message;
+import practical.models.response.MessageResponse;
+import practical.models.user.User;
+
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * <h1>MessageCreatedEvent</h1>
+ * <p>
+ *     This record is published every time a new message is stored in a chat room.
+ *     It carries the already mapped {@link MessageResponse} and the ids of the users
+ *     that are members of the chat room, so it can be delivered without touching the database.
+ * </p>
+ *
+ * @param id           the id of the message, also used as the SSE event id.
+ * @param chatRoomId   the id of the chat room the message was sent to.
+ * @param recipientIds the ids of the users in the chat room.
+ * @param message      the message as it is sent to the client.
+ * @see practical.services.MessageEventDispatcher
+ */
+public record MessageCreatedEvent(long id, Integer chatRoomId, Set<Integer> recipientIds, MessageResponse message)
+        implements ChatEvent {
+
+    /**
+     * create the event from a stored message.
+     * must be called while the session is still open, the members of the chat room are loaded lazily.
+     * @param message the message that was created
+     * @return the event
+     */
+    public static MessageCreatedEvent of(Message message) {
+        Set<Integer> recipientIds = message.getChatRoom().getUsers().stream()
+                .map(User::getId)
+                .collect(Collectors.toUnmodifiableSet());
+        return new MessageCreatedEvent(message.getId(), message.getChatRoom().getId(), recipientIds,
+                MessageResponse.getFromMessage(message));
+    }
+
+    /**
+     * check if the event should be delivered to the given user.
+     * @param userId the id of the user
+     * @return true if the user is a member of the chat room
+     */
+    public boolean isFor(Integer userId) {
+        return recipientIds.contains(userId);
+    }
+}
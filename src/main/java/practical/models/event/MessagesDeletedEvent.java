@@ -0,0 +1,14 @@
+package practical.models.event;
+
+/**
+ * <h1>MessagesDeletedEvent</h1>
+ * <p>
+ *     This record is published every time messages are deleted, so the copies of the messages
+ *     (like {@link practical.cache.RecentMessagesCache}) can be dropped on all the instances.
+ * </p>
+ *
+ * @param chatRoomId the id of the chat room, or null when the messages of several chat rooms were deleted (the messages of a user).
+ * @param messageId  the id of the deleted message, or null when all the messages of the chat room were deleted.
+ */
+public record MessagesDeletedEvent(Integer chatRoomId, Long messageId) implements ChatEvent {
+}
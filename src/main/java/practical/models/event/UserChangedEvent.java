@@ -0,0 +1,57 @@
+package practical.models.event;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import practical.models.user.User;
+
+/**
+ * <h1>UserChangedEvent</h1>
+ * <p>
+ *     This record is published every time a user is registered, changed or deleted.
+ *     It carries the public fields of the user (never the password), so the user directory
+ *     ({@link practical.services.UserSearchService}) is kept up to date without touching the database.
+ *     a bulk import publishes one event without a user for all the users it saved, the listeners read them again.
+ * </p>
+ *
+ * @param userId    the id of the user, null when several users were saved at once.
+ * @param firstname the first name, null when the user was deleted.
+ * @param lastname  the last name, null when the user was deleted.
+ * @param email     the email, null when the user was deleted.
+ * @param deleted   true when the user was deleted.
+ */
+public record UserChangedEvent(Integer userId, String firstname, String lastname, String email, boolean deleted)
+        implements ChatEvent {
+
+    /**
+     * @param user the user that was saved
+     * @return the event
+     */
+    public static UserChangedEvent of(User user) {
+        return new UserChangedEvent(user.getId(), user.getFirstname(), user.getLastname(), user.getEmail(), false);
+    }
+
+    /**
+     * @param userId the id of the user that was deleted
+     * @return the event
+     */
+    public static UserChangedEvent deleted(Integer userId) {
+        return new UserChangedEvent(userId, null, null, null, true);
+    }
+
+    /**
+     * several users were saved at once (a bulk import).
+     * @return the event, without a user
+     */
+    public static UserChangedEvent several() {
+        return new UserChangedEvent(null, null, null, null, false);
+    }
+
+    /**
+     * a user is not in a chat room.
+     * @return null
+     */
+    @Override
+    @JsonIgnore
+    public Integer chatRoomId() {
+        return null;
+    }
+}
@@ -1,5 +1,7 @@
 package practical.models.request;
 
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
 
 /**
  * <h1>ChatRoomRequest</h1>
@@ -9,6 +11,7 @@ package practical.models.request;
  *
  * @see practical.models.ChatRoom
  */
+@JsonPropertyOrder({"name", "users"})
 public class ChatRoomRequest {
     public String name;
     public UserRequest [] users;
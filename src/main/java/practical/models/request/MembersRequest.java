@@ -0,0 +1,17 @@
+package practical.models.request;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+
+/**
+ * <h1>MembersRequest</h1>
+ * <p>
+ *     This class is used to add or remove many users of a chat room at once, by their emails.
+ * </p>
+ *
+ * @see practical.models.ChatRoom
+ */
+@JsonPropertyOrder({"users"})
+public class MembersRequest {
+    public UserRequest [] users;
+}
@@ -1,5 +1,7 @@
 package practical.models.request;
 
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
 import java.time.LocalDateTime;
 
 /**
@@ -8,9 +10,14 @@ import java.time.LocalDateTime;
  * this class is used to create a message request object
  * for user to simply can fill this object and send it to the server.
  * </p>
+ * <p>
+ * the timestamp is the time of the client, it is kept as metadata (<code>clientTimestamp</code>),
+ * the message gets the time of the server.
+ * </p>
  *
  * @see practical.models.Message
  */
+@JsonPropertyOrder({"text", "timestamp", "userId", "chatRoomId"})
 public class MessageRequest {
     public String text;
     public LocalDateTime timestamp;
@@ -1,5 +1,7 @@
 package practical.models.request;
 
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
 
 /**
  * <h1>UserRequest</h1>
@@ -9,6 +11,7 @@ package practical.models.request;
  *
  * @see practical.models.user.User
  */
+@JsonPropertyOrder({"email"})
 public class UserRequest {
     public String email;
 }
@@ -1,5 +1,7 @@
 package practical.models.response;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import practical.models.ChatRoom;
 
 import java.util.HashSet;
@@ -9,13 +11,23 @@ import java.util.Set;
  * <h1>ChatRoomResponse</h1>
  * <p>
  *     This class is used to send chat room data to the client.
+ *     the members are not sent, only their number, they are read page by page with <code>GET /api/chatroom/{id}/members</code>.
+ *     the endpoints of <code>/api/chatroom</code> still send them all in <code>users</code> with <code>?include=users</code>,
+ *     for the clients of the old responses (a big chat room makes a big response).
  * </p>
  * @see ChatRoom
+ * @see MembersResponse
  */
+@JsonPropertyOrder({"id", "name", "memberCount", "users"})
 public class ChatRoomResponse {
     public Integer id;
     public String name;
+    public int memberCount;
 
+    /**
+     * only with {@link #loadUsers(ChatRoom)}, else not sent.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     public Set<UserResponse> users;
 
     /**
@@ -25,12 +37,19 @@ public class ChatRoomResponse {
     public void loadChatRoomResponse(ChatRoom chatRoom) {
         this.id = chatRoom.getId();
         this.name = chatRoom.getName();
+        this.memberCount = chatRoom.currentMemberCount();
+    }
+
+    /**
+     * This method is used to add all the members of the chat room, they are loaded from the database.
+     * @param chatRoom Chat room data from the database.
+     * @return this chat room response.
+     */
+    public ChatRoomResponse loadUsers(ChatRoom chatRoom) {
         this.users = new HashSet<>();
-        chatRoom.getUsers().forEach(user -> {
-            UserResponse userResponse = new UserResponse();
-            userResponse.loadUserResponse(user);
-            this.users.add(userResponse);
-        });
+        chatRoom.getUsers().forEach(user -> this.users.add(UserResponse.getFromUser(user)));
+        this.memberCount = this.users.size();
+        return this;
     }
 
     /**
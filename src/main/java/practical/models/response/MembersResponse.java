@@ -0,0 +1,37 @@
+package practical.models.response;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.util.List;
+
+/**
+ * <h1>MembersResponse</h1>
+ * <p>
+ *     This class is used to send one page of the members of a chat room to the client, in the order of the user ids.
+ *     the next page is read with <code>afterId</code> = <code>nextAfterId</code>, which is null on the last page.
+ * </p>
+ * @see ChatRoomResponse
+ */
+@JsonPropertyOrder({"chatRoomId", "total", "nextAfterId", "users"})
+public class MembersResponse {
+    public Integer chatRoomId;
+    public int total;
+    public Integer nextAfterId;
+    public List<UserResponse> users;
+
+    /**
+     * @param chatRoomId the id of the chat room
+     * @param total how many members the chat room has
+     * @param limit the size of the page that was asked
+     * @param users the members of the page
+     * @return MembersResponse object
+     */
+    public static MembersResponse of(Integer chatRoomId, int total, int limit, List<UserResponse> users) {
+        MembersResponse response = new MembersResponse();
+        response.chatRoomId = chatRoomId;
+        response.total = total;
+        response.nextAfterId = users.size() < limit ? null : users.get(users.size() - 1).id;
+        response.users = users;
+        return response;
+    }
+}
@@ -1,5 +1,8 @@
 package practical.models.response;
 
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
 import practical.models.Message;
 
 import java.time.LocalDateTime;
@@ -8,15 +11,20 @@ import java.time.LocalDateTime;
  * <h1>MessageResponse</h1>
  * <p>
  *     This class is used to send message data to the client.
+ *     the id is sent as a string: it is bigger than 2^53, a JavaScript number would round it.
  * </p>
  * @see Message
  */
+@JsonPropertyOrder({"id", "user", "chatRoom", "text", "timestamp", "clientTimestamp", "roomSeq"})
 public class MessageResponse {
-    public Integer id;
+    @JsonSerialize(using = ToStringSerializer.class)
+    public Long id;
     public UserResponse user;
     public ChatRoomResponse chatRoom;
     public String text;
     public LocalDateTime timestamp;
+    public LocalDateTime clientTimestamp;
+    public Long roomSeq;
 
     /**
      * this method is used to load a Message object into the MessageResponse object.
@@ -30,6 +38,8 @@ public class MessageResponse {
         this.chatRoom.loadChatRoomResponse(message.getChatRoom());
         this.text = message.getText();
         this.timestamp = message.getTimestamp();
+        this.clientTimestamp = message.getClientTimestamp();
+        this.roomSeq = message.getRoomSeq();
     }
 
     /**
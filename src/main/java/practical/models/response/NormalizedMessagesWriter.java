@@ -0,0 +1,107 @@
+package practical.models.response;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import practical.models.ChatRoom;
+import practical.models.Message;
+import practical.models.user.User;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <h1>NormalizedMessagesWriter</h1>
+ * <p>
+ *     Writes a list of messages where every user and every chat room appears only once.
+ *     {@link MessageResponse} embeds the full user and the full chat room in every message,
+ *     this format puts them in a <code>users</code> map and a <code>rooms</code> map, and the messages refer to them by id:
+ * </p>
+ * <pre>
+ *     {@code
+ *     {
+ *       "users":    { "1": {"id": 1, "firstname": "...", "lastname": "...", "email": "..."} },
+ *       "rooms":    { "7": {"id": 7, "name": "...", "memberCount": 2} },
+ *       "messages": [ {"id": "10", "userId": 1, "chatRoomId": 7, "text": "...", "timestamp": "...", "clientTimestamp": "...", "roomSeq": 3} ]
+ *     }
+ *     }
+ * </pre>
+ * <p>
+ *     the JSON is written with a streaming generator straight to the output, no response objects are created.
+ * </p>
+ */
+public class NormalizedMessagesWriter {
+
+    /**
+     * the media type of this format, also selected with <code>?format=normalized</code>.
+     */
+    public static final String MEDIA_TYPE = "application/vnd.chat.normalized+json";
+
+    private NormalizedMessagesWriter() {
+    }
+
+    /**
+     * write the messages to the output.
+     * @param messages the messages
+     * @param jsonFactory the factory of the generator, from the application ObjectMapper (its codec writes the dates)
+     * @param outputStream where to write
+     * @throws IOException if the output fails
+     */
+    public static void write(Iterable<Message> messages, JsonFactory jsonFactory, OutputStream outputStream) throws IOException {
+        Map<Integer, User> users = new LinkedHashMap<>();
+        Map<Integer, ChatRoom> rooms = new LinkedHashMap<>();
+        for (Message message : messages) {
+            users.putIfAbsent(message.getUser().getId(), message.getUser());
+            rooms.putIfAbsent(message.getChatRoom().getId(), message.getChatRoom());
+        }
+
+        try (JsonGenerator generator = jsonFactory.createGenerator(outputStream, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+
+            generator.writeObjectFieldStart("users");
+            for (User user : users.values()) {
+                generator.writeObjectFieldStart(String.valueOf(user.getId()));
+                generator.writeNumberField("id", user.getId());
+                generator.writeStringField("firstname", user.getFirstname());
+                generator.writeStringField("lastname", user.getLastname());
+                generator.writeStringField("email", user.getEmail());
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+
+            generator.writeObjectFieldStart("rooms");
+            for (ChatRoom room : rooms.values()) {
+                generator.writeObjectFieldStart(String.valueOf(room.getId()));
+                generator.writeNumberField("id", room.getId());
+                generator.writeStringField("name", room.getName());
+                generator.writeNumberField("memberCount", room.currentMemberCount());
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+
+            generator.writeArrayFieldStart("messages");
+            for (Message message : messages) {
+                generator.writeStartObject();
+                // a string, like MessageResponse.id
+                generator.writeStringField("id", String.valueOf(message.getId()));
+                generator.writeNumberField("userId", message.getUser().getId());
+                generator.writeNumberField("chatRoomId", message.getChatRoom().getId());
+                generator.writeStringField("text", message.getText());
+                // by the codec of the generator (the ObjectMapper), so the dates are written like in MessageResponse
+                generator.writeObjectField("timestamp", message.getTimestamp());
+                generator.writeObjectField("clientTimestamp", message.getClientTimestamp());
+                if (message.getRoomSeq() != null) {
+                    generator.writeNumberField("roomSeq", message.getRoomSeq());
+                } else {
+                    generator.writeNullField("roomSeq");
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+
+            generator.writeEndObject();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package practical.models.response;
 
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import practical.models.user.User;
 
 import java.util.Set;
@@ -11,6 +12,7 @@ import java.util.Set;
  * </p>
  * @see User
  */
+@JsonPropertyOrder({"id", "firstname", "lastname", "email", "chatRooms"})
 public class UserResponse {
     public Integer id;
     public String firstname;
@@ -0,0 +1,39 @@
+package practical.models.response;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.util.List;
+
+/**
+ * <h1>UserSearchResponse</h1>
+ * <p>
+ *     This class is used to send one page of the results of a user search to the client.
+ * </p>
+ * @see practical.services.UserSearchService
+ */
+@JsonPropertyOrder({"query", "page", "size", "total", "users"})
+public class UserSearchResponse {
+    public String query;
+    public int page;
+    public int size;
+    public int total;
+    public List<UserResponse> users;
+
+    /**
+     * @param query what was searched
+     * @param page the number of the page, from 0
+     * @param size the size of the page
+     * @param total how many users match, on all the pages
+     * @param users the users of the page, the best match first
+     * @return UserSearchResponse object
+     */
+    public static UserSearchResponse of(String query, int page, int size, int total, List<UserResponse> users) {
+        UserSearchResponse response = new UserSearchResponse();
+        response.query = query;
+        response.page = page;
+        response.size = size;
+        response.total = total;
+        response.users = users;
+        return response;
+    }
+}
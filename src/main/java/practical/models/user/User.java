@@ -84,10 +84,12 @@ public class User implements UserDetails {
     private Role role = Role.USER;
 
     @ManyToMany(cascade = {CascadeType.PERSIST, CascadeType.MERGE})
+    // the primary key starts with user_id, the members of a chat room are read by chat_room_id (keyset pages, counts)
     @JoinTable(
             name = "user_chat_room",
             joinColumns = @JoinColumn(name = "user_id"),
-            inverseJoinColumns = @JoinColumn(name = "chat_room_id"))
+            inverseJoinColumns = @JoinColumn(name = "chat_room_id"),
+            indexes = @Index(name = "idx_user_chat_room_chat_room_id", columnList = "chat_room_id, user_id"))
     @JsonBackReference
     private Set<ChatRoom> chatRooms = new HashSet<>();
 
@@ -0,0 +1,36 @@
+package practical.ratelimit;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * <h1>RateLimitClass</h1>
+ * <p>
+ *     The groups of endpoints that have their own budget per user.
+ *     the defaults can be changed with <code>chat.rate-limit.{key}.capacity</code> and
+ *     <code>chat.rate-limit.{key}.per-second</code>.
+ * </p>
+ */
+@Getter
+@RequiredArgsConstructor
+public enum RateLimitClass {
+
+    MESSAGE_POST("message-post", 20, 5.0),
+    EXPENSIVE_READ("expensive-read", 5, 0.5)
+    ;
+
+    /**
+     * the key used in the properties and in the metrics.
+     */
+    private final String key;
+
+    /**
+     * how many requests can be done at once (size of the bucket).
+     */
+    private final int defaultCapacity;
+
+    /**
+     * how many requests per second are given back.
+     */
+    private final double defaultPerSecond;
+}
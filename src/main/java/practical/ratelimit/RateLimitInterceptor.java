@@ -0,0 +1,54 @@
+package practical.ratelimit;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.security.Principal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <h1>RateLimitInterceptor</h1>
+ * <p>
+ *     Checks the {@link RateLimited} controller methods before they run.
+ *     the budget is per authenticated user (the remote address for anonymous requests).
+ *     when the budget is used up the answer is <code>429 Too Many Requests</code> with a <code>Retry-After</code> header.
+ * </p>
+ * @see RateLimiter
+ */
+@Component
+@RequiredArgsConstructor
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private final RateLimiter rateLimiter;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!(handler instanceof HandlerMethod handlerMethod)) {
+            return true;
+        }
+        RateLimited rateLimited = handlerMethod.getMethodAnnotation(RateLimited.class);
+        if (rateLimited == null) {
+            return true;
+        }
+
+        Principal principal = request.getUserPrincipal();
+        String userKey = principal != null ? principal.getName() : request.getRemoteAddr();
+        long waitNanos = rateLimiter.tryAcquire(userKey, rateLimited.value());
+        if (waitNanos == 0) {
+            return true;
+        }
+
+        long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+        response.setContentType("text/plain;charset=UTF-8");
+        response.getWriter().write("Error: too many requests, retry after " + retryAfterSeconds + " seconds");
+        return false;
+    }
+}
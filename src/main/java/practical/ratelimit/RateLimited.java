@@ -0,0 +1,23 @@
+package practical.ratelimit;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <h1>RateLimited</h1>
+ * <p>
+ *     Put on a controller method to limit how often one user can call it.
+ *     checked by the {@link RateLimitInterceptor}.
+ * </p>
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RateLimited {
+
+    /**
+     * @return the budget the method uses
+     */
+    RateLimitClass value();
+}
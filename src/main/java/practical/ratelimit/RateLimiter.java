@@ -0,0 +1,124 @@
+package practical.ratelimit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <h1>RateLimiter</h1>
+ * <p>
+ *     Token buckets per user and per {@link RateLimitClass}.
+ *     every bucket is one <code>long</code> (the time the bucket will be full again, GCRA style)
+ *     updated with compare-and-set, so a request takes no lock and allocates nothing,
+ *     only the first request of a user creates the buckets of that user.
+ * </p>
+ * <p>
+ *     metrics: <code>chat.rate_limit.requests</code> (tags class, outcome), <code>chat.rate_limit.capacity</code>,
+ *     <code>chat.rate_limit.per_second</code> and <code>chat.rate_limit.tracked_users</code>.
+ * </p>
+ */
+@Component
+public class RateLimiter {
+
+    private static final RateLimitClass[] CLASSES = RateLimitClass.values();
+
+    private final Map<String, AtomicLongArray> bucketsByUser = new ConcurrentHashMap<>();
+
+    /**
+     * nanos between two requests, per class.
+     */
+    private final long[] intervalNanos = new long[CLASSES.length];
+
+    /**
+     * nanos of a full bucket (capacity * interval), per class.
+     */
+    private final long[] burstNanos = new long[CLASSES.length];
+
+    private final Counter[] allowed = new Counter[CLASSES.length];
+
+    private final Counter[] rejected = new Counter[CLASSES.length];
+
+    public RateLimiter(Environment environment, MeterRegistry meterRegistry) {
+        for (RateLimitClass rateLimitClass : CLASSES) {
+            int i = rateLimitClass.ordinal();
+            String prefix = "chat.rate-limit." + rateLimitClass.getKey();
+            int capacity = environment.getProperty(prefix + ".capacity", Integer.class, rateLimitClass.getDefaultCapacity());
+            double perSecond = environment.getProperty(prefix + ".per-second", Double.class, rateLimitClass.getDefaultPerSecond());
+
+            intervalNanos[i] = (long) (1_000_000_000L / perSecond);
+            burstNanos[i] = capacity * intervalNanos[i];
+
+            allowed[i] = Counter.builder("chat.rate_limit.requests")
+                    .tag("class", rateLimitClass.getKey()).tag("outcome", "allowed")
+                    .register(meterRegistry);
+            rejected[i] = Counter.builder("chat.rate_limit.requests")
+                    .tag("class", rateLimitClass.getKey()).tag("outcome", "rejected")
+                    .register(meterRegistry);
+            Gauge.builder("chat.rate_limit.capacity", () -> capacity)
+                    .tag("class", rateLimitClass.getKey()).register(meterRegistry);
+            Gauge.builder("chat.rate_limit.per_second", () -> perSecond)
+                    .tag("class", rateLimitClass.getKey()).register(meterRegistry);
+        }
+        Gauge.builder("chat.rate_limit.tracked_users", bucketsByUser, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * take one token from the bucket of the user.
+     * @param userKey the user (name of the authenticated user)
+     * @param rateLimitClass the budget to use
+     * @return 0 if the request is allowed, otherwise how many nanos to wait before the next try
+     */
+    public long tryAcquire(String userKey, RateLimitClass rateLimitClass) {
+        int i = rateLimitClass.ordinal();
+        AtomicLongArray buckets = bucketsByUser.computeIfAbsent(userKey, key -> newBuckets());
+        long interval = intervalNanos[i];
+        long burst = burstNanos[i];
+
+        while (true) {
+            long now = System.nanoTime();
+            long fullAt = buckets.get(i);
+            long newFullAt = Math.max(fullAt, now) + interval;
+            long waitNanos = newFullAt - now - burst;
+            if (waitNanos > 0) {
+                rejected[i].increment();
+                return waitNanos;
+            }
+            if (buckets.compareAndSet(i, fullAt, newFullAt)) {
+                allowed[i].increment();
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * forget the users with full buckets, they are the same as new users.
+     */
+    @Scheduled(fixedDelayString = "${chat.rate-limit.cleanup-interval-ms:60000}")
+    public void evictIdleUsers() {
+        long now = System.nanoTime();
+        bucketsByUser.values().removeIf(buckets -> {
+            for (int i = 0; i < buckets.length(); i++) {
+                if (buckets.get(i) - now > 0) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    private AtomicLongArray newBuckets() {
+        AtomicLongArray buckets = new AtomicLongArray(CLASSES.length);
+        long now = System.nanoTime();
+        for (int i = 0; i < CLASSES.length; i++) {
+            buckets.set(i, now - burstNanos[i]);
+        }
+        return buckets;
+    }
+}
@@ -0,0 +1,129 @@
+package practical.reactive;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import io.r2dbc.spi.Readable;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import practical.models.response.ChatRoomResponse;
+import practical.models.response.MessageResponse;
+import practical.models.response.UserResponse;
+import practical.repositories.JdbcMessageStore;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * <h1>ReactiveMessageReader</h1>
+ * <p>
+ *     Reads the message history with R2DBC, without JPA and without blocking a thread while the database works.
+ *     the rows are mapped straight to {@link MessageResponse}, with the query of {@link JdbcMessageStore}:
+ *     the user is joined in the same query and the chat room has only its id, name and number of members.
+ * </p>
+ * <p>
+ *     the history is read in pages by id (keyset), the next page is read only when the client took the previous one,
+ *     so a slow client doesn't make the whole history wait in memory.
+ *     not available with <code>chat.sharding.enabled</code>, the sharded messages are not in the main database.
+ * </p>
+ * <p>
+ *     the R2DBC pool is not a bean, spring boot doesn't create the JDBC datasource of JPA when it finds one.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "chat.sharding.enabled", havingValue = "false", matchIfMissing = true)
+public class ReactiveMessageReader {
+
+    private final ConnectionPool connectionPool;
+
+    private final DatabaseClient databaseClient;
+
+    public ReactiveMessageReader(@Value("${chat.reactive.url}") String url,
+                                 @Value("${chat.reactive.username:}") String username,
+                                 @Value("${chat.reactive.password:}") String password,
+                                 @Value("${chat.reactive.pool-size:10}") int poolSize) {
+        ConnectionFactoryOptions options = ConnectionFactoryOptions.parse(url).mutate()
+                .option(ConnectionFactoryOptions.USER, username)
+                .option(ConnectionFactoryOptions.PASSWORD, password)
+                .build();
+        this.connectionPool = new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(options))
+                .maxSize(poolSize)
+                .build());
+        this.databaseClient = DatabaseClient.create(connectionPool);
+    }
+
+    @PreDestroy
+    public void close() {
+        connectionPool.dispose();
+    }
+
+    /**
+     * all the messages of the chat room after the given id, oldest first, read page by page.
+     * @param chatRoomId the id of the chat room
+     * @param afterId only the messages with a bigger id (0 for all)
+     * @param pageSize how many messages are read from the database at once
+     * @return the messages
+     */
+    public Flux<MessageResponse> findByChatRoomId(Integer chatRoomId, long afterId, int pageSize) {
+        return findPage(chatRoomId, afterId, pageSize)
+                .expand(page -> page.size() < pageSize
+                        ? Mono.empty()
+                        : findPage(chatRoomId, page.get(page.size() - 1).id, pageSize))
+                .flatMapIterable(page -> page);
+    }
+
+    /**
+     * @param chatRoomId the id of the chat room
+     * @return the last message of the chat room, or empty
+     */
+    public Mono<MessageResponse> findLastByChatRoomId(Integer chatRoomId) {
+        return databaseClient.sql(JdbcMessageStore.SELECT_RESPONSES_OF_CHAT_ROOM + " order by m.id desc limit 1")
+                .bind("chatRoomId", chatRoomId)
+                .map(this::toResponse)
+                .one();
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private Mono<List<MessageResponse>> findPage(Integer chatRoomId, long afterId, int pageSize) {
+        return databaseClient.sql(JdbcMessageStore.SELECT_RESPONSES_OF_CHAT_ROOM
+                        + " and m.id > :afterId order by m.id limit :limit")
+                .bind("chatRoomId", chatRoomId)
+                .bind("afterId", afterId)
+                .bind("limit", pageSize)
+                .map(this::toResponse)
+                .all()
+                .collectList();
+    }
+
+    private MessageResponse toResponse(Readable row) {
+        UserResponse user = new UserResponse();
+        user.id = row.get("user_id", Integer.class);
+        user.firstname = row.get("firstname", String.class);
+        user.lastname = row.get("lastname", String.class);
+        user.email = row.get("email", String.class);
+
+        ChatRoomResponse chatRoom = new ChatRoomResponse();
+        chatRoom.id = row.get("chat_room_id", Integer.class);
+        chatRoom.name = row.get("chat_room_name", String.class);
+        chatRoom.memberCount = row.get("member_count", Long.class).intValue();
+
+        MessageResponse message = new MessageResponse();
+        message.id = row.get("id", Long.class);
+        message.user = user;
+        message.chatRoom = chatRoom;
+        message.text = row.get("text", String.class);
+        message.timestamp = row.get("timestamp", LocalDateTime.class);
+        message.clientTimestamp = row.get("client_timestamp", LocalDateTime.class);
+        message.roomSeq = row.get("room_seq", Long.class);
+        return message;
+    }
+}
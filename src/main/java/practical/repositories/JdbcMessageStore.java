@@ -0,0 +1,255 @@
+package practical.repositories;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import practical.models.Message;
+import practical.models.response.ChatRoomResponse;
+import practical.models.response.MessageResponse;
+import practical.models.response.UserResponse;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * <h1>JdbcMessageStore</h1>
+ * <p>
+ *     {@link MessageStore} on the same tables as {@link JpaMessageStore}, with plain SQL instead of Hibernate.
+ *     a message is written with one insert (no persistence context, no dirty checking, no select of the user and the chat room),
+ *     and the reads that end in a {@link MessageResponse} join the user and the chat room in the same query
+ *     and map the rows straight to the responses.
+ * </p>
+ * <p>
+ *     the reads that return {@link Message}s give the user and the chat room as references, they are read
+ *     from the main database only when they are used, like in {@link practical.sharding.ShardedMessageStore}.
+ * </p>
+ * <p>
+ *     Used when <code>chat.messages.store</code> is jdbc (and <code>chat.sharding.enabled</code> is false).
+ * </p>
+ * @see MessageStoreBenchmark
+ */
+@Component
+@ConditionalOnExpression("!${chat.sharding.enabled:false} and '${chat.messages.store:jpa}' == 'jdbc'")
+public class JdbcMessageStore implements MessageStore {
+
+    private static final String COLUMNS = "id, chat_room_id, user_id, text, timestamp, client_timestamp, room_seq";
+
+    /**
+     * the messages of the chat room <code>:chatRoomId</code> as responses, with their user and chat room,
+     * also read by {@link practical.reactive.ReactiveMessageReader}: the callers add the rest of the where, the order and the limit.
+     * the members are counted once for the query (not once per row), the chat room is the same on every row.
+     */
+    public static final String SELECT_RESPONSES_OF_CHAT_ROOM = """
+            select m.id, m.text, m.timestamp, m.client_timestamp, m.room_seq, m.chat_room_id, c.name as chat_room_name,
+                   mc.member_count, m.user_id, u.firstname, u.lastname, u.email
+            from message m
+            join users u on u.id = m.user_id
+            join chat_room c on c.id = m.chat_room_id
+            cross join (select count(*) as member_count from user_chat_room where chat_room_id = :chatRoomId) mc
+            where m.chat_room_id = :chatRoomId
+            """;
+
+    private static final RowMapper<MessageResponse> RESPONSE_MAPPER = (rs, rowNum) -> {
+        UserResponse user = new UserResponse();
+        user.id = rs.getInt("user_id");
+        user.firstname = rs.getString("firstname");
+        user.lastname = rs.getString("lastname");
+        user.email = rs.getString("email");
+
+        ChatRoomResponse chatRoom = new ChatRoomResponse();
+        chatRoom.id = rs.getInt("chat_room_id");
+        chatRoom.name = rs.getString("chat_room_name");
+        chatRoom.memberCount = rs.getInt("member_count");
+
+        MessageResponse message = new MessageResponse();
+        message.id = rs.getLong("id");
+        message.user = user;
+        message.chatRoom = chatRoom;
+        message.text = rs.getString("text");
+        message.timestamp = rs.getObject("timestamp", LocalDateTime.class);
+        message.clientTimestamp = rs.getObject("client_timestamp", LocalDateTime.class);
+        message.roomSeq = rs.getObject("room_seq", Long.class);
+        return message;
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    private final RowMapper<Message> messageMapper;
+
+    public JdbcMessageStore(JdbcTemplate jdbcTemplate, UserRepository userRepository, ChatRoomRepository chatRoomRepository) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.messageMapper = (rs, rowNum) -> {
+            Message message = new Message();
+            message.setId(rs.getLong("id"));
+            message.setChatRoom(chatRoomRepository.getReferenceById(rs.getInt("chat_room_id")));
+            message.setUser(userRepository.getReferenceById(rs.getInt("user_id")));
+            message.setText(rs.getString("text"));
+            message.setTimestamp(rs.getObject("timestamp", LocalDateTime.class));
+            message.setClientTimestamp(rs.getObject("client_timestamp", LocalDateTime.class));
+            message.setRoomSeq(rs.getObject("room_seq", Long.class));
+            message.markPersisted();
+            return message;
+        };
+    }
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    @Override
+    public Iterable<Message> findAll() {
+        return jdbcTemplate.query("select " + COLUMNS + " from message order by id", messageMapper);
+    }
+
+    @Override
+    public Iterable<Message> findByChatRoomId(Integer chatRoomId) {
+        return jdbcTemplate.query("select " + COLUMNS + " from message where chat_room_id = ? order by id",
+                messageMapper, chatRoomId);
+    }
+
+    @Override
+    public Message findLastByChatRoomId(Integer chatRoomId) {
+        List<Message> messages = jdbcTemplate.query(
+                "select " + COLUMNS + " from message where chat_room_id = ? order by id desc limit 1",
+                messageMapper, chatRoomId);
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    @Override
+    public Optional<Message> findById(Long messageId) {
+        return jdbcTemplate.query("select " + COLUMNS + " from message where id = ?", messageMapper, messageId)
+                .stream()
+                .findFirst();
+    }
+
+    @Override
+    public List<Message> findPageByChatRoomId(Integer chatRoomId, long afterId, int limit) {
+        return jdbcTemplate.query(
+                "select " + COLUMNS + " from message where chat_room_id = ? and id > ? order by id limit ?",
+                messageMapper, chatRoomId, afterId, limit);
+    }
+
+    @Override
+    public List<Message> findLatestByChatRoomId(Integer chatRoomId, int limit) {
+        List<Message> latest = new ArrayList<>(jdbcTemplate.query(
+                "select " + COLUMNS + " from message where chat_room_id = ? order by id desc limit ?",
+                messageMapper, chatRoomId, limit));
+        Collections.reverse(latest);
+        return latest;
+    }
+
+    @Override
+    public MessageResponse findLastResponseByChatRoomId(Integer chatRoomId) {
+        List<MessageResponse> messages = namedJdbcTemplate.query(SELECT_RESPONSES_OF_CHAT_ROOM + " order by m.id desc limit 1",
+                Map.of("chatRoomId", chatRoomId), RESPONSE_MAPPER);
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    @Override
+    public List<MessageResponse> findPageResponsesByChatRoomId(Integer chatRoomId, long afterId, int limit) {
+        return namedJdbcTemplate.query(SELECT_RESPONSES_OF_CHAT_ROOM + " and m.id > :afterId order by m.id limit :limit",
+                Map.of("chatRoomId", chatRoomId, "afterId", afterId, "limit", limit), RESPONSE_MAPPER);
+    }
+
+    @Override
+    public List<MessageResponse> findLatestResponsesByChatRoomId(Integer chatRoomId, int limit) {
+        List<MessageResponse> latest = new ArrayList<>(namedJdbcTemplate.query(
+                SELECT_RESPONSES_OF_CHAT_ROOM + " order by m.id desc limit :limit",
+                Map.of("chatRoomId", chatRoomId, "limit", limit), RESPONSE_MAPPER));
+        Collections.reverse(latest);
+        return latest;
+    }
+
+    @Override
+    public long findMaxRoomSeq(Integer chatRoomId) {
+        Long maxRoomSeq = jdbcTemplate.queryForObject(
+                "select coalesce(max(room_seq), 0) from message where chat_room_id = ?", Long.class, chatRoomId);
+        return maxRoomSeq == null ? 0 : maxRoomSeq;
+    }
+
+    //==========================================================================
+    //=============================== SAVE =====================================
+    //==========================================================================
+
+    @Override
+    public Message save(Message message) {
+        if (message.isNew()) {
+            jdbcTemplate.update("insert into message (" + COLUMNS + ") values (?, ?, ?, ?, ?, ?, ?)", toRow(message));
+            message.markPersisted();
+        } else {
+            jdbcTemplate.update("update message set text = ?, timestamp = ?, client_timestamp = ? where id = ?",
+                    message.getText(), message.getTimestamp(), message.getClientTimestamp(), message.getId());
+        }
+        return message;
+    }
+
+    /**
+     * one batch for all the messages, the batch is one transaction with the transaction of the caller or alone.
+     */
+    @Override
+    public List<Message> saveAll(List<Message> messages) {
+        jdbcTemplate.batchUpdate("insert into message (" + COLUMNS + ") values (?, ?, ?, ?, ?, ?, ?)",
+                messages.stream().map(this::toRow).toList());
+        messages.forEach(Message::markPersisted);
+        return messages;
+    }
+
+    //==========================================================================
+    //============================== DELETE ====================================
+    //==========================================================================
+
+    @Override
+    public void deleteById(Long messageId) {
+        jdbcTemplate.update("delete from message where id = ?", messageId);
+    }
+
+    @Override
+    public void deleteByChatRoomId(Integer chatRoomId) {
+        jdbcTemplate.update("delete from message where chat_room_id = ?", chatRoomId);
+    }
+
+    @Override
+    public void deleteAllByUserId(Integer userId) {
+        jdbcTemplate.update("delete from message where user_id = ?", userId);
+    }
+
+    @Override
+    public int deleteChunkByChatRoomId(Integer chatRoomId, int limit) {
+        return deleteChunk("chat_room_id", chatRoomId, limit);
+    }
+
+    @Override
+    public int deleteChunkByUserId(Integer userId, int limit) {
+        return deleteChunk("user_id", userId, limit);
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    /**
+     * the ids are read first, MySQL has no limit in the subqueries of a delete.
+     */
+    private int deleteChunk(String column, Integer value, int limit) {
+        List<Long> ids = jdbcTemplate.queryForList(
+                "select id from message where " + column + " = ? order by id limit ?", Long.class, value, limit);
+        if (!ids.isEmpty()) {
+            jdbcTemplate.batchUpdate("delete from message where id = ?", ids.stream().map(id -> new Object[]{id}).toList());
+        }
+        return ids.size();
+    }
+
+    private Object[] toRow(Message message) {
+        return new Object[]{message.getId(), message.getChatRoom().getId(), message.getUser().getId(), message.getText(),
+                message.getTimestamp(), message.getClientTimestamp(), message.getRoomSeq()};
+    }
+}
@@ -0,0 +1,117 @@
+package practical.repositories;
+
+import jakarta.transaction.Transactional;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import practical.models.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * <h1>JpaMessageStore</h1>
+ * <p>
+ *     {@link MessageStore} that keeps all the messages in the main database, using {@link MessageRepository}.
+ *     This is the default store, used when <code>chat.sharding.enabled</code> is false and <code>chat.messages.store</code> is jpa.
+ * </p>
+ * @see MessageRepository
+ * @see JdbcMessageStore
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnExpression("!${chat.sharding.enabled:false} and '${chat.messages.store:jpa}' == 'jpa'")
+public class JpaMessageStore implements MessageStore {
+
+    private final MessageRepository messageRepository;
+
+    @Override
+    public Iterable<Message> findAll() {
+        return messageRepository.findAll();
+    }
+
+    @Override
+    public Iterable<Message> findByChatRoomId(Integer chatRoomId) {
+        return messageRepository.findByChatRoomIdOrderByIdAsc(chatRoomId);
+    }
+
+    @Override
+    public Message findLastByChatRoomId(Integer chatRoomId) {
+        return messageRepository.findFirstByChatRoomIdOrderByIdDesc(chatRoomId);
+    }
+
+    @Override
+    public Optional<Message> findById(Long messageId) {
+        return messageRepository.findById(messageId);
+    }
+
+    @Override
+    public List<Message> findPageByChatRoomId(Integer chatRoomId, long afterId, int limit) {
+        return messageRepository.findByChatRoomIdAndIdGreaterThanOrderByIdAsc(chatRoomId, afterId, PageRequest.of(0, limit));
+    }
+
+    @Override
+    public List<Message> findLatestByChatRoomId(Integer chatRoomId, int limit) {
+        List<Message> latest = new ArrayList<>(messageRepository.findByChatRoomIdOrderByIdDesc(chatRoomId, PageRequest.of(0, limit)));
+        Collections.reverse(latest);
+        return latest;
+    }
+
+    @Override
+    public Message save(Message message) {
+        return messageRepository.save(message);
+    }
+
+    @Override
+    @Transactional
+    public List<Message> saveAll(List<Message> messages) {
+        return messageRepository.saveAll(messages);
+    }
+
+    @Override
+    public long findMaxRoomSeq(Integer chatRoomId) {
+        return messageRepository.findMaxRoomSeq(chatRoomId);
+    }
+
+    @Override
+    public void deleteById(Long messageId) {
+        messageRepository.deleteById(messageId);
+    }
+
+    @Override
+    @Transactional
+    public void deleteByChatRoomId(Integer chatRoomId) {
+        messageRepository.deleteByChatRoomId(chatRoomId);
+    }
+
+    @Override
+    @Transactional
+    public void deleteAllByUserId(Integer userId) {
+        messageRepository.deleteAllByUser_Id(userId);
+    }
+
+    @Override
+    @Transactional
+    public int deleteChunkByChatRoomId(Integer chatRoomId, int limit) {
+        return deleteIds(messageRepository.findIdsByChatRoomId(chatRoomId, PageRequest.of(0, limit)));
+    }
+
+    @Override
+    @Transactional
+    public int deleteChunkByUserId(Integer userId, int limit) {
+        return deleteIds(messageRepository.findIdsByUserId(userId, PageRequest.of(0, limit)));
+    }
+
+    /**
+     * one delete statement for all the ids, without loading the messages.
+     */
+    private int deleteIds(List<Long> ids) {
+        if (!ids.isEmpty()) {
+            messageRepository.deleteAllByIdInBatch(ids);
+        }
+        return ids.size();
+    }
+}
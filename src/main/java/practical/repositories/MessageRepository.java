@@ -1,7 +1,11 @@
 package practical.repositories;
 
 import practical.models.Message;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.List;
 
 /**
  * <h1>MessageRepository</h1>
@@ -12,13 +16,24 @@ import org.springframework.data.jpa.repository.JpaRepository;
  * @see JpaRepository
  * @see Message
  */
-public interface MessageRepository extends JpaRepository<Message, Integer>{
-    Iterable<Message> findByChatRoomId(Integer chatRoomId);
+public interface MessageRepository extends JpaRepository<Message, Long>{
+    Iterable<Message> findByChatRoomIdOrderByIdAsc(Integer chatRoomId);
     void deleteByChatRoomId(Integer chatRoomId);
     Iterable<Message> findByUserIdAndChatRoomId(Integer userId, Integer chatRoomId);
     void deleteByUserIdAndChatRoomId(Integer userId, Integer chatRoomId);
-    public Message findFirstByChatRoomIdOrderByTimestampDesc(Integer chatRoomId);
+    public Message findFirstByChatRoomIdOrderByIdDesc(Integer chatRoomId);
+    List<Message> findByChatRoomIdAndIdGreaterThanOrderByIdAsc(Integer chatRoomId, Long afterId, Pageable pageable);
+    List<Message> findByChatRoomIdOrderByIdDesc(Integer chatRoomId, Pageable pageable);
 
     void deleteAllByUser_Id(Integer userId);
     void deleteAllByUser_IdAndChatRoom_Id(Integer userId, Integer chatRoomId);
+
+    @Query("select coalesce(max(m.roomSeq), 0) from Message m where m.chatRoom.id = ?1")
+    long findMaxRoomSeq(Integer chatRoomId);
+
+    @Query("select m.id from Message m where m.chatRoom.id = ?1 order by m.id")
+    List<Long> findIdsByChatRoomId(Integer chatRoomId, Pageable pageable);
+
+    @Query("select m.id from Message m where m.user.id = ?1 order by m.id")
+    List<Long> findIdsByUserId(Integer userId, Pageable pageable);
 }
@@ -0,0 +1,101 @@
+package practical.repositories;
+
+import practical.models.Message;
+import practical.models.response.MessageResponse;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * <h1>MessageStore</h1>
+ * <p>
+ *     This interface is the storage of the messages used by the services.
+ *     the services don't use {@link MessageRepository} directly, so the messages can be stored in one database
+ *     ({@link JpaMessageStore}, {@link JdbcMessageStore}) or split between several databases ({@link practical.sharding.ShardedMessageStore}).
+ * </p>
+ * <p>
+ *     the reads that end in a {@link MessageResponse} have their own methods, by default they map the messages,
+ *     a store can read the responses straight from the rows instead.
+ * </p>
+ * @see Message
+ */
+public interface MessageStore {
+    Iterable<Message> findAll();
+    Iterable<Message> findByChatRoomId(Integer chatRoomId);
+    Message findLastByChatRoomId(Integer chatRoomId);
+    Optional<Message> findById(Long messageId);
+    Message save(Message message);
+
+    /**
+     * one page of the messages of the chat room, in the order of the ids (keyset pagination).
+     * @param chatRoomId the id of the chat room
+     * @param afterId only the messages with a bigger id, 0 for the first page
+     * @param limit the size of the page
+     * @return the messages, the oldest first
+     */
+    List<Message> findPageByChatRoomId(Integer chatRoomId, long afterId, int limit);
+
+    /**
+     * the latest messages of the chat room.
+     * @param chatRoomId the id of the chat room
+     * @param limit how many messages
+     * @return the messages, the oldest first
+     */
+    List<Message> findLatestByChatRoomId(Integer chatRoomId, int limit);
+
+    /**
+     * @param chatRoomId the id of the chat room
+     * @return the last message of the chat room as a response, null when there is none
+     */
+    default MessageResponse findLastResponseByChatRoomId(Integer chatRoomId) {
+        Message message = findLastByChatRoomId(chatRoomId);
+        return message == null ? null : MessageResponse.getFromMessage(message);
+    }
+
+    /**
+     * {@link #findPageByChatRoomId} as responses.
+     */
+    default List<MessageResponse> findPageResponsesByChatRoomId(Integer chatRoomId, long afterId, int limit) {
+        return findPageByChatRoomId(chatRoomId, afterId, limit).stream().map(MessageResponse::getFromMessage).toList();
+    }
+
+    /**
+     * {@link #findLatestByChatRoomId} as responses.
+     */
+    default List<MessageResponse> findLatestResponsesByChatRoomId(Integer chatRoomId, int limit) {
+        return findLatestByChatRoomId(chatRoomId, limit).stream().map(MessageResponse::getFromMessage).toList();
+    }
+
+    /**
+     * save new messages together, in one transaction and with batched inserts.
+     * @param messages the messages, with their ids
+     * @return the saved messages
+     */
+    List<Message> saveAll(List<Message> messages);
+
+    /**
+     * @param chatRoomId the id of the chat room
+     * @return the biggest <code>roomSeq</code> of the chat room, 0 when there is none
+     */
+    long findMaxRoomSeq(Integer chatRoomId);
+
+    void deleteById(Long messageId);
+    void deleteByChatRoomId(Integer chatRoomId);
+    void deleteAllByUserId(Integer userId);
+
+    /**
+     * delete some of the messages of the chat room, for the purges that delete in small transactions.
+     * @param chatRoomId the id of the chat room
+     * @param limit the most messages to delete
+     * @return how many messages were deleted, 0 when there are no more
+     */
+    int deleteChunkByChatRoomId(Integer chatRoomId, int limit);
+
+    /**
+     * delete some of the messages of the user, for the purges that delete in small transactions.
+     * @param userId the id of the user
+     * @param limit the most messages to delete
+     * @return how many messages were deleted, 0 when there are no more
+     */
+    int deleteChunkByUserId(Integer userId, int limit);
+}
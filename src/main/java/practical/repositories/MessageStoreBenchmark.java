@@ -0,0 +1,149 @@
+package practical.repositories;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import practical.ids.MessageIdGenerator;
+import practical.models.ChatRoom;
+import practical.models.Message;
+import practical.models.response.MessageResponse;
+import practical.models.user.User;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * <h1>MessageStoreBenchmark</h1>
+ * <p>
+ *     Compares {@link JpaMessageStore} and {@link JdbcMessageStore} on the main database, whatever store is configured:
+ *     the inserts one by one, the last message, the latest 50 messages and the whole history in pages of 100 (keyset),
+ *     the reads as {@link MessageResponse}s like the services use them.
+ *     every store gets a new chat room, that is deleted with its messages at the end,
+ *     and first runs a short warm-up that is not counted.
+ * </p>
+ * <p>
+ *     it runs as a job of {@link practical.benchmark.BenchmarkJobService}, without the session of a request,
+ *     so every call of the JPA store has a new persistence context like in a request of its own.
+ *     it writes to the real database, run it on a test instance and not under production load:
+ *     it exists only with <code>chat.benchmarks.enabled=true</code>.
+ * </p>
+ */
+@Component
+@ConditionalOnExpression("!${chat.sharding.enabled:false} and ${chat.benchmarks.enabled:false}")
+public class MessageStoreBenchmark {
+    private static final int LATEST_LIMIT = 50;
+
+    private static final int HISTORY_PAGE_SIZE = 100;
+
+    private final Map<String, MessageStore> stores = new LinkedHashMap<>();
+
+    private final MessageIdGenerator messageIdGenerator;
+
+    private final ChatRoomRepository chatRoomRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public MessageStoreBenchmark(MessageRepository messageRepository,
+                                 JdbcTemplate jdbcTemplate,
+                                 UserRepository userRepository,
+                                 ChatRoomRepository chatRoomRepository,
+                                 MessageIdGenerator messageIdGenerator,
+                                 TransactionTemplate transactionTemplate) {
+        this.stores.put("jpa", new JpaMessageStore(messageRepository));
+        this.stores.put("jdbc", new JdbcMessageStore(jdbcTemplate, userRepository, chatRoomRepository));
+        this.messageIdGenerator = messageIdGenerator;
+        this.chatRoomRepository = chatRoomRepository;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    /**
+     * run the two stores, one after the other.
+     * @param sender the user that sends the messages
+     * @param messages how many messages are inserted in every store
+     * @param reads how many times every read is done
+     * @return the result of every store and operation
+     */
+    public List<Result> run(User sender, int messages, int reads) {
+        List<Result> results = new ArrayList<>();
+        stores.forEach((name, store) -> {
+            runStore(name, store, sender, Math.max(1, messages / 10), Math.max(1, reads / 10));
+            results.addAll(runStore(name, store, sender, messages, reads));
+        });
+        return results;
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private List<Result> runStore(String name, MessageStore store, User sender, int messages, int reads) {
+        ChatRoom chatRoom = new ChatRoom();
+        chatRoom.setName("benchmark-" + name + "-" + System.currentTimeMillis());
+        ChatRoom room = chatRoomRepository.save(chatRoom);
+        try {
+            List<Result> results = new ArrayList<>();
+            results.add(measure(name, "insert", messages, index -> {
+                Message message = new Message();
+                message.setId(messageIdGenerator.nextId());
+                message.setChatRoom(room);
+                message.setUser(sender);
+                message.setText("benchmark " + index);
+                message.setTimestamp(LocalDateTime.now().truncatedTo(ChronoUnit.MICROS));
+                store.save(message);
+            }));
+            results.add(measure(name, "last", reads, index -> store.findLastResponseByChatRoomId(room.getId())));
+            results.add(measure(name, "latest-" + LATEST_LIMIT, reads,
+                    index -> store.findLatestResponsesByChatRoomId(room.getId(), LATEST_LIMIT)));
+            // one operation is one page, the history is read again from the start when it ends
+            long[] afterId = {0};
+            results.add(measure(name, "history-page-" + HISTORY_PAGE_SIZE, reads, index -> {
+                List<MessageResponse> page = store.findPageResponsesByChatRoomId(room.getId(), afterId[0], HISTORY_PAGE_SIZE);
+                afterId[0] = page.size() < HISTORY_PAGE_SIZE ? 0 : page.get(page.size() - 1).id;
+            }));
+            return results;
+        } finally {
+            // the stores are not beans, their @Transactional methods have no transaction of their own
+            transactionTemplate.executeWithoutResult(status -> {
+                store.deleteByChatRoomId(room.getId());
+                chatRoomRepository.deleteById(room.getId());
+            });
+        }
+    }
+
+    private Result measure(String store, String operation, int count, IntConsumer operationAt) {
+        long[] latenciesNs = new long[count];
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            long operationStart = System.nanoTime();
+            operationAt.accept(i);
+            latenciesNs[i] = System.nanoTime() - operationStart;
+        }
+        long durationNs = System.nanoTime() - start;
+        Arrays.sort(latenciesNs);
+        return new Result(store, operation, count, durationNs / 1_000_000,
+                count * 1_000_000_000L / Math.max(1, durationNs),
+                latenciesNs[count / 2] / 1_000_000.0,
+                latenciesNs[Math.min(count - 1, count * 99 / 100)] / 1_000_000.0);
+    }
+
+    /**
+     * the result of one operation on one store.
+     * @param store jpa or jdbc
+     * @param operation insert, last, latest-50 or history-page-100
+     * @param count how many times the operation was done
+     * @param durationMs the time of all of them
+     * @param operationsPerSecond the throughput
+     * @param p50Ms the median time of one operation
+     * @param p99Ms the 99th percentile time of one operation
+     */
+    public record Result(String store, String operation, int count, long durationMs, long operationsPerSecond,
+                         double p50Ms, double p99Ms) {
+    }
+}
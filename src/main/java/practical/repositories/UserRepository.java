@@ -3,6 +3,8 @@ package practical.repositories;
 import practical.models.user.User;
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -16,6 +18,7 @@ import java.util.Optional;
  */
 public interface UserRepository extends JpaRepository<User, Integer> {
     Optional<User> findByEmail(String email);//maybe findUserByEmail
+    List<User> findByEmailIn(Collection<String> emails);
     void deleteByEmail(String email);
 
 }
\ No newline at end of file
@@ -0,0 +1,147 @@
+package practical.sequencer;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+import practical.ids.MessageIdGenerator;
+import practical.models.ChatRoom;
+import practical.models.Message;
+import practical.models.user.User;
+import practical.repositories.ChatRoomRepository;
+import practical.repositories.MessageStore;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+import java.util.logging.Logger;
+
+/**
+ * <h1>HotRoomBenchmark</h1>
+ * <p>
+ *     Measures how many messages per second one hot chat room takes, when many senders post at the same time:
+ *     once with a direct save per message (like without the sequencer), once through the {@link RoomSequencer}.
+ *     every run uses a new chat room, that is deleted with its messages at the end.
+ * </p>
+ * <p>
+ *     it writes to the real database, run it on a test instance and not under production load:
+ *     it exists only with <code>chat.benchmarks.enabled=true</code>, and runs as a job of {@link practical.benchmark.BenchmarkJobService}.
+ * </p>
+ */
+@Component
+@ConditionalOnExpression("${chat.sequencer.enabled:false} and ${chat.benchmarks.enabled:false}")
+public class HotRoomBenchmark {
+    private static final Logger logger = Logger.getLogger(HotRoomBenchmark.class.getName());
+
+    private final RoomSequencer roomSequencer;
+
+    private final MessageStore messageStore;
+
+    private final MessageIdGenerator messageIdGenerator;
+
+    private final ChatRoomRepository chatRoomRepository;
+
+    public HotRoomBenchmark(RoomSequencer roomSequencer,
+                            MessageStore messageStore,
+                            MessageIdGenerator messageIdGenerator,
+                            ChatRoomRepository chatRoomRepository) {
+        this.roomSequencer = roomSequencer;
+        this.messageStore = messageStore;
+        this.messageIdGenerator = messageIdGenerator;
+        this.chatRoomRepository = chatRoomRepository;
+    }
+
+    /**
+     * run the two modes, one after the other.
+     * @param sender the user that sends the messages
+     * @param messages how many messages in every mode
+     * @param senders how many threads send at the same time
+     * @return the result of every mode
+     */
+    public List<Result> run(User sender, int messages, int senders) {
+        List<Result> results = List.of(
+                runMode("direct", sender, messages, senders, messageStore::save),
+                runMode("sequencer", sender, messages, senders, roomSequencer::append));
+        logger.info("hot room benchmark: " + results);
+        return results;
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private Result runMode(String mode, User sender, int messages, int senders, UnaryOperator<Message> save) {
+        ChatRoom chatRoom = new ChatRoom();
+        chatRoom.setName("benchmark-" + mode + "-" + System.currentTimeMillis());
+        chatRoom = chatRoomRepository.save(chatRoom);
+        ChatRoom room = chatRoom;
+
+        long[] latenciesNs = new long[messages];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(senders);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < senders; i++) {
+                futures.add(executor.submit(() -> {
+                    int index;
+                    while ((index = next.getAndIncrement()) < messages) {
+                        Message message = new Message();
+                        message.setId(messageIdGenerator.nextId());
+                        message.setChatRoom(room);
+                        message.setUser(sender);
+                        message.setText("benchmark " + index);
+                        message.setTimestamp(LocalDateTime.now());
+                        long sentNs = System.nanoTime();
+                        try {
+                            save.apply(message);
+                        } catch (RuntimeException e) {
+                            failed.incrementAndGet();
+                        }
+                        latenciesNs[index] = System.nanoTime() - sentNs;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("benchmark " + mode + " failed", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        long durationNs = System.nanoTime() - start;
+
+        long maxRoomSeq = messageStore.findMaxRoomSeq(room.getId());
+        messageStore.deleteByChatRoomId(room.getId());
+        chatRoomRepository.deleteById(room.getId());
+
+        Arrays.sort(latenciesNs);
+        return new Result(mode, messages, senders, failed.get(), durationNs / 1_000_000,
+                messages * 1_000_000_000L / Math.max(1, durationNs),
+                latenciesNs[messages / 2] / 1_000_000.0,
+                latenciesNs[Math.min(messages - 1, messages * 99 / 100)] / 1_000_000.0,
+                maxRoomSeq);
+    }
+
+    /**
+     * the result of one mode.
+     * @param mode direct or sequencer
+     * @param messages how many messages were sent
+     * @param senders how many threads sent them
+     * @param failed how many messages were not saved
+     * @param durationMs the time of the whole run
+     * @param messagesPerSecond the throughput
+     * @param p50Ms the median time to save one message
+     * @param p99Ms the 99th percentile time to save one message
+     * @param maxRoomSeq the last room sequence, equal to the saved messages when the sequence has no hole
+     */
+    public record Result(String mode, int messages, int senders, int failed, long durationMs, long messagesPerSecond,
+                         double p50Ms, double p99Ms, long maxRoomSeq) {
+    }
+}
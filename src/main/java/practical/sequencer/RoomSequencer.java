@@ -0,0 +1,223 @@
+package practical.sequencer;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import practical.ids.MessageIdGenerator;
+import practical.models.Message;
+import practical.repositories.MessageStore;
+import practical.util.VirtualThreads;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <h1>RoomSequencer</h1>
+ * <p>
+ *     One writer per chat room: the new messages of a chat room are put in the mailbox of the chat room,
+ *     and one task at a time takes them out, gives them the next numbers of the chat room (<code>roomSeq</code>, 1, 2, 3...)
+ *     and new ids in the same order, and saves them together with one batch.
+ *     so the messages of a hot chat room don't fight for the same index pages, their order is the order of the mailbox,
+ *     and the more messages wait the bigger (and cheaper) the batches are.
+ * </p>
+ * <p>
+ *     the mailboxes of the chat rooms that had no message for <code>chat.sequencer.idle-ms</code> are removed,
+ *     the sequence is read again from the database when the chat room is active again.
+ *     the unique index on (chat_room_id, room_seq) rejects a batch when another instance wrote to the same chat room,
+ *     the sequence is then read again and the senders get the error.
+ * </p>
+ * <p>
+ *     Used when <code>chat.sequencer.enabled</code> is true.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "chat.sequencer.enabled", havingValue = "true")
+public class RoomSequencer {
+    private static final Logger logger = Logger.getLogger(RoomSequencer.class.getName());
+
+    private final MessageStore messageStore;
+
+    private final MessageIdGenerator messageIdGenerator;
+
+    private final int batchSize;
+
+    private final long idleMs;
+
+    private final ExecutorService writerExecutor;
+
+    private final DistributionSummary batchSizes;
+
+    private final Map<Integer, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    public RoomSequencer(MessageStore messageStore,
+                         MessageIdGenerator messageIdGenerator,
+                         MeterRegistry meterRegistry,
+                         @Value("${chat.sequencer.batch-size:100}") int batchSize,
+                         @Value("${chat.sequencer.idle-ms:60000}") long idleMs,
+                         @Value("${chat.sequencer.threads:8}") int threads,
+                         @Value("${chat.threads.virtual:false}") boolean virtualThreads) {
+        this.messageStore = messageStore;
+        this.messageIdGenerator = messageIdGenerator;
+        this.batchSize = batchSize;
+        this.idleMs = idleMs;
+        // a writer waits for the database, with virtual threads every active chat room can have its own
+        this.writerExecutor = virtualThreads
+                ? VirtualThreads.newThreadPerTaskExecutor("room-sequencer-")
+                : Executors.newFixedThreadPool(threads, runnable -> {
+                    Thread thread = new Thread(runnable, "room-sequencer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.batchSizes = DistributionSummary.builder("chat.sequencer.batch_size")
+                .description("messages saved in one batch by the room sequencer")
+                .register(meterRegistry);
+        Gauge.builder("chat.sequencer.active_rooms", mailboxes, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * give the message its number in the chat room and save it, after the messages that were appended before.
+     * @param message the new message, with its chat room
+     * @return the saved message
+     */
+    public Message append(Message message) {
+        CompletableFuture<Message> saved = new CompletableFuture<>();
+        Integer chatRoomId = message.getChatRoom().getId();
+        while (true) {
+            Mailbox mailbox = mailboxes.computeIfAbsent(chatRoomId, Mailbox::new);
+            synchronized (mailbox) {
+                if (mailbox.closed) {
+                    // removed as idle at the same moment, try again with a new mailbox
+                    continue;
+                }
+                mailbox.pending.add(new Pending(message, saved));
+                if (!mailbox.writing) {
+                    mailbox.writing = true;
+                    writerExecutor.execute(() -> write(mailbox));
+                }
+            }
+            break;
+        }
+        try {
+            return saved.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return how many chat rooms have a mailbox
+     */
+    public int getActiveRooms() {
+        return mailboxes.size();
+    }
+
+    /**
+     * remove the mailboxes of the chat rooms that are idle.
+     */
+    @Scheduled(fixedDelayString = "${chat.sequencer.idle-ms:60000}")
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        mailboxes.values().forEach(mailbox -> {
+            synchronized (mailbox) {
+                if (!mailbox.writing && mailbox.pending.isEmpty() && mailbox.lastActiveMs + idleMs <= now) {
+                    mailbox.closed = true;
+                    mailboxes.remove(mailbox.chatRoomId, mailbox);
+                }
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writerExecutor.shutdown();
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    /**
+     * the only writer of the mailbox, runs until the mailbox is empty.
+     */
+    private void write(Mailbox mailbox) {
+        while (true) {
+            List<Pending> batch = new ArrayList<>();
+            synchronized (mailbox) {
+                while (batch.size() < batchSize && !mailbox.pending.isEmpty()) {
+                    batch.add(mailbox.pending.poll());
+                }
+                if (batch.isEmpty()) {
+                    mailbox.writing = false;
+                    mailbox.lastActiveMs = System.currentTimeMillis();
+                    return;
+                }
+            }
+            save(mailbox, batch);
+        }
+    }
+
+    private void save(Mailbox mailbox, List<Pending> batch) {
+        try {
+            if (mailbox.lastSeq < 0) {
+                mailbox.lastSeq = messageStore.findMaxRoomSeq(mailbox.chatRoomId);
+            }
+            long seq = mailbox.lastSeq;
+            List<Message> messages = new ArrayList<>(batch.size());
+            for (Pending pending : batch) {
+                Message message = pending.message();
+                message.setId(messageIdGenerator.nextId());
+                message.setRoomSeq(++seq);
+                messages.add(message);
+            }
+            messageStore.saveAll(messages);
+            mailbox.lastSeq = seq;
+            batchSizes.record(batch.size());
+            batch.forEach(pending -> pending.saved().complete(pending.message()));
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "room sequencer: batch of chat room " + mailbox.chatRoomId + " failed", e);
+            // read again, another instance may have written to the chat room
+            mailbox.lastSeq = -1;
+            batch.forEach(pending -> {
+                pending.message().setRoomSeq(null);
+                pending.saved().completeExceptionally(e);
+            });
+        }
+    }
+
+    /**
+     * the messages of one chat room that wait to be saved, guarded by itself.
+     * lastSeq is only used by the writer, there is one writer at a time.
+     */
+    private static final class Mailbox {
+        private final Integer chatRoomId;
+        private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+        private boolean writing;
+        private boolean closed;
+        private long lastActiveMs = System.currentTimeMillis();
+        private volatile long lastSeq = -1;
+
+        private Mailbox(Integer chatRoomId) {
+            this.chatRoomId = chatRoomId;
+        }
+    }
+
+    private record Pending(Message message, CompletableFuture<Message> saved) {
+    }
+}
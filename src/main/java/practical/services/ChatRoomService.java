@@ -1,20 +1,41 @@
 package practical.services;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
 import lombok.RequiredArgsConstructor;
+import org.hibernate.Hibernate;
+import practical.cache.ResponseBytesCache;
 import practical.controller.ChatRoomApiController;
+import practical.events.EventBus;
 import practical.models.ChatRoom;
+import practical.models.event.MembershipChangedEvent;
+import practical.models.event.MessagesDeletedEvent;
+import practical.models.request.UserRequest;
+import practical.models.response.ChatRoomResponse;
+import practical.models.response.MembersResponse;
+import practical.models.response.UserResponse;
 import practical.repositories.ChatRoomRepository;
-import practical.repositories.MessageRepository;
+import practical.repositories.MessageStore;
+import practical.singleflight.SingleFlightRegistry;
 import practical.models.request.ChatRoomRequest;
 import practical.models.user.User;
 import jakarta.transaction.Transactional;
 import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -34,8 +55,31 @@ public class ChatRoomService {
 
     private final UserService userService;
 
-    private final MessageRepository messageRepository;
+    private final MessageStore messageStore;
 
+    private final EventBus eventBus;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final EntityManager entityManager;
+
+    private final SingleFlightRegistry singleFlights;
+
+    /**
+     * present when <code>chat.cache.response.enabled</code> is true.
+     */
+    private final Optional<ResponseBytesCache> responseCache;
+
+    private final ObjectMapper objectMapper;
+
+    @PostConstruct
+    public void init() {
+        eventBus.subscribe(chatEvent -> {
+            if (chatEvent instanceof MembershipChangedEvent event) {
+                singleFlights.forget(SingleFlightRegistry.CHAT_ROOM, event.chatRoomId());
+            }
+        });
+    }
 
     //==========================================================================
     //=============================== GET ======================================
@@ -76,6 +120,72 @@ public class ChatRoomService {
         return chatRoomRepository.findById(chatRoomId).orElse(null);
     }
 
+    /**
+     * return the chat-room with its members, ready to be sent.
+     * the same reads that come at the same time share one query (see {@link SingleFlightRegistry#CHAT_ROOM}).
+     * @param chatRoomId the id of the chat-room
+     * @return the chat-room response
+     */
+    public ChatRoomResponse getChatRoomResponseById(Integer chatRoomId) {
+        return singleFlights.execute(SingleFlightRegistry.CHAT_ROOM, chatRoomId, () -> {
+            ChatRoom chatRoom = getChatRoomById(chatRoomId);
+            if (chatRoom == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "ChatRoom not found");
+            }
+            return ChatRoomResponse.getFromChatRoom(chatRoom);
+        });
+    }
+
+    /**
+     * return the chat-room with its members as JSON, kept by the {@link ResponseBytesCache} when it is enabled.
+     * @param chatRoomId the id of the chat-room
+     * @return the JSON of the chat-room response
+     */
+    public byte[] getChatRoomJson(Integer chatRoomId) {
+        Supplier<byte[]> encoder = () -> {
+            try {
+                return objectMapper.writeValueAsBytes(getChatRoomResponseById(chatRoomId));
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+        return responseCache.isPresent()
+                ? responseCache.get().get(ResponseBytesCache.CHAT_ROOM, chatRoomId, "", encoder)
+                : encoder.get();
+    }
+
+    /**
+     * return one page of the members of a chat-room, in the order of the user ids
+     * (keyset pagination on the index of user_chat_room by chat_room_id, user_id).
+     * @param chatRoomId the id of the chat-room
+     * @param afterId only the users with a bigger id, 0 for the first page
+     * @param limit the size of the page
+     * @return the page, with the number of all the members
+     */
+    public MembersResponse getMembers(Integer chatRoomId, int afterId, int limit) {
+        Integer total = jdbcTemplate.queryForObject("select count(*) from user_chat_room where chat_room_id = ?",
+                Integer.class, chatRoomId);
+        if ((total == null || total == 0) && !chatRoomRepository.existsById(chatRoomId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "ChatRoom not found");
+        }
+        List<UserResponse> users = jdbcTemplate.query("""
+                select u.id, u.firstname, u.lastname, u.email
+                from user_chat_room ucr
+                join users u on u.id = ucr.user_id
+                where ucr.chat_room_id = ? and ucr.user_id > ?
+                order by ucr.user_id
+                limit ?
+                """, (resultSet, rowNum) -> {
+            UserResponse user = new UserResponse();
+            user.id = resultSet.getInt("id");
+            user.firstname = resultSet.getString("firstname");
+            user.lastname = resultSet.getString("lastname");
+            user.email = resultSet.getString("email");
+            return user;
+        }, chatRoomId, afterId, limit);
+        return MembersResponse.of(chatRoomId, total == null ? 0 : total, limit, users);
+    }
+
     /**
      * return list of users are not in any chat-room with specific user
      * @param user the user
@@ -158,6 +268,33 @@ public class ChatRoomService {
         return userService.addChatRoomToUser(user, chatRoom);
     }
 
+    /**
+     * this methode create a new chat-room with the users of the request as members.
+     * the users are found with one query and added with one batch, in one transaction.
+     * @param chatRoomRequest the chat-room with the emails of the users
+     * @return the chat-room
+     */
+    @Transactional
+    public ChatRoom createChatRoomWithUsers(ChatRoomRequest chatRoomRequest) {
+        ChatRoom chatRoom = createChatRoom(chatRoomRequest);
+        addUsers(chatRoom, emailsOf(chatRoomRequest.users));
+        return chatRoom;
+    }
+
+    /**
+     * this methode add many users to a chat-room, the users that are already in it are skipped.
+     * @param chatRoomId the id of the chat-room
+     * @param users the users to add (by email)
+     * @return the chat-room
+     */
+    @Transactional
+    public ChatRoom addUsersToChatRoom(Integer chatRoomId, UserRequest[] users) {
+        ChatRoom chatRoom = chatRoomRepository.findById(chatRoomId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "ChatRoom not found"));
+        addUsers(chatRoom, emailsOf(users));
+        return chatRoom;
+    }
+
 
     //==========================================================================
     //============================== DELETE ====================================
@@ -185,6 +322,33 @@ public class ChatRoomService {
         userService.removeChatRoomFromUser(user, chatRoom);
     }
 
+    /**
+     * delete many users from a chat-room, the users that are not in it are skipped.
+     * @param chatRoomId the id of the chat-room
+     * @param users the users to delete (by email)
+     * @return the chat-room
+     */
+    @Transactional
+    public ChatRoom deleteUsersFromChatRoom(Integer chatRoomId, UserRequest[] users) {
+        ChatRoom chatRoom = chatRoomRepository.findById(chatRoomId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "ChatRoom not found"));
+        Set<Integer> memberIds = getMemberIds(chatRoom);
+        List<User> removed = findUsers(emailsOf(users)).stream()
+                .filter(user -> memberIds.contains(user.getId()))
+                .toList();
+
+        jdbcTemplate.batchUpdate("delete from user_chat_room where user_id = ? and chat_room_id = ?",
+                removed.stream().map(user -> new Object[]{user.getId(), chatRoom.getId()}).toList());
+        if (Hibernate.isInitialized(chatRoom.getUsers())) {
+            removed.forEach(chatRoom.getUsers()::remove);
+        } else if (chatRoom.getMemberCount() != null) {
+            chatRoom.setMemberCount(chatRoom.getMemberCount() - removed.size());
+        }
+        refreshLoadedChatRooms(removed);
+        removed.forEach(user -> eventBus.publish(new MembershipChangedEvent(chatRoom.getId(), user.getId(), false)));
+        return chatRoom;
+    }
+
     /**
      * delete a chat-room by id
      * @param chatRoomId the id of the chat-room
@@ -196,14 +360,74 @@ public class ChatRoomService {
 
         List<Integer> userIds = chatRoom.getUsers().stream().map(User::getId).toList();
         userIds.forEach(userId -> deleteUserFromChatRoom(chatRoomId, userId));
-        messageRepository.deleteByChatRoomId(chatRoomId);
+        messageStore.deleteByChatRoomId(chatRoomId);
+        eventBus.publish(new MessagesDeletedEvent(chatRoomId, null));
         chatRoomRepository.deleteById(chatRoomId);
+        singleFlights.forget(SingleFlightRegistry.CHAT_ROOM, chatRoomId);
+        responseCache.ifPresent(cache -> cache.roomChanged(chatRoomId));
     }
 
     //==========================================================================
     //============================== HELPERS ====================================
     //==========================================================================
 
+    /**
+     * insert the join rows of the new members with one JDBC batch,
+     * instead of loading and saving the chat-room for every user.
+     */
+    private void addUsers(ChatRoom chatRoom, Collection<String> emails) {
+        Set<Integer> memberIds = getMemberIds(chatRoom);
+        List<User> added = findUsers(emails).stream()
+                .filter(user -> !memberIds.contains(user.getId()))
+                .toList();
+
+        jdbcTemplate.batchUpdate("insert into user_chat_room (user_id, chat_room_id) values (?, ?)",
+                added.stream().map(user -> new Object[]{user.getId(), chatRoom.getId()}).toList());
+        // users is the inverse side, changing it in memory doesn't write anything
+        if (Hibernate.isInitialized(chatRoom.getUsers())) {
+            chatRoom.getUsers().addAll(added);
+        } else if (chatRoom.getMemberCount() != null) {
+            chatRoom.setMemberCount(chatRoom.getMemberCount() + added.size());
+        }
+        refreshLoadedChatRooms(added);
+        added.forEach(user -> eventBus.publish(new MembershipChangedEvent(chatRoom.getId(), user.getId(), true)));
+    }
+
+    private Set<Integer> getMemberIds(ChatRoom chatRoom) {
+        // the join rows are read with JDBC, so the pending changes of hibernate must be written first
+        entityManager.flush();
+        return new HashSet<>(jdbcTemplate.queryForList(
+                "select user_id from user_chat_room where chat_room_id = ?", Integer.class, chatRoom.getId()));
+    }
+
+    private List<User> findUsers(Collection<String> emails) {
+        List<User> users = userService.getUsersByEmails(emails);
+        if (users.size() < emails.size()) {
+            Set<String> missing = new LinkedHashSet<>(emails);
+            users.forEach(user -> missing.remove(user.getEmail()));
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Users not found: " + missing);
+        }
+        return users;
+    }
+
+    /**
+     * the chat rooms of a user that are already loaded don't see the JDBC changes, so they are loaded again.
+     */
+    private void refreshLoadedChatRooms(List<User> users) {
+        users.stream()
+                .filter(user -> Hibernate.isInitialized(user.getChatRooms()))
+                .forEach(entityManager::refresh);
+    }
+
+    private Set<String> emailsOf(UserRequest[] users) {
+        if (users == null) {
+            return Set.of();
+        }
+        return Arrays.stream(users)
+                .map(user -> user.email)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
     private Set<User> convertIterableToSet(Iterable<User> usersIterable) {
         return StreamSupport.stream(usersIterable.spliterator(), false)
                 .collect(Collectors.toSet());
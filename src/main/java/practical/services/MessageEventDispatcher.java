@@ -0,0 +1,207 @@
+package practical.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import practical.controller.EventsApiController;
+import practical.events.EventBus;
+import practical.models.event.ChatEvent;
+import practical.models.event.MessageCreatedEvent;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * <h1>Message Event Dispatcher</h1>
+ * <p>
+ *     This class fans out new messages to the Server-Sent Events streams of the users.
+ *     Every user has one stream that carries the messages of all the chat rooms the user is in.
+ *     It is used by the {@link EventsApiController} class and fed by the {@link EventBus},
+ *     so the messages created on the other instances are streamed as well.
+ * </p>
+ * <p>
+ *     The last events are kept in a bounded buffer, so a client that reconnects with
+ *     the <code>Last-Event-ID</code> header gets the events it missed (as long as they are still in the buffer).
+ * </p>
+ */
+@Service
+public class MessageEventDispatcher {
+    private static final Logger logger = Logger.getLogger(MessageEventDispatcher.class.getName());
+
+    private final EventBus eventBus;
+
+    private final PresenceService presenceService;
+
+    private final long emitterTimeout;
+
+    private final int replayBufferSize;
+
+    private final Map<Integer, Set<Subscription>> subscriptionsByUser = new ConcurrentHashMap<>();
+
+    /**
+     * the last events, guarded by itself.
+     * subscribe and publish both lock it, so an event is either replayed or sent live, never both:
+     * the events published before a stream was opened are only replayed, see {@link #publishedCount}.
+     */
+    private final Deque<MessageCreatedEvent> replayBuffer = new ArrayDeque<>();
+
+    /**
+     * how many events were published, guarded by {@link #replayBuffer}. a stream remembers it when it is opened,
+     * the fan-out skips the events up to it (they were buffered before, the stream replayed them if it wanted them).
+     */
+    private long publishedCount;
+
+    /**
+     * single thread, so the events are delivered in the same order they are published
+     * and a slow client never blocks the event bus.
+     */
+    private final ExecutorService fanOutExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "message-event-fan-out");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public MessageEventDispatcher(EventBus eventBus,
+                                  PresenceService presenceService,
+                                  @Value("${chat.events.emitter-timeout-ms:1800000}") long emitterTimeout,
+                                  @Value("${chat.events.replay-buffer-size:1024}") int replayBufferSize) {
+        this.emitterTimeout = emitterTimeout;
+        this.replayBufferSize = replayBufferSize;
+        this.eventBus = eventBus;
+        this.presenceService = presenceService;
+    }
+
+    @PostConstruct
+    public void init() {
+        eventBus.subscribe(this::onEvent);
+    }
+
+    //==========================================================================
+    //============================= SUBSCRIBE ==================================
+    //==========================================================================
+
+    /**
+     * open a new stream for the user and replay the events that were missed.
+     * @param userId the id of the user
+     * @param lastEventId the id of the last event the client received, or null for a new stream
+     * @return the emitter of the stream
+     */
+    public SseEmitter subscribe(Integer userId, Long lastEventId) {
+        SseEmitter emitter = new SseEmitter(emitterTimeout);
+        emitter.onCompletion(() -> removeEmitter(userId, emitter));
+        emitter.onTimeout(() -> removeEmitter(userId, emitter));
+        emitter.onError(e -> removeEmitter(userId, emitter));
+
+        synchronized (replayBuffer) {
+            subscriptionsByUser.computeIfAbsent(userId, id -> new CopyOnWriteArraySet<>())
+                    .add(new Subscription(emitter, publishedCount));
+            if (lastEventId != null) {
+                // the emitter is not returned yet, so these sends are only buffered in memory.
+                replayBuffer.stream()
+                        .filter(event -> event.id() > lastEventId && event.isFor(userId))
+                        .forEach(event -> send(userId, emitter, event));
+            }
+        }
+        presenceService.connected(userId);
+        return emitter;
+    }
+
+    //==========================================================================
+    //=============================== EVENTS ===================================
+    //==========================================================================
+
+    /**
+     * keep the new messages in the replay buffer and send them to the members of the chat room.
+     * @param chatEvent the event from the bus
+     */
+    private void onEvent(ChatEvent chatEvent) {
+        if (!(chatEvent instanceof MessageCreatedEvent event)) {
+            return;
+        }
+        long sequence;
+        synchronized (replayBuffer) {
+            sequence = ++publishedCount;
+            replayBuffer.addLast(event);
+            if (replayBuffer.size() > replayBufferSize) {
+                replayBuffer.removeFirst();
+            }
+        }
+        fanOutExecutor.execute(() -> deliver(event, sequence));
+    }
+
+    /**
+     * @return the number of open streams
+     */
+    public int getOpenStreamsCount() {
+        return subscriptionsByUser.values().stream().mapToInt(Set::size).sum();
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private void deliver(MessageCreatedEvent event, long sequence) {
+        for (Integer userId : event.recipientIds()) {
+            Set<Subscription> subscriptions = subscriptionsByUser.get(userId);
+            if (subscriptions != null) {
+                subscriptions.stream()
+                        .filter(subscription -> subscription.publishedBefore() < sequence)
+                        .forEach(subscription -> send(userId, subscription.emitter(), event));
+            }
+        }
+    }
+
+    private void send(Integer userId, SseEmitter emitter, MessageCreatedEvent event) {
+        try {
+            emitter.send(SseEmitter.event()
+                    .id(String.valueOf(event.id()))
+                    .name("message")
+                    .data(event.message()));
+        } catch (IOException | IllegalStateException e) {
+            logger.fine("dropping stream of user " + userId + ": " + e.getMessage());
+            removeEmitter(userId, emitter);
+        }
+    }
+
+    private void removeEmitter(Integer userId, SseEmitter emitter) {
+        boolean[] removed = {false};
+        subscriptionsByUser.computeIfPresent(userId, (id, subscriptions) -> {
+            removed[0] = subscriptions.removeIf(subscription -> subscription.emitter() == emitter);
+            return subscriptions.isEmpty() ? null : subscriptions;
+        });
+        if (removed[0]) {
+            presenceService.disconnected(userId);
+        }
+    }
+
+    /**
+     * close all the open streams when the application stops.
+     */
+    @PreDestroy
+    public void shutdown() {
+        fanOutExecutor.shutdown();
+        subscriptionsByUser.values().stream()
+                .flatMap(Set::stream)
+                .toList()
+                .forEach(subscription -> subscription.emitter().complete());
+        subscriptionsByUser.clear();
+    }
+
+    /**
+     * an open stream of a user.
+     * @param emitter the emitter of the stream
+     * @param publishedBefore how many events were published when the stream was opened
+     */
+    private record Subscription(SseEmitter emitter, long publishedBefore) {
+    }
+}
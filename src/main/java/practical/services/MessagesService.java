@@ -1,13 +1,34 @@
 package practical.services;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
+import practical.cache.RecentMessagesCache;
+import practical.cache.ResponseBytesCache;
 import practical.controller.MessagesApiController;
+import practical.events.EventBus;
+import practical.ids.MessageIdGenerator;
 import practical.models.Message;
-import practical.repositories.MessageRepository;
+import practical.models.event.ChatEvent;
+import practical.models.event.MessageCreatedEvent;
+import practical.models.event.MessagesDeletedEvent;
+import practical.models.response.MessageResponse;
+import practical.repositories.MessageStore;
+import practical.sequencer.RoomSequencer;
+import practical.singleflight.SingleFlightRegistry;
 import practical.models.request.MessageRequest;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.beans.Transient;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
 
 /**
  * <h1>Messages Service</h1>
@@ -15,17 +36,46 @@ import java.beans.Transient;
  *     This class is responsible for handling all the logic related to the Message model.
  *     It is used by the {@link MessagesApiController} class.
  * </p>
- * @see MessageRepository
+ * @see MessageStore
  */
 @Service
 @RequiredArgsConstructor
 public class MessagesService {
-    private final MessageRepository messagesRepository;
+    private final MessageStore messageStore;
 
     private final ChatRoomService chatRoomService;
 
     private final UserService userService;
 
+    private final EventBus eventBus;
+
+    private final MessageIdGenerator messageIdGenerator;
+
+    /**
+     * present when <code>chat.sequencer.enabled</code> is true.
+     */
+    private final Optional<RoomSequencer> roomSequencer;
+
+    /**
+     * present when <code>chat.cache.recent.enabled</code> is true.
+     */
+    private final Optional<RecentMessagesCache> recentMessagesCache;
+
+    private final ObjectMapper objectMapper;
+
+    private final SingleFlightRegistry singleFlights;
+
+    /**
+     * present when <code>chat.cache.response.enabled</code> is true.
+     */
+    private final Optional<ResponseBytesCache> responseCache;
+
+    @PostConstruct
+    public void init() {
+        // the messages created and deleted by the other instances
+        eventBus.subscribe(this::onEvent);
+    }
+
 
     //==========================================================================
     //=============================== GET ======================================
@@ -36,7 +86,7 @@ public class MessagesService {
      * @return An {@link Iterable} of {@link Message} objects.
      */
     public Iterable<Message> getAllMessages() {
-        return messagesRepository.findAll();
+        return messageStore.findAll();
     }
 
     /**
@@ -45,7 +95,7 @@ public class MessagesService {
      * @return An {@link Iterable} of {@link Message} objects.
      */
     public Iterable<Message> getMessagesByChatRoomId(Integer chatRoomId) {
-        return messagesRepository.findByChatRoomId(chatRoomId);
+        return messageStore.findByChatRoomId(chatRoomId);
     }
 
     /**
@@ -54,7 +104,88 @@ public class MessagesService {
      * @return one Message.
      */
     public Message getLastMessageInChatRoom(Integer chatRoomId) {
-        return messagesRepository.findFirstByChatRoomIdOrderByTimestampDesc(chatRoomId);
+        return messageStore.findLastByChatRoomId(chatRoomId);
+    }
+
+    /**
+     * This method returns the last message of the chat room, read straight as a response when the store can.
+     * @param chatRoomId The id of the chat room.
+     * @return the message.
+     */
+    public MessageResponse getLastMessageResponse(Integer chatRoomId) {
+        MessageResponse message = messageStore.findLastResponseByChatRoomId(chatRoomId);
+        if (message == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No message in the chat room");
+        }
+        return message;
+    }
+
+    /**
+     * This method returns the latest messages of the chat room, read straight as responses when the store can.
+     * @param chatRoomId The id of the chat room.
+     * @param limit how many messages.
+     * @return the messages, the oldest first.
+     */
+    public List<MessageResponse> getLatestMessageResponses(Integer chatRoomId, int limit) {
+        return messageStore.findLatestResponsesByChatRoomId(chatRoomId, limit);
+    }
+
+    /**
+     * This method returns one page of the messages of the chat room, read straight as responses when the store can.
+     * @param chatRoomId The id of the chat room.
+     * @param afterId only the messages after this id, 0 for the first page.
+     * @param limit the size of the page.
+     * @return the messages, the oldest first.
+     */
+    public List<MessageResponse> getMessagesPageResponses(Integer chatRoomId, long afterId, int limit) {
+        return messageStore.findPageResponsesByChatRoomId(chatRoomId, afterId, limit);
+    }
+
+    /**
+     * This method returns the last message of the chat room as JSON,
+     * from the {@link RecentMessagesCache} when it is enabled.
+     * the same reads that come at the same time share one read (see {@link SingleFlightRegistry#LAST_MESSAGE}).
+     * @param chatRoomId The id of the chat room.
+     * @return the JSON of the {@link MessageResponse}.
+     */
+    public byte[] getLastMessageJson(Integer chatRoomId) {
+        byte[] json = singleFlights.execute(SingleFlightRegistry.LAST_MESSAGE, chatRoomId, () -> recentMessagesCache.isPresent()
+                ? recentMessagesCache.get().getLastJson(chatRoomId)
+                : lastMessageJson(chatRoomId));
+        if (json == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No message in the chat room");
+        }
+        return json;
+    }
+
+    /**
+     * This method returns the latest messages of the chat room as a JSON array,
+     * from the {@link RecentMessagesCache} when it is enabled and keeps that many messages,
+     * and kept by the {@link ResponseBytesCache} when it is enabled.
+     * @param chatRoomId The id of the chat room.
+     * @param limit how many messages.
+     * @return the JSON array of {@link MessageResponse}, the oldest first.
+     */
+    public byte[] getLatestMessagesJson(Integer chatRoomId, int limit) {
+        return encode(ResponseBytesCache.RECENT_MESSAGES, chatRoomId, limit, () -> {
+            if (recentMessagesCache.isPresent() && limit <= recentMessagesCache.get().getCapacity()) {
+                return recentMessagesCache.get().getLatestJson(chatRoomId, limit);
+            }
+            return toJson(getLatestMessageResponses(chatRoomId, limit));
+        });
+    }
+
+    /**
+     * This method returns one page of the messages of the chat room as a JSON array,
+     * the first page is kept by the {@link ResponseBytesCache} when it is enabled.
+     * @param chatRoomId The id of the chat room.
+     * @param afterId only the messages after this id, 0 for the first page.
+     * @param limit the size of the page.
+     * @return the JSON array of {@link MessageResponse}, the oldest first.
+     */
+    public byte[] getMessagesPageJson(Integer chatRoomId, long afterId, int limit) {
+        Supplier<byte[]> encoder = () -> toJson(getMessagesPageResponses(chatRoomId, afterId, limit));
+        return afterId == 0 ? encode(ResponseBytesCache.FIRST_PAGE, chatRoomId, limit, encoder) : encoder.get();
     }
 
     /**
@@ -62,8 +193,8 @@ public class MessagesService {
      * @param messageId The id of the message.
      * @return one Message.
      */
-    public Message getMessageById(Integer messageId) {
-        return messagesRepository.findById(messageId).orElse(null);
+    public Message getMessageById(Long messageId) {
+        return messageStore.findById(messageId).orElse(null);
     }
 
     //==========================================================================
@@ -72,6 +203,9 @@ public class MessagesService {
 
     /**
      * This method creates a new message in the database.
+     * the id and the timestamp are given by the server, the timestamp of the client is only kept.
+     * with the {@link RoomSequencer} the message also gets its number in the chat room, and is saved in a batch
+     * with the other messages of the chat room.
      * @param message The message to be created.
      * @return the created message.
      */
@@ -85,11 +219,22 @@ public class MessagesService {
         }
 
         Message newMessage = new Message();
+        newMessage.setId(messageIdGenerator.nextId());
         newMessage.setText(message.text);
-        newMessage.setTimestamp(message.timestamp);
+        // the precision of the database, the message reads the same from the caches and from the database
+        newMessage.setTimestamp(LocalDateTime.now().truncatedTo(ChronoUnit.MICROS));
+        newMessage.setClientTimestamp(message.timestamp);
         newMessage.setChatRoom(chatRoom);
         newMessage.setUser(user);
-        return messagesRepository.save(newMessage);
+        Message savedMessage = roomSequencer.isPresent()
+                ? roomSequencer.get().append(newMessage)
+                : messageStore.save(newMessage);
+        MessageCreatedEvent event = MessageCreatedEvent.of(savedMessage);
+        recentMessagesCache.ifPresent(cache -> cache.put(event));
+        singleFlights.forget(SingleFlightRegistry.LAST_MESSAGE, event.chatRoomId());
+        responseCache.ifPresent(cache -> cache.roomChanged(event.chatRoomId()));
+        eventBus.publish(event);
+        return savedMessage;
     }
 
     //==========================================================================
@@ -100,8 +245,16 @@ public class MessagesService {
      * This method deletes the message with the given id.
      * @param messageId The id of the message to be deleted.
      */
-    public void deleteMessageById(Integer messageId) {
-        messagesRepository.deleteById(messageId);
+    public void deleteMessageById(Long messageId) {
+        Message message = messageStore.findById(messageId).orElse(null);
+        messageStore.deleteById(messageId);
+        if (message != null) {
+            Integer chatRoomId = message.getChatRoom().getId();
+            recentMessagesCache.ifPresent(cache -> cache.invalidate(chatRoomId));
+            singleFlights.forget(SingleFlightRegistry.LAST_MESSAGE, chatRoomId);
+            responseCache.ifPresent(cache -> cache.roomChanged(chatRoomId));
+            eventBus.publish(new MessagesDeletedEvent(chatRoomId, messageId));
+        }
     }
 
     /**
@@ -109,7 +262,40 @@ public class MessagesService {
      * @param chatRoomId The id of the chat room.
      */
     public void deleteMessagesByChatRoomId(Integer chatRoomId) {
-        messagesRepository.deleteByChatRoomId(chatRoomId);
+        messageStore.deleteByChatRoomId(chatRoomId);
+        recentMessagesCache.ifPresent(cache -> cache.invalidate(chatRoomId));
+        singleFlights.forget(SingleFlightRegistry.LAST_MESSAGE, chatRoomId);
+        responseCache.ifPresent(cache -> cache.roomChanged(chatRoomId));
+        eventBus.publish(new MessagesDeletedEvent(chatRoomId, null));
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private byte[] lastMessageJson(Integer chatRoomId) {
+        MessageResponse message = messageStore.findLastResponseByChatRoomId(chatRoomId);
+        return message == null ? null : toJson(message);
+    }
+
+    private byte[] encode(String endpoint, Integer chatRoomId, Object variant, Supplier<byte[]> encoder) {
+        return responseCache.isPresent()
+                ? responseCache.get().get(endpoint, chatRoomId, variant, encoder)
+                : encoder.get();
+    }
+
+    private byte[] toJson(Object response) {
+        try {
+            return objectMapper.writeValueAsBytes(response);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void onEvent(ChatEvent chatEvent) {
+        if (chatEvent instanceof MessageCreatedEvent || chatEvent instanceof MessagesDeletedEvent) {
+            singleFlights.forget(SingleFlightRegistry.LAST_MESSAGE, chatEvent.chatRoomId());
+        }
     }
 
 }
@@ -0,0 +1,266 @@
+package practical.services;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import practical.controller.PresenceApiController;
+import practical.events.EventBus;
+import practical.models.ChatRoom;
+import practical.models.event.ChatEvent;
+import practical.models.event.MembershipChangedEvent;
+import practical.repositories.ChatRoomRepository;
+import practical.util.TimerWheel;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * <h1>Presence Service</h1>
+ * <p>
+ *     This class keeps in memory who is online in every chat room.
+ *     a user is online while the user has an open event stream, and for <code>chat.presence.ttl-ms</code> after the last heartbeat.
+ *     It is used by the {@link PresenceApiController} class.
+ * </p>
+ * <p>
+ *     the online users of every chat room are kept in a concurrent set, so the queries don't touch the database
+ *     and don't take any lock. the chat rooms of a user are read from the database once, when the user comes online,
+ *     and then kept up to date by the {@link MembershipChangedEvent}s (read again after a bulk import).
+ *     the users that stopped sending heartbeats are expired by one {@link TimerWheel}, not by a task per user.
+ * </p>
+ */
+@Service
+public class PresenceService {
+
+    private final ChatRoomRepository chatRoomRepository;
+
+    private final EventBus eventBus;
+
+    private final long ttlMs;
+
+    private final TimerWheel<Integer> expirations;
+
+    private final Map<Integer, UserPresence> onlineUsers = new ConcurrentHashMap<>();
+
+    private final Map<Integer, Set<Integer>> onlineByChatRoom = new ConcurrentHashMap<>();
+
+    public PresenceService(ChatRoomRepository chatRoomRepository,
+                           EventBus eventBus,
+                           @Value("${chat.presence.ttl-ms:60000}") long ttlMs,
+                           @Value("${chat.presence.tick-ms:1000}") long tickMs) {
+        this.chatRoomRepository = chatRoomRepository;
+        this.eventBus = eventBus;
+        this.ttlMs = ttlMs;
+        this.expirations = new TimerWheel<>(tickMs, (int) Math.max(16, 2 * ttlMs / tickMs), System.currentTimeMillis());
+    }
+
+    @PostConstruct
+    public void init() {
+        eventBus.subscribe(this::onEvent);
+    }
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    /**
+     * @param chatRoomId the id of the chat room
+     * @return the ids of the online users in the chat room
+     */
+    public Set<Integer> getOnlineMembers(Integer chatRoomId) {
+        Set<Integer> members = onlineByChatRoom.get(chatRoomId);
+        return members == null ? Set.of() : Set.copyOf(members);
+    }
+
+    /**
+     * @param chatRoomId the id of the chat room
+     * @return how many users are online in the chat room
+     */
+    public int getOnlineCount(Integer chatRoomId) {
+        Set<Integer> members = onlineByChatRoom.get(chatRoomId);
+        return members == null ? 0 : members.size();
+    }
+
+    /**
+     * the online count of every chat room the user is in.
+     * the user must be online, for an offline user the map is empty.
+     * @param userId the id of the user
+     * @return map of chat room id to the online count
+     */
+    public Map<Integer, Integer> getOnlineCountsForUser(Integer userId) {
+        UserPresence presence = onlineUsers.get(userId);
+        if (presence == null) {
+            return Collections.emptyMap();
+        }
+        Map<Integer, Integer> counts = new HashMap<>();
+        presence.chatRoomIds.forEach(chatRoomId -> counts.put(chatRoomId, getOnlineCount(chatRoomId)));
+        return counts;
+    }
+
+    /**
+     * @param userId the id of the user
+     * @return true if the user is online
+     */
+    public boolean isOnline(Integer userId) {
+        return onlineUsers.containsKey(userId);
+    }
+
+    //==========================================================================
+    //============================== UPDATE ====================================
+    //==========================================================================
+
+    /**
+     * the user is still here.
+     * @param userId the id of the user
+     */
+    public void heartbeat(Integer userId) {
+        touch(userId, 0);
+    }
+
+    /**
+     * the user opened an event stream, the user stays online until it is closed.
+     * @param userId the id of the user
+     */
+    public void connected(Integer userId) {
+        touch(userId, 1);
+    }
+
+    /**
+     * the user closed an event stream, the user stays online for the ttl (in case of a reconnect).
+     * @param userId the id of the user
+     */
+    public void disconnected(Integer userId) {
+        touch(userId, -1);
+    }
+
+    /**
+     * expire the users that are gone, called every tick.
+     */
+    @Scheduled(fixedRateString = "${chat.presence.tick-ms:1000}")
+    public void tick() {
+        long now = System.currentTimeMillis();
+        expirations.advance(now, userId -> {
+            UserPresence presence = onlineUsers.get(userId);
+            if (presence == null) {
+                return;
+            }
+            synchronized (presence) {
+                if (presence.connections > 0 || presence.lastSeenMs + ttlMs > now) {
+                    expirations.schedule(userId, Math.max(presence.lastSeenMs, now) + ttlMs);
+                    return;
+                }
+                presence.offline = true;
+                onlineUsers.remove(userId, presence);
+                presence.chatRoomIds.forEach(chatRoomId -> leave(chatRoomId, userId));
+            }
+        });
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private void touch(Integer userId, int connectionsDelta) {
+        long now = System.currentTimeMillis();
+        while (true) {
+            UserPresence presence = onlineUsers.get(userId);
+            if (presence == null) {
+                presence = comeOnline(userId, now);
+            }
+            synchronized (presence) {
+                if (presence.offline) {
+                    // expired at the same moment, try again with a new presence
+                    continue;
+                }
+                presence.lastSeenMs = now;
+                presence.connections = Math.max(0, presence.connections + connectionsDelta);
+                return;
+            }
+        }
+    }
+
+    private UserPresence comeOnline(Integer userId, long now) {
+        Set<Integer> chatRoomIds = chatRoomRepository.findByUsers_Id(userId).stream()
+                .map(ChatRoom::getId)
+                .collect(Collectors.toCollection(ConcurrentHashMap::newKeySet));
+        UserPresence presence = new UserPresence(chatRoomIds);
+        UserPresence existing = onlineUsers.putIfAbsent(userId, presence);
+        if (existing != null) {
+            return existing;
+        }
+        chatRoomIds.forEach(chatRoomId -> onlineByChatRoom.computeIfAbsent(chatRoomId, id -> ConcurrentHashMap.newKeySet()).add(userId));
+        expirations.schedule(userId, now + ttlMs);
+        return presence;
+    }
+
+    private void leave(Integer chatRoomId, Integer userId) {
+        onlineByChatRoom.computeIfPresent(chatRoomId, (id, members) -> {
+            members.remove(userId);
+            return members.isEmpty() ? null : members;
+        });
+    }
+
+    private void onEvent(ChatEvent chatEvent) {
+        if (!(chatEvent instanceof MembershipChangedEvent event)) {
+            return;
+        }
+        if (event.chatRoomId() == null) {
+            // the memberships of several chat rooms, read again outside of the bus thread
+            CompletableFuture.runAsync(this::reloadChatRooms);
+            return;
+        }
+        UserPresence presence = onlineUsers.get(event.userId());
+        if (presence == null) {
+            return;
+        }
+        synchronized (presence) {
+            if (presence.offline) {
+                return;
+            }
+            if (event.joined()) {
+                presence.chatRoomIds.add(event.chatRoomId());
+                onlineByChatRoom.computeIfAbsent(event.chatRoomId(), id -> ConcurrentHashMap.newKeySet()).add(event.userId());
+            } else {
+                presence.chatRoomIds.remove(event.chatRoomId());
+                leave(event.chatRoomId(), event.userId());
+            }
+        }
+    }
+
+    /**
+     * read again the chat rooms of the online users, after the memberships were added in bulk.
+     */
+    private void reloadChatRooms() {
+        onlineUsers.forEach((userId, presence) -> {
+            List<Integer> chatRoomIds = chatRoomRepository.findByUsers_Id(userId).stream().map(ChatRoom::getId).toList();
+            synchronized (presence) {
+                if (presence.offline) {
+                    return;
+                }
+                chatRoomIds.stream()
+                        .filter(presence.chatRoomIds::add)
+                        .forEach(chatRoomId -> onlineByChatRoom.computeIfAbsent(chatRoomId, id -> ConcurrentHashMap.newKeySet()).add(userId));
+            }
+        });
+    }
+
+    /**
+     * the state of one online user, guarded by itself.
+     */
+    private static final class UserPresence {
+        private final Set<Integer> chatRoomIds;
+        private long lastSeenMs;
+        private int connections;
+        private boolean offline;
+
+        private UserPresence(Set<Integer> chatRoomIds) {
+            this.chatRoomIds = chatRoomIds;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package practical.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import practical.controller.UsersApiController;
+import practical.events.EventBus;
+import practical.models.event.ChatEvent;
+import practical.models.event.UserChangedEvent;
+import practical.models.response.UserResponse;
+import practical.models.response.UserSearchResponse;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * <h1>User Search Service</h1>
+ * <p>
+ *     This class keeps an in-memory directory of the users to find them by the beginning of their
+ *     first name, last name or email (typeahead). It is used by the {@link UsersApiController} class.
+ * </p>
+ * <p>
+ *     every word of the names and the whole email are kept in lower case in one sorted map,
+ *     so the words with a prefix are one range of the map. the directory is read from the database
+ *     when the application is ready, and then kept up to date by the {@link UserChangedEvent}s
+ *     (read again from the database after a bulk import).
+ *     only the public fields of the users are kept, never the password.
+ * </p>
+ * <p>
+ *     the results are ranked: a word of the name equal to the prefix, then a word of the name starting with it,
+ *     then an email starting with it, and then by last name and first name.
+ * </p>
+ */
+@Service
+public class UserSearchService {
+
+    private static final int RANK_EXACT_NAME = 0;
+
+    private static final int RANK_NAME = 1;
+
+    private static final int RANK_EMAIL = 2;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final EventBus eventBus;
+
+    private final Map<Integer, DirectoryEntry> users = new ConcurrentHashMap<>();
+
+    /**
+     * the key is the word, a null character and the id of the user, the value is the user and where the word comes from.
+     */
+    private final NavigableMap<String, Posting> words = new ConcurrentSkipListMap<>();
+
+    public UserSearchService(JdbcTemplate jdbcTemplate, EventBus eventBus, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.eventBus = eventBus;
+        Gauge.builder("chat.users.indexed", users, Map::size).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void init() {
+        eventBus.subscribe(this::onEvent);
+    }
+
+    /**
+     * read all the users, once the schema and the first users are there.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        jdbcTemplate.query("select id, firstname, lastname, email from users", resultSet -> {
+            put(new DirectoryEntry(resultSet.getInt("id"), resultSet.getString("firstname"),
+                    resultSet.getString("lastname"), resultSet.getString("email")));
+        });
+    }
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    /**
+     * find the users by the beginning of their names or email.
+     * with several words, every word must be the beginning of one of the names or of the email.
+     * @param query the beginning of the names or email, not blank
+     * @param page the number of the page, from 0
+     * @param size the size of the page
+     * @return the page of the users, the best match first
+     */
+    public UserSearchResponse search(String query, int page, int size) {
+        String[] prefixes = query == null ? new String[0] : normalize(query).split("\\s+");
+        if (prefixes.length == 0 || prefixes[0].isEmpty()) {
+            throw new IllegalArgumentException("the prefix must not be blank");
+        }
+
+        // the best rank of every user that has a word starting with the first prefix
+        Map<Integer, Integer> ranks = new HashMap<>();
+        for (Posting posting : words.subMap(prefixes[0], true, prefixes[0] + Character.MAX_VALUE, false).values()) {
+            int rank = posting.rank() == RANK_NAME && posting.word().equals(prefixes[0]) ? RANK_EXACT_NAME : posting.rank();
+            ranks.merge(posting.userId(), rank, Math::min);
+        }
+
+        List<Ranked> matches = new ArrayList<>();
+        ranks.forEach((userId, rank) -> {
+            DirectoryEntry entry = users.get(userId);
+            if (entry != null && entry.matchesAll(prefixes)) {
+                matches.add(new Ranked(entry, rank));
+            }
+        });
+        matches.sort(Comparator.comparingInt(Ranked::rank)
+                .thenComparing(ranked -> normalize(ranked.entry().lastname()))
+                .thenComparing(ranked -> normalize(ranked.entry().firstname()))
+                .thenComparingInt(ranked -> ranked.entry().id()));
+
+        int from = (int) Math.min((long) page * size, matches.size());
+        int to = Math.min(from + size, matches.size());
+        return UserSearchResponse.of(query, page, size, matches.size(), matches.subList(from, to).stream()
+                .map(ranked -> ranked.entry().toResponse())
+                .toList());
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private void onEvent(ChatEvent chatEvent) {
+        if (!(chatEvent instanceof UserChangedEvent event)) {
+            return;
+        }
+        if (event.userId() == null) {
+            // several users, read again outside of the bus thread
+            CompletableFuture.runAsync(this::load);
+        } else if (event.deleted()) {
+            remove(event.userId());
+        } else {
+            put(new DirectoryEntry(event.userId(), event.firstname(), event.lastname(), event.email()));
+        }
+    }
+
+    private synchronized void put(DirectoryEntry entry) {
+        remove(entry.id());
+        users.put(entry.id(), entry);
+        entry.postings().forEach(posting -> words.merge(key(posting.word(), entry.id()), posting,
+                (existing, added) -> existing.rank() <= added.rank() ? existing : added));
+    }
+
+    private synchronized void remove(Integer userId) {
+        DirectoryEntry entry = users.remove(userId);
+        if (entry != null) {
+            entry.postings().forEach(posting -> words.remove(key(posting.word(), userId)));
+        }
+    }
+
+    private static String key(String word, Integer userId) {
+        return word + '\0' + userId;
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * the public fields of one user.
+     */
+    private record DirectoryEntry(Integer id, String firstname, String lastname, String email) {
+
+        private List<Posting> postings() {
+            List<Posting> postings = new ArrayList<>();
+            for (String name : new String[]{firstname, lastname}) {
+                for (String word : normalize(name).split("\\s+")) {
+                    if (!word.isEmpty()) {
+                        postings.add(new Posting(id, word, RANK_NAME));
+                    }
+                }
+            }
+            if (!normalize(email).isEmpty()) {
+                postings.add(new Posting(id, normalize(email), RANK_EMAIL));
+            }
+            return postings;
+        }
+
+        private boolean matchesAll(String[] prefixes) {
+            List<Posting> postings = postings();
+            for (String prefix : prefixes) {
+                if (postings.stream().noneMatch(posting -> posting.word().startsWith(prefix))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private UserResponse toResponse() {
+            UserResponse response = new UserResponse();
+            response.id = id;
+            response.firstname = firstname;
+            response.lastname = lastname;
+            response.email = email;
+            return response;
+        }
+    }
+
+    private record Posting(Integer userId, String word, int rank) {
+    }
+
+    private record Ranked(DirectoryEntry entry, int rank) {
+    }
+}
@@ -2,15 +2,20 @@ package practical.services;
 
 import lombok.RequiredArgsConstructor;
 import practical.controller.UsersApiController;
+import practical.events.EventBus;
 import practical.models.ChatRoom;
+import practical.models.event.MembershipChangedEvent;
+import practical.models.event.MessagesDeletedEvent;
+import practical.models.event.UserChangedEvent;
 import practical.repositories.ChatRoomRepository;
-import practical.repositories.MessageRepository;
+import practical.repositories.MessageStore;
 import practical.repositories.UserRepository;
 import practical.models.user.Role;
 import practical.models.user.User;
 import jakarta.transaction.Transactional;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -32,8 +37,9 @@ public class UserService {
 
     private final ChatRoomRepository chatRoomRepository;
 
-    private final MessageRepository messageRepository;
+    private final MessageStore messageStore;
 
+    private final EventBus eventBus;
 
     //==========================================================================
     //=============================== GET ======================================
@@ -56,6 +62,19 @@ public class UserService {
         return userRepository.findByEmail(email).orElse(null);
     }
 
+    /**
+     * return the users with the given emails, in one query.
+     * the emails that don't belong to any user are ignored.
+     * @param emails the emails of the users.
+     * @return the users.
+     */
+    public List<User> getUsersByEmails(Collection<String> emails) {
+        if (emails.isEmpty()) {
+            return List.of();
+        }
+        return userRepository.findByEmailIn(emails);
+    }
+
     /**
      * This method returns all the users in the database except the one with the given id.
      * @param userId The id of the user to be excluded.
@@ -75,7 +94,9 @@ public class UserService {
      * @return The created user.
      */
     public User save(User user) {
-        return userRepository.save(user);
+        User savedUser = userRepository.save(user);
+        eventBus.publish(UserChangedEvent.of(savedUser));
+        return savedUser;
     }
 
     /**
@@ -87,7 +108,9 @@ public class UserService {
     @Transactional
     public ChatRoom addChatRoomToUser(User user, ChatRoom chatRoom) {
         user.addChatRoom(chatRoom);
-        return chatRoomRepository.save(chatRoom);
+        ChatRoom savedChatRoom = chatRoomRepository.save(chatRoom);
+        eventBus.publish(new MembershipChangedEvent(chatRoom.getId(), user.getId(), true));
+        return savedChatRoom;
     }
 
     //==========================================================================
@@ -103,6 +126,7 @@ public class UserService {
     public void removeChatRoomFromUser(User user, ChatRoom chatRoom) {
         user.removeChatRoom(chatRoom);
         chatRoomRepository.save(chatRoom);
+        eventBus.publish(new MembershipChangedEvent(chatRoom.getId(), user.getId(), false));
     }
 
     /**
@@ -169,7 +193,9 @@ public class UserService {
             removeChatRoomFromUser(user, chatRoom);
         }
 
-        messageRepository.deleteAllByUser_Id(user.getId());
+        messageStore.deleteAllByUserId(user.getId());
+        eventBus.publish(new MessagesDeletedEvent(null, null));
+        eventBus.publish(UserChangedEvent.deleted(user.getId()));
     }
 
     /**
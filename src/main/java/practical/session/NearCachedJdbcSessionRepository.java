@@ -0,0 +1,467 @@
+package practical.session;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.serializer.support.DeserializingConverter;
+import org.springframework.core.serializer.support.SerializingConverter;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.DatabasePopulatorUtils;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.session.FindByIndexNameSessionRepository;
+import org.springframework.session.MapSession;
+import org.springframework.session.SessionRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * <h1>NearCachedJdbcSessionRepository</h1>
+ * <p>
+ *     Stores the HTTP sessions in the tables of spring session jdbc (<code>spring_session</code> and
+ *     <code>spring_session_attributes</code>), with a small cache in every instance in front of the database.
+ * </p>
+ * <p>
+ *     the cache answers the reads of a session for <code>chat.session.near-cache.ttl-ms</code> after it was read or saved here,
+ *     so most requests don't read the database. a change made on another instance is seen after that time at most.
+ *     the cache holds at most <code>chat.session.near-cache.max-entries</code> sessions, the least recently used are dropped.
+ * </p>
+ * <p>
+ *     almost every request only moves the last access time of its session. these saves are not written right away,
+ *     they are kept by session (the last one wins) and written in one batch every <code>chat.session.flush-interval-ms</code>.
+ *     the new sessions, the changed attributes (like a login) and the deleted sessions are written right away,
+ *     only the attributes that changed, so the other instances see them as soon as their cache expires.
+ *     the expired sessions are deleted in the background, <code>chat.session.cleanup-chunk-size</code> at a time.
+ * </p>
+ * <p>
+ *     only a session made by {@link #createSession()} is inserted, once. a session that is not in the database anymore
+ *     (deleted on another instance, logged out, expired) is never written again: its save is dropped.
+ * </p>
+ * <p>
+ *     Used when <code>chat.session.store</code> is jdbc.
+ * </p>
+ * @see practical.configuration.SessionConfig
+ */
+@Component
+@ConditionalOnProperty(name = "chat.session.store", havingValue = "jdbc")
+public class NearCachedJdbcSessionRepository implements SessionRepository<MapSession> {
+    private static final Logger logger = Logger.getLogger(NearCachedJdbcSessionRepository.class.getName());
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ResourceLoader resourceLoader;
+
+    private final String schemaLocation;
+
+    private final Duration maxInactiveInterval;
+
+    private final long nearCacheTtlNanos;
+
+    private final int batchSize;
+
+    private final int cleanupChunkSize;
+
+    private final SerializingConverter serializer = new SerializingConverter();
+
+    private final DeserializingConverter deserializer = new DeserializingConverter(getClass().getClassLoader());
+
+    /**
+     * by session id, the least recently used first, guarded by itself.
+     */
+    private final LinkedHashMap<String, CachedSession> nearCache;
+
+    /**
+     * the last access times that are not written yet, by primary id.
+     */
+    private final Map<String, Touch> pendingTouches = new ConcurrentHashMap<>();
+
+    /**
+     * the sessions made by {@link #createSession()} and not saved yet: their creation time, by their original id
+     * (it stays when the id changes). the first save removes it, so only one save inserts the session.
+     */
+    private final Map<String, Instant> unsavedSessions = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter immediateWrites;
+
+    private final Counter deferredWrites;
+
+    public NearCachedJdbcSessionRepository(JdbcTemplate jdbcTemplate,
+                                           TransactionTemplate transactionTemplate,
+                                           ResourceLoader resourceLoader,
+                                           MeterRegistry meterRegistry,
+                                           @Value("${chat.session.jdbc.schema:classpath:org/springframework/session/jdbc/schema-h2.sql}") String schemaLocation,
+                                           @Value("${server.servlet.session.timeout:30m}") Duration maxInactiveInterval,
+                                           @Value("${chat.session.near-cache.ttl-ms:1000}") long nearCacheTtlMs,
+                                           @Value("${chat.session.near-cache.max-entries:10000}") int nearCacheMaxEntries,
+                                           @Value("${chat.session.batch-size:500}") int batchSize,
+                                           @Value("${chat.session.cleanup-chunk-size:1000}") int cleanupChunkSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.resourceLoader = resourceLoader;
+        this.schemaLocation = schemaLocation;
+        this.maxInactiveInterval = maxInactiveInterval;
+        this.nearCacheTtlNanos = Duration.ofMillis(nearCacheTtlMs).toNanos();
+        this.batchSize = batchSize;
+        this.cleanupChunkSize = cleanupChunkSize;
+        this.nearCache = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedSession> eldest) {
+                return size() > nearCacheMaxEntries;
+            }
+        };
+        this.hits = Counter.builder("chat.session.near-cache.requests").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("chat.session.near-cache.requests").tag("result", "miss").register(meterRegistry);
+        this.immediateWrites = Counter.builder("chat.session.writes").tag("mode", "immediate").register(meterRegistry);
+        this.deferredWrites = Counter.builder("chat.session.writes").tag("mode", "deferred").register(meterRegistry);
+        Gauge.builder("chat.session.pending", pendingTouches, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * create the tables with the script of spring session jdbc, when they are not there.
+     */
+    @PostConstruct
+    public void init() {
+        try {
+            jdbcTemplate.queryForObject("select count(*) from spring_session where 1 = 0", Integer.class);
+        } catch (DataAccessException e) {
+            logger.info("creating the session tables from " + schemaLocation);
+            DatabasePopulatorUtils.execute(new ResourceDatabasePopulator(resourceLoader.getResource(schemaLocation)),
+                    Objects.requireNonNull(jdbcTemplate.getDataSource()));
+        }
+    }
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    @Override
+    public MapSession createSession() {
+        MapSession session = new MapSession();
+        session.setMaxInactiveInterval(maxInactiveInterval);
+        unsavedSessions.put(session.getOriginalId(), session.getCreationTime());
+        return session;
+    }
+
+    /**
+     * the session from the cache when it was read or saved here a short time ago, else from the database.
+     * @param id the id of the session
+     * @return a copy of the session, null when there is none or it expired
+     */
+    @Override
+    public MapSession findById(String id) {
+        CachedSession cached = getCached(id);
+        if (cached != null && System.nanoTime() - cached.cachedAtNanos() < nearCacheTtlNanos) {
+            hits.increment();
+        } else {
+            misses.increment();
+            cached = load(id);
+            if (cached == null) {
+                return null;
+            }
+            cache(cached);
+        }
+        if (cached.session().isExpired()) {
+            deleteById(id);
+            return null;
+        }
+        return new MapSession(cached.session());
+    }
+
+    //==========================================================================
+    //=============================== SAVE =====================================
+    //==========================================================================
+
+    /**
+     * write the session. only the last access time changed: kept and written with the next batch,
+     * anything else: written right away, the attributes that changed only.
+     * a session that was deleted in the meantime (here or on another instance) is not written, it stays deleted.
+     * @param session the session, from {@link #createSession()} or {@link #findById(String)}
+     */
+    @Override
+    public void save(MapSession session) {
+        Map<String, byte[]> attributes = serialize(session);
+        String principalName = principalName(session);
+
+        if (unsavedSessions.remove(session.getOriginalId()) != null) {
+            String primaryId = UUID.randomUUID().toString();
+            transactionTemplate.executeWithoutResult(status -> insertSession(primaryId, session, attributes, principalName));
+            immediateWrites.increment();
+            cache(new CachedSession(primaryId, new MapSession(session), attributes, principalName, System.nanoTime()));
+            return;
+        }
+
+        CachedSession cached = getCached(session.getOriginalId());
+        // not in the cache: dropped from the cache since it was read, or deleted
+        CachedSession previous = cached != null ? cached : load(session.getOriginalId());
+        if (previous == null) {
+            return;
+        }
+        String primaryId = previous.primaryId();
+        Map<String, byte[]> added = new HashMap<>();
+        Map<String, byte[]> changed = new HashMap<>();
+        attributes.forEach((name, bytes) -> {
+            byte[] previousBytes = previous.attributes().get(name);
+            if (previousBytes == null) {
+                added.put(name, bytes);
+            } else if (!Arrays.equals(previousBytes, bytes)) {
+                changed.put(name, bytes);
+            }
+        });
+        List<String> removed = previous.attributes().keySet().stream()
+                .filter(name -> !attributes.containsKey(name))
+                .toList();
+        boolean idChanged = !session.getId().equals(session.getOriginalId());
+
+        if (added.isEmpty() && changed.isEmpty() && removed.isEmpty() && !idChanged
+                && session.getMaxInactiveInterval().equals(previous.session().getMaxInactiveInterval())
+                && Objects.equals(principalName, previous.principalName())) {
+            pendingTouches.put(primaryId, new Touch(session.getLastAccessedTime().toEpochMilli(), expiryTime(session)));
+            deferredWrites.increment();
+        } else {
+            pendingTouches.remove(primaryId);
+            boolean written = Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+                int updated = jdbcTemplate.update("""
+                        update spring_session set session_id = ?, last_access_time = ?, max_inactive_interval = ?,
+                                                  expiry_time = ?, principal_name = ?
+                        where primary_id = ?""",
+                        session.getId(), session.getLastAccessedTime().toEpochMilli(),
+                        (int) session.getMaxInactiveInterval().getSeconds(), expiryTime(session), principalName, primaryId);
+                if (updated == 0) {
+                    // deleted on another instance since it was cached, its attributes went with it
+                    return false;
+                }
+                insertAttributes(primaryId, added);
+                jdbcTemplate.batchUpdate(
+                        "update spring_session_attributes set attribute_bytes = ? where session_primary_id = ? and attribute_name = ?",
+                        changed.entrySet().stream().map(entry -> new Object[]{entry.getValue(), primaryId, entry.getKey()}).toList());
+                jdbcTemplate.batchUpdate(
+                        "delete from spring_session_attributes where session_primary_id = ? and attribute_name = ?",
+                        removed.stream().map(name -> new Object[]{primaryId, name}).toList());
+                return true;
+            }));
+            if (!written) {
+                synchronized (nearCache) {
+                    nearCache.remove(session.getOriginalId());
+                }
+                return;
+            }
+            immediateWrites.increment();
+        }
+        if (idChanged) {
+            synchronized (nearCache) {
+                nearCache.remove(session.getOriginalId());
+            }
+        }
+        cache(new CachedSession(primaryId, new MapSession(session), attributes, principalName, System.nanoTime()));
+    }
+
+    /**
+     * write the pending last access times, in batches of <code>chat.session.batch-size</code>.
+     */
+    @Scheduled(fixedDelayString = "${chat.session.flush-interval-ms:1000}")
+    public void flush() {
+        List<Object[]> batch = new ArrayList<>(batchSize);
+        for (String primaryId : new ArrayList<>(pendingTouches.keySet())) {
+            Touch touch = pendingTouches.remove(primaryId);
+            if (touch == null) {
+                continue;
+            }
+            batch.add(new Object[]{touch.lastAccessTime(), touch.expiryTime(), primaryId});
+            if (batch.size() == batchSize) {
+                writeTouches(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeTouches(batch);
+        }
+    }
+
+    //==========================================================================
+    //============================== DELETE ====================================
+    //==========================================================================
+
+    @Override
+    public void deleteById(String id) {
+        CachedSession cached;
+        synchronized (nearCache) {
+            cached = nearCache.remove(id);
+        }
+        if (cached != null) {
+            pendingTouches.remove(cached.primaryId());
+        }
+        jdbcTemplate.update("delete from spring_session where session_id = ?", id);
+    }
+
+    /**
+     * delete the expired sessions (their attributes go with them), one chunk per transaction.
+     * the pending last access times are written first, so a session in use is not deleted.
+     */
+    @Scheduled(initialDelayString = "${chat.session.cleanup-interval-ms:60000}",
+            fixedDelayString = "${chat.session.cleanup-interval-ms:60000}")
+    public void cleanUpExpiredSessions() {
+        flush();
+        long now = System.currentTimeMillis();
+        int deleted = 0;
+        List<String> primaryIds;
+        do {
+            primaryIds = jdbcTemplate.queryForList(
+                    "select primary_id from spring_session where expiry_time < ? limit ?", String.class, now, cleanupChunkSize);
+            List<Object[]> rows = primaryIds.stream().map(primaryId -> new Object[]{primaryId}).toList();
+            transactionTemplate.executeWithoutResult(status ->
+                    jdbcTemplate.batchUpdate("delete from spring_session where primary_id = ?", rows));
+            deleted += primaryIds.size();
+        } while (primaryIds.size() == cleanupChunkSize);
+
+        synchronized (nearCache) {
+            nearCache.values().removeIf(cached -> cached.session().isExpired());
+        }
+        // created but never saved (the request failed or invalidated it)
+        Instant createdBefore = Instant.ofEpochMilli(now).minus(maxInactiveInterval);
+        unsavedSessions.values().removeIf(creationTime -> creationTime.isBefore(createdBefore));
+        if (deleted > 0) {
+            logger.info("deleted " + deleted + " expired sessions");
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private CachedSession getCached(String id) {
+        synchronized (nearCache) {
+            return nearCache.get(id);
+        }
+    }
+
+    private void cache(CachedSession cached) {
+        synchronized (nearCache) {
+            nearCache.put(cached.session().getId(), cached);
+        }
+    }
+
+    /**
+     * the session and its attributes in one query.
+     */
+    private CachedSession load(String id) {
+        List<CachedSession> rows = new ArrayList<>(1);
+        jdbcTemplate.query("""
+                select s.primary_id, s.creation_time, s.last_access_time, s.max_inactive_interval, s.principal_name,
+                       a.attribute_name, a.attribute_bytes
+                from spring_session s
+                left join spring_session_attributes a on a.session_primary_id = s.primary_id
+                where s.session_id = ?""", resultSet -> {
+            if (rows.isEmpty()) {
+                MapSession session = new MapSession(id);
+                session.setCreationTime(Instant.ofEpochMilli(resultSet.getLong("creation_time")));
+                session.setLastAccessedTime(Instant.ofEpochMilli(resultSet.getLong("last_access_time")));
+                session.setMaxInactiveInterval(Duration.ofSeconds(resultSet.getInt("max_inactive_interval")));
+                rows.add(new CachedSession(resultSet.getString("primary_id"), session, new HashMap<>(),
+                        resultSet.getString("principal_name"), System.nanoTime()));
+            }
+            String name = resultSet.getString("attribute_name");
+            if (name != null) {
+                byte[] bytes = resultSet.getBytes("attribute_bytes");
+                rows.get(0).session().setAttribute(name, deserializer.convert(bytes));
+                rows.get(0).attributes().put(name, bytes);
+            }
+        }, id);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    private void insertSession(String primaryId, MapSession session, Map<String, byte[]> attributes, String principalName) {
+        jdbcTemplate.update("""
+                insert into spring_session (primary_id, session_id, creation_time, last_access_time,
+                                            max_inactive_interval, expiry_time, principal_name)
+                values (?, ?, ?, ?, ?, ?, ?)""",
+                primaryId, session.getId(), session.getCreationTime().toEpochMilli(),
+                session.getLastAccessedTime().toEpochMilli(), (int) session.getMaxInactiveInterval().getSeconds(),
+                expiryTime(session), principalName);
+        insertAttributes(primaryId, attributes);
+    }
+
+    private void insertAttributes(String primaryId, Map<String, byte[]> attributes) {
+        jdbcTemplate.batchUpdate(
+                "insert into spring_session_attributes (session_primary_id, attribute_name, attribute_bytes) values (?, ?, ?)",
+                attributes.entrySet().stream().map(entry -> new Object[]{primaryId, entry.getKey(), entry.getValue()}).toList());
+    }
+
+    private void writeTouches(List<Object[]> batch) {
+        jdbcTemplate.batchUpdate("update spring_session set last_access_time = ?, expiry_time = ? where primary_id = ?", batch);
+    }
+
+    private Map<String, byte[]> serialize(MapSession session) {
+        Map<String, byte[]> attributes = new HashMap<>();
+        for (String name : session.getAttributeNames()) {
+            Object value = session.getAttribute(name);
+            if (value != null) {
+                attributes.put(name, serializer.convert(value));
+            }
+        }
+        return attributes;
+    }
+
+    private static long expiryTime(MapSession session) {
+        return session.getLastAccessedTime().plus(session.getMaxInactiveInterval()).toEpochMilli();
+    }
+
+    /**
+     * the user of the session, like spring session jdbc keeps it (to find the sessions of a user).
+     */
+    private static String principalName(MapSession session) {
+        String indexName = session.getAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME);
+        if (indexName != null) {
+            return indexName;
+        }
+        Object context = session.getAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY);
+        if (context instanceof SecurityContext securityContext && securityContext.getAuthentication() != null) {
+            return securityContext.getAuthentication().getName();
+        }
+        return null;
+    }
+
+    /**
+     * a session as it was last read or written here, with the serialized attributes to find what changed.
+     */
+    private record CachedSession(String primaryId, MapSession session, Map<String, byte[]> attributes,
+                                 String principalName, long cachedAtNanos) {
+    }
+
+    /**
+     * a last access time that is not written yet.
+     */
+    private record Touch(long lastAccessTime, long expiryTime) {
+    }
+}
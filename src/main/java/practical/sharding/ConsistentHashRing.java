@@ -0,0 +1,62 @@
+package practical.sharding;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * <h1>ConsistentHashRing</h1>
+ * <p>
+ *     Maps a chat room id to the name of a shard.
+ *     every shard is placed on the ring many times (virtual nodes), so the chat rooms are spread evenly,
+ *     and adding a shard only moves about <code>1/N</code> of the chat rooms.
+ * </p>
+ */
+public class ConsistentHashRing {
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    /**
+     * @param shardNames the names of the shards
+     * @param virtualNodes how many times each shard is placed on the ring
+     */
+    public ConsistentHashRing(List<String> shardNames, int virtualNodes) {
+        if (shardNames.isEmpty()) {
+            throw new IllegalArgumentException("at least one shard is needed");
+        }
+        for (String shardName : shardNames) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(shardName + "#" + i), shardName);
+            }
+        }
+    }
+
+    /**
+     * @param chatRoomId the id of the chat room
+     * @return the name of the shard that owns the chat room
+     */
+    public String shardFor(Integer chatRoomId) {
+        Long position = ring.ceilingKey(hash("room:" + chatRoomId));
+        return ring.get(position == null ? ring.firstKey() : position);
+    }
+
+    /**
+     * first 8 bytes of the md5 of the key, md5 is used for the spread, not for security.
+     * @param key the key
+     * @return the position on the ring
+     */
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = (hash << 8) | (digest[i] & 0xff);
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
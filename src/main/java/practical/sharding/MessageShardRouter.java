@@ -0,0 +1,213 @@
+package practical.sharding;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <h1>MessageShardRouter</h1>
+ * <p>
+ *     Owns the message shards and decides which shard holds the messages of a chat room.
+ *     the shards are listed in <code>chat.sharding.urls</code> (comma separated JDBC urls) and named
+ *     <code>shard0, shard1, ...</code> in that order.
+ * </p>
+ * <p>
+ *     A chat room goes to the shard chosen by the {@link ConsistentHashRing}, unless it was moved by the
+ *     {@link ShardRebalancer}. the moved chat rooms are kept in the table <code>room_shard_overrides</code>
+ *     of the main database, so all the instances route the same way.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "chat.sharding.enabled", havingValue = "true")
+public class MessageShardRouter {
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final Map<String, Shard> shards = new LinkedHashMap<>();
+
+    private final ConsistentHashRing ring;
+
+    /**
+     * the moved chat rooms, replaced by every reload (a row deleted from the table is dropped here too).
+     */
+    private volatile Map<Integer, String> overrides = Map.of();
+
+    private final JdbcTemplate mainJdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * writes to a chat room take the read lock, moving a chat room takes the write lock.
+     */
+    private final ReadWriteLock[] roomLocks = new ReadWriteLock[LOCK_STRIPES];
+
+    public MessageShardRouter(JdbcTemplate mainJdbcTemplate,
+                              TransactionTemplate transactionTemplate,
+                              @Value("${chat.sharding.urls}") String[] urls,
+                              @Value("${chat.sharding.username:sa}") String username,
+                              @Value("${chat.sharding.password:}") String password,
+                              @Value("${chat.sharding.virtual-nodes:160}") int virtualNodes) {
+        this.mainJdbcTemplate = mainJdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+
+        for (int i = 0; i < urls.length; i++) {
+            DataSource dataSource = DataSourceBuilder.create()
+                    .url(urls[i].trim())
+                    .username(username)
+                    .password(password)
+                    .build();
+            Shard shard = new Shard("shard" + i, dataSource, new JdbcTemplate(dataSource));
+            createSchema(shard);
+            shards.put(shard.name(), shard);
+        }
+        this.ring = new ConsistentHashRing(new ArrayList<>(shards.keySet()), virtualNodes);
+        Arrays.setAll(roomLocks, i -> new ReentrantReadWriteLock());
+
+        mainJdbcTemplate.execute("""
+                create table if not exists room_shard_overrides (
+                    chat_room_id int primary key,
+                    shard varchar(64) not null
+                )""");
+        reloadOverrides();
+    }
+
+    //==========================================================================
+    //=============================== ROUTE ====================================
+    //==========================================================================
+
+    /**
+     * @param chatRoomId the id of the chat room
+     * @return the shard that holds the messages of the chat room
+     */
+    public Shard shardFor(Integer chatRoomId) {
+        return shards.get(overrides.getOrDefault(chatRoomId, ring.shardFor(chatRoomId)));
+    }
+
+    /**
+     * @param shardName the name of the shard
+     * @return the shard, or null if there is no shard with that name
+     */
+    public Shard getShard(String shardName) {
+        return shards.get(shardName);
+    }
+
+    /**
+     * @return all the shards, in the order of <code>chat.sharding.urls</code>
+     */
+    public Collection<Shard> getShards() {
+        return Collections.unmodifiableCollection(shards.values());
+    }
+
+    /**
+     * @param chatRoomId the id of the chat room
+     * @return the lock of the chat room (shared with other chat rooms of the same stripe)
+     */
+    public ReadWriteLock lockFor(Integer chatRoomId) {
+        return roomLocks[Math.floorMod(chatRoomId, LOCK_STRIPES)];
+    }
+
+    /**
+     * route the chat room to the given shard from now on, on all the instances.
+     * @param chatRoomId the id of the chat room
+     * @param shardName the name of the new shard
+     */
+    public synchronized void assign(Integer chatRoomId, String shardName) {
+        transactionTemplate.executeWithoutResult(status -> {
+            mainJdbcTemplate.update("delete from room_shard_overrides where chat_room_id = ?", chatRoomId);
+            mainJdbcTemplate.update("insert into room_shard_overrides (chat_room_id, shard) values (?, ?)", chatRoomId, shardName);
+        });
+        Map<Integer, String> newOverrides = new HashMap<>(overrides);
+        newOverrides.put(chatRoomId, shardName);
+        overrides = newOverrides;
+    }
+
+    /**
+     * read the chat rooms that were moved, also by the other instances.
+     * the whole table is read again and replaces the overrides,
+     * under the same lock as {@link #assign}, so a reload never brings back the shard before a move of this instance.
+     */
+    @Scheduled(fixedDelayString = "${chat.sharding.routing-refresh-ms:5000}")
+    public synchronized void reloadOverrides() {
+        Map<Integer, String> newOverrides = new HashMap<>();
+        mainJdbcTemplate.query("select chat_room_id, shard from room_shard_overrides",
+                rs -> { newOverrides.put(rs.getInt("chat_room_id"), rs.getString("shard")); });
+        overrides = newOverrides;
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private void createSchema(Shard shard) {
+        shard.jdbcTemplate().execute("""
+                create table if not exists messages (
+                    id bigint primary key,
+                    chat_room_id int not null,
+                    user_id int not null,
+                    body varchar(4000),
+                    sent_at timestamp,
+                    client_sent_at timestamp,
+                    room_seq bigint
+                )""");
+        createIndexIfMissing(shard, "idx_messages_room", "create index idx_messages_room on messages (chat_room_id, id)");
+        createIndexIfMissing(shard, "idx_messages_room_seq",
+                "create unique index idx_messages_room_seq on messages (chat_room_id, room_seq)");
+    }
+
+    private void createIndexIfMissing(Shard shard, String indexName, String ddl) {
+        Boolean hasIndex = shard.jdbcTemplate().execute((ConnectionCallback<Boolean>) connection -> {
+            DatabaseMetaData metaData = connection.getMetaData();
+            String table = metaData.storesUpperCaseIdentifiers() ? "MESSAGES" : "messages";
+            try (ResultSet indexes = metaData.getIndexInfo(connection.getCatalog(), null, table, false, false)) {
+                while (indexes.next()) {
+                    if (indexName.equalsIgnoreCase(indexes.getString("INDEX_NAME"))) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        });
+        if (!Boolean.TRUE.equals(hasIndex)) {
+            shard.jdbcTemplate().execute(ddl);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        for (Shard shard : shards.values()) {
+            if (shard.dataSource() instanceof Closeable closeable) {
+                closeable.close();
+            }
+        }
+    }
+
+    /**
+     * one database that holds a part of the messages.
+     * @param name the name of the shard
+     * @param dataSource the connection pool of the shard
+     * @param jdbcTemplate the template used to query the shard
+     */
+    public record Shard(String name, DataSource dataSource, JdbcTemplate jdbcTemplate) {
+    }
+}
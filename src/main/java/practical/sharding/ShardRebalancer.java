@@ -0,0 +1,270 @@
+package practical.sharding;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Logger;
+
+/**
+ * <h1>ShardRebalancer</h1>
+ * <p>
+ *     Moves the messages of a chat room from its shard to another shard while the application keeps running.
+ * </p>
+ * <p>
+ *     the move is done in these steps:
+ *     <ol>
+ *         <li>copy the messages to the new shard in chunks, without blocking the chat room.</li>
+ *         <li>block the writes to the chat room, copy what was written in the meantime and route the chat room to the new shard.</li>
+ *         <li>wait until the other instances reloaded the routing, copy what they wrote to the old shard, and delete it there.</li>
+ *     </ol>
+ * </p>
+ * <p>
+ *     the moves are jobs that run one at a time on their own thread (the wait for the other instances
+ *     does not hold a request), the last ones are kept in memory.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "chat.sharding.enabled", havingValue = "true")
+public class ShardRebalancer {
+    private static final Logger logger = Logger.getLogger(ShardRebalancer.class.getName());
+
+    private static final int MAX_KEPT_MOVES = 20;
+
+    private static final String COLUMNS = "id, chat_room_id, user_id, body, sent_at, client_sent_at, room_seq";
+
+    private static final RowMapper<Object[]> ROW_MAPPER = (rs, rowNum) -> new Object[]{
+            rs.getLong("id"), rs.getInt("chat_room_id"), rs.getInt("user_id"), rs.getString("body"),
+            rs.getObject("sent_at", LocalDateTime.class), rs.getObject("client_sent_at", LocalDateTime.class),
+            rs.getObject("room_seq", Long.class)};
+
+    private final MessageShardRouter router;
+
+    private final int chunkSize;
+
+    private final long routingRefreshMs;
+
+    private final AtomicLong moveIds = new AtomicLong();
+
+    private final Map<Long, MoveJob> moves = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "shard-move");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ShardRebalancer(MessageShardRouter router,
+                           @Value("${chat.sharding.move-chunk-size:1000}") int chunkSize,
+                           @Value("${chat.sharding.routing-refresh-ms:5000}") long routingRefreshMs) {
+        this.router = router;
+        this.chunkSize = chunkSize;
+        this.routingRefreshMs = routingRefreshMs;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @param moveId the id of the move
+     * @return the move, with its result when it is done
+     */
+    public MoveJob getMove(long moveId) {
+        MoveJob move = moves.get(moveId);
+        if (move == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Move not found");
+        }
+        return move;
+    }
+
+    /**
+     * @return the last moves, the newest first
+     */
+    public List<MoveJob> getRecentMoves() {
+        return moves.values().stream()
+                .sorted(Comparator.comparingLong(MoveJob::id).reversed())
+                .toList();
+    }
+
+    /**
+     * move the messages of the chat room to the given shard in the background, after the moves already queued.
+     * @param chatRoomId the id of the chat room
+     * @param targetShardName the name of the new shard
+     * @return the move, queued
+     */
+    public MoveJob submitMove(Integer chatRoomId, String targetShardName) {
+        MessageShardRouter.Shard target = router.getShard(targetShardName);
+        if (target == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Shard not found: " + targetShardName);
+        }
+        MoveJob move = new MoveJob(moveIds.incrementAndGet(), chatRoomId, target.name(), MoveJob.Status.QUEUED,
+                null, null, LocalDateTime.now(), null);
+        moves.put(move.id(), move);
+        forgetOldMoves();
+        executor.execute(() -> run(move, target));
+        return move;
+    }
+
+    //==========================================================================
+    //================================ RUN =====================================
+    //==========================================================================
+
+    private void run(MoveJob move, MessageShardRouter.Shard target) {
+        moves.put(move.id(), move.with(MoveJob.Status.RUNNING, null, null));
+        try {
+            moves.put(move.id(), move.with(MoveJob.Status.DONE, moveChatRoom(move.chatRoomId(), target), null));
+        } catch (RuntimeException e) {
+            moves.put(move.id(), move.with(MoveJob.Status.FAILED, null, e.getMessage()));
+            logger.warning("the move of chat room " + move.chatRoomId() + " to " + target.name() + " failed: " + e);
+        }
+    }
+
+    private MoveResult moveChatRoom(Integer chatRoomId, MessageShardRouter.Shard target) {
+        MessageShardRouter.Shard source = router.shardFor(chatRoomId);
+        if (source.name().equals(target.name())) {
+            return new MoveResult(chatRoomId, source.name(), target.name(), 0, 0);
+        }
+        long start = System.currentTimeMillis();
+
+        // leftovers of a move that failed before
+        target.jdbcTemplate().update("delete from messages where chat_room_id = ?", chatRoomId);
+        Set<Long> copiedIds = new HashSet<>();
+        copyChunks(chatRoomId, source, target, copiedIds);
+
+        Lock lock = router.lockFor(chatRoomId).writeLock();
+        lock.lock();
+        try {
+            copyMissing(chatRoomId, source, target, copiedIds);
+            router.assign(chatRoomId, target.name());
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            Thread.sleep(routingRefreshMs * 2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        copyMissing(chatRoomId, source, target, copiedIds);
+        source.jdbcTemplate().update("delete from messages where chat_room_id = ?", chatRoomId);
+
+        MoveResult result = new MoveResult(chatRoomId, source.name(), target.name(), copiedIds.size(),
+                System.currentTimeMillis() - start);
+        logger.info("moved chat room: " + result);
+        return result;
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private void copyChunks(Integer chatRoomId, MessageShardRouter.Shard source, MessageShardRouter.Shard target,
+                            Set<Long> copiedIds) {
+        long lastId = Long.MIN_VALUE;
+        while (true) {
+            List<Object[]> rows = source.jdbcTemplate().query(
+                    "select " + COLUMNS + " from messages where chat_room_id = ? and id > ? order by id limit ?",
+                    ROW_MAPPER, chatRoomId, lastId, chunkSize);
+            if (rows.isEmpty()) {
+                return;
+            }
+            insert(target.jdbcTemplate(), rows, copiedIds);
+            lastId = (Long) rows.get(rows.size() - 1)[0];
+        }
+    }
+
+    /**
+     * copy the messages that were written to the source after they were copied,
+     * and drop from the target the messages that were deleted from the source.
+     */
+    private void copyMissing(Integer chatRoomId, MessageShardRouter.Shard source, MessageShardRouter.Shard target,
+                             Set<Long> copiedIds) {
+        List<Object[]> sourceRows = source.jdbcTemplate().query(
+                "select " + COLUMNS + " from messages where chat_room_id = ?", ROW_MAPPER, chatRoomId);
+        Set<Long> sourceIds = new HashSet<>();
+        sourceRows.forEach(row -> sourceIds.add((Long) row[0]));
+
+        insert(target.jdbcTemplate(), sourceRows.stream().filter(row -> !copiedIds.contains((Long) row[0])).toList(),
+                copiedIds);
+
+        List<Long> deletedIds = copiedIds.stream().filter(id -> !sourceIds.contains(id)).toList();
+        if (!deletedIds.isEmpty()) {
+            target.jdbcTemplate().batchUpdate("delete from messages where id = ?",
+                    deletedIds.stream().map(id -> new Object[]{id}).toList());
+            deletedIds.forEach(copiedIds::remove);
+        }
+    }
+
+    private void forgetOldMoves() {
+        moves.values().stream()
+                .filter(move -> move.finishedAt() != null)
+                .sorted(Comparator.comparingLong(MoveJob::id))
+                .limit(Math.max(0, moves.size() - MAX_KEPT_MOVES))
+                .forEach(move -> moves.remove(move.id()));
+    }
+
+    private void insert(JdbcTemplate jdbcTemplate, List<Object[]> rows, Set<Long> copiedIds) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate("insert into messages (" + COLUMNS + ") values (?, ?, ?, ?, ?, ?, ?)", rows);
+        rows.forEach(row -> copiedIds.add((Long) row[0]));
+    }
+
+    /**
+     * the result of a move.
+     * @param chatRoomId the id of the chat room
+     * @param fromShard the old shard
+     * @param toShard the new shard
+     * @param movedMessages how many messages were moved
+     * @param durationMs how long the move took
+     */
+    public record MoveResult(Integer chatRoomId, String fromShard, String toShard, int movedMessages, long durationMs) {
+    }
+
+    /**
+     * a move that runs in the background.
+     * @param id the id of the move
+     * @param chatRoomId the id of the chat room
+     * @param toShard the new shard
+     * @param status QUEUED, RUNNING, DONE or FAILED
+     * @param result what was moved, when it is DONE
+     * @param error why it failed, or null
+     * @param createdAt when the move was submitted
+     * @param finishedAt when the move ended, or null
+     */
+    public record MoveJob(long id, Integer chatRoomId, String toShard, Status status, MoveResult result, String error,
+                          LocalDateTime createdAt, LocalDateTime finishedAt) {
+
+        public enum Status {
+            QUEUED,
+            RUNNING,
+            DONE,
+            FAILED
+        }
+
+        private MoveJob with(Status newStatus, MoveResult newResult, String newError) {
+            boolean finished = newStatus == Status.DONE || newStatus == Status.FAILED;
+            return new MoveJob(id, chatRoomId, toShard, newStatus, newResult, newError, createdAt,
+                    finished ? LocalDateTime.now() : null);
+        }
+    }
+}
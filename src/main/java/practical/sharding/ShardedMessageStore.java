@@ -0,0 +1,311 @@
+package practical.sharding;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+import practical.models.Message;
+import practical.repositories.ChatRoomRepository;
+import practical.repositories.MessageStore;
+import practical.repositories.UserRepository;
+import practical.util.VirtualThreads;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * <h1>ShardedMessageStore</h1>
+ * <p>
+ *     {@link MessageStore} that splits the messages between several databases by chat room.
+ *     the operations on one chat room go to the shard that owns it ({@link MessageShardRouter}),
+ *     the operations that are not bound to a chat room (all messages, by id, by user) ask all the shards in parallel
+ *     and merge the results.
+ * </p>
+ * <p>
+ *     Used when <code>chat.sharding.enabled</code> is true.
+ *     the shards only hold the ids of the user and the chat room, the entities are still read from the main database.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "chat.sharding.enabled", havingValue = "true")
+public class ShardedMessageStore implements MessageStore {
+
+    private static final String COLUMNS = "id, chat_room_id, user_id, body, sent_at, client_sent_at, room_seq";
+
+    private static final RowMapper<MessageRow> ROW_MAPPER = (rs, rowNum) -> new MessageRow(
+            rs.getLong("id"),
+            rs.getInt("chat_room_id"),
+            rs.getInt("user_id"),
+            rs.getString("body"),
+            rs.getObject("sent_at", LocalDateTime.class),
+            rs.getObject("client_sent_at", LocalDateTime.class),
+            rs.getObject("room_seq", Long.class));
+
+    private final MessageShardRouter router;
+
+    private final UserRepository userRepository;
+
+    private final ChatRoomRepository chatRoomRepository;
+
+    private final ExecutorService scatterExecutor;
+
+    public ShardedMessageStore(MessageShardRouter router,
+                               UserRepository userRepository,
+                               ChatRoomRepository chatRoomRepository,
+                               @Value("${chat.threads.virtual:false}") boolean virtualThreads) {
+        this.router = router;
+        this.userRepository = userRepository;
+        this.chatRoomRepository = chatRoomRepository;
+        // with virtual threads every query gets its own thread, a fixed pool would limit the concurrent requests
+        this.scatterExecutor = virtualThreads
+                ? VirtualThreads.newThreadPerTaskExecutor("message-shard-scatter-")
+                : Executors.newFixedThreadPool(router.getShards().size(), runnable -> {
+                    Thread thread = new Thread(runnable, "message-shard-scatter");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    //==========================================================================
+    //=============================== GET ======================================
+    //==========================================================================
+
+    @Override
+    public Iterable<Message> findAll() {
+        return toMessages(scatter(shard -> shard.jdbcTemplate().query(
+                "select " + COLUMNS + " from messages", ROW_MAPPER)));
+    }
+
+    @Override
+    public Iterable<Message> findByChatRoomId(Integer chatRoomId) {
+        return toMessages(router.shardFor(chatRoomId).jdbcTemplate().query(
+                "select " + COLUMNS + " from messages where chat_room_id = ? order by id",
+                ROW_MAPPER, chatRoomId));
+    }
+
+    @Override
+    public Message findLastByChatRoomId(Integer chatRoomId) {
+        List<MessageRow> rows = router.shardFor(chatRoomId).jdbcTemplate().query(
+                "select " + COLUMNS + " from messages where chat_room_id = ? order by id desc limit 1",
+                ROW_MAPPER, chatRoomId);
+        return rows.isEmpty() ? null : toMessage(rows.get(0));
+    }
+
+    @Override
+    public Optional<Message> findById(Long messageId) {
+        return scatter(shard -> shard.jdbcTemplate().query(
+                "select " + COLUMNS + " from messages where id = ?", ROW_MAPPER, messageId))
+                .stream()
+                .findFirst()
+                .map(this::toMessage);
+    }
+
+    @Override
+    public List<Message> findPageByChatRoomId(Integer chatRoomId, long afterId, int limit) {
+        return toMessages(router.shardFor(chatRoomId).jdbcTemplate().query(
+                "select " + COLUMNS + " from messages where chat_room_id = ? and id > ? order by id limit ?",
+                ROW_MAPPER, chatRoomId, afterId, limit));
+    }
+
+    @Override
+    public List<Message> findLatestByChatRoomId(Integer chatRoomId, int limit) {
+        List<Message> latest = new ArrayList<>(toMessages(router.shardFor(chatRoomId).jdbcTemplate().query(
+                "select " + COLUMNS + " from messages where chat_room_id = ? order by id desc limit ?",
+                ROW_MAPPER, chatRoomId, limit)));
+        Collections.reverse(latest);
+        return latest;
+    }
+
+    //==========================================================================
+    //=============================== SAVE =====================================
+    //==========================================================================
+
+    @Override
+    public Message save(Message message) {
+        Integer chatRoomId = message.getChatRoom().getId();
+        Lock lock = router.lockFor(chatRoomId).readLock();
+        lock.lock();
+        try {
+            var jdbcTemplate = router.shardFor(chatRoomId).jdbcTemplate();
+            if (message.isNew()) {
+                jdbcTemplate.update("insert into messages (" + COLUMNS + ") values (?, ?, ?, ?, ?, ?, ?)", toRow(message));
+                message.markPersisted();
+            } else {
+                jdbcTemplate.update("update messages set body = ?, sent_at = ?, client_sent_at = ? where id = ?",
+                        message.getText(), message.getTimestamp(), message.getClientTimestamp(), message.getId());
+            }
+            return message;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * the messages are grouped by shard, one batch per shard.
+     */
+    @Override
+    public List<Message> saveAll(List<Message> messages) {
+        Map<Integer, List<Message>> byChatRoom = messages.stream()
+                .collect(Collectors.groupingBy(message -> message.getChatRoom().getId()));
+        byChatRoom.forEach((chatRoomId, roomMessages) -> {
+            Lock lock = router.lockFor(chatRoomId).readLock();
+            lock.lock();
+            try {
+                router.shardFor(chatRoomId).jdbcTemplate().batchUpdate(
+                        "insert into messages (" + COLUMNS + ") values (?, ?, ?, ?, ?, ?, ?)",
+                        roomMessages.stream().map(this::toRow).toList());
+                roomMessages.forEach(Message::markPersisted);
+            } finally {
+                lock.unlock();
+            }
+        });
+        return messages;
+    }
+
+    @Override
+    public long findMaxRoomSeq(Integer chatRoomId) {
+        Long maxRoomSeq = router.shardFor(chatRoomId).jdbcTemplate().queryForObject(
+                "select coalesce(max(room_seq), 0) from messages where chat_room_id = ?", Long.class, chatRoomId);
+        return maxRoomSeq == null ? 0 : maxRoomSeq;
+    }
+
+    //==========================================================================
+    //============================== DELETE ====================================
+    //==========================================================================
+
+    @Override
+    public void deleteById(Long messageId) {
+        scatter(shard -> {
+            shard.jdbcTemplate().update("delete from messages where id = ?", messageId);
+            return List.of();
+        });
+    }
+
+    @Override
+    public void deleteByChatRoomId(Integer chatRoomId) {
+        Lock lock = router.lockFor(chatRoomId).readLock();
+        lock.lock();
+        try {
+            router.shardFor(chatRoomId).jdbcTemplate().update("delete from messages where chat_room_id = ?", chatRoomId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void deleteAllByUserId(Integer userId) {
+        scatter(shard -> {
+            shard.jdbcTemplate().update("delete from messages where user_id = ?", userId);
+            return List.of();
+        });
+    }
+
+    @Override
+    public int deleteChunkByChatRoomId(Integer chatRoomId, int limit) {
+        Lock lock = router.lockFor(chatRoomId).readLock();
+        lock.lock();
+        try {
+            return deleteChunk(router.shardFor(chatRoomId), "chat_room_id", chatRoomId, limit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int deleteChunkByUserId(Integer userId, int limit) {
+        int deleted = 0;
+        for (MessageShardRouter.Shard shard : router.getShards()) {
+            deleted += deleteChunk(shard, "user_id", userId, limit - deleted);
+            if (deleted == limit) {
+                break;
+            }
+        }
+        return deleted;
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    /**
+     * delete the oldest messages of one shard with the given value in the column, by id in one batch.
+     * @param shard the shard
+     * @param column chat_room_id or user_id
+     * @param value the id of the chat room or of the user
+     * @param limit how many messages at most
+     * @return how many messages were deleted
+     */
+    private int deleteChunk(MessageShardRouter.Shard shard, String column, Integer value, int limit) {
+        List<Long> ids = shard.jdbcTemplate().queryForList(
+                "select id from messages where " + column + " = ? order by id limit ?", Long.class, value, limit);
+        if (!ids.isEmpty()) {
+            shard.jdbcTemplate().batchUpdate("delete from messages where id = ?", ids.stream().map(id -> new Object[]{id}).toList());
+        }
+        return ids.size();
+    }
+
+    /**
+     * run the query on all the shards in parallel and merge the rows by id.
+     * @param query the query for one shard
+     * @return the rows of all the shards
+     */
+    private List<MessageRow> scatter(Function<MessageShardRouter.Shard, List<MessageRow>> query) {
+        List<CompletableFuture<List<MessageRow>>> futures = router.getShards().stream()
+                .map(shard -> CompletableFuture.supplyAsync(() -> query.apply(shard), scatterExecutor))
+                .toList();
+        return futures.stream()
+                .map(CompletableFuture::join)
+                .flatMap(List::stream)
+                .sorted(Comparator.comparing(MessageRow::id))
+                .toList();
+    }
+
+    /**
+     * the entities are attached on the calling thread, where the session of the request is open.
+     */
+    private List<Message> toMessages(List<MessageRow> rows) {
+        return rows.stream().map(this::toMessage).toList();
+    }
+
+    private Object[] toRow(Message message) {
+        return new Object[]{message.getId(), message.getChatRoom().getId(), message.getUser().getId(), message.getText(),
+                message.getTimestamp(), message.getClientTimestamp(), message.getRoomSeq()};
+    }
+
+    private Message toMessage(MessageRow row) {
+        Message message = new Message();
+        message.setId(row.id());
+        message.setChatRoom(chatRoomRepository.getReferenceById(row.chatRoomId()));
+        message.setUser(userRepository.getReferenceById(row.userId()));
+        message.setText(row.body());
+        message.setTimestamp(row.sentAt());
+        message.setClientTimestamp(row.clientSentAt());
+        message.setRoomSeq(row.roomSeq());
+        message.markPersisted();
+        return message;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scatterExecutor.shutdown();
+    }
+
+    /**
+     * one row of the <code>messages</code> table of a shard.
+     */
+    record MessageRow(Long id, Integer chatRoomId, Integer userId, String body, LocalDateTime sentAt,
+                      LocalDateTime clientSentAt, Long roomSeq) {
+    }
+}
@@ -0,0 +1,165 @@
+package practical.singleflight;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * <h1>SingleFlight</h1>
+ * <p>
+ *     Runs one load at a time per key: the calls that come while a load of the same key is running
+ *     don't run their own, they wait for the running one and get the same result (or the same exception).
+ *     with a ttl the result is also kept for that long, and the calls in between get it without any load.
+ * </p>
+ * <p>
+ *     {@link #forget} is called when the data changed, the next call starts a new load
+ *     (also when a load of the old data is still running, its result is then not kept).
+ *     the results are shared between the threads, so they must not be changed, and must not be entities.
+ * </p>
+ * @param <K> the type of the keys
+ * @param <V> the type of the results
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * above this many kept results the expired ones are removed.
+     */
+    private static final int SWEEP_THRESHOLD = 1024;
+
+    private final String name;
+
+    private final long ttlNanos;
+
+    /**
+     * the running load of every key. a load keeps its result only while it is still here,
+     * {@link #forget} removes it (before the kept result), so the load of the old data can't keep anything after that.
+     */
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final Map<K, Result<V>> results = new ConcurrentHashMap<>();
+
+    private final Counter executed;
+
+    private final Counter coalesced;
+
+    private final Counter cached;
+
+    /**
+     * @param name the name, for the metrics
+     * @param ttlMs how long a result is kept, 0 to only share the running loads
+     * @param meterRegistry where to register the metrics
+     */
+    public SingleFlight(String name, long ttlMs, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.ttlNanos = ttlMs * 1_000_000;
+        this.executed = counter(meterRegistry, "executed");
+        this.coalesced = counter(meterRegistry, "coalesced");
+        this.cached = counter(meterRegistry, "cached");
+    }
+
+    /**
+     * get the result of the key, from the running load or the kept result if there is one, else with the loader.
+     * @param key the key
+     * @param loader loads the result, run by the calling thread
+     * @return the result
+     */
+    public V execute(K key, Supplier<V> loader) {
+        if (ttlNanos > 0) {
+            Result<V> result = results.get(key);
+            if (result != null && result.expiresAtNanos() - System.nanoTime() > 0) {
+                cached.increment();
+                return result.value();
+            }
+        }
+
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            coalesced.increment();
+            return join(running);
+        }
+
+        executed.increment();
+        try {
+            V value = loader.get();
+            if (ttlNanos > 0) {
+                keep(key, flight, value);
+            }
+            flight.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * the data of the key changed, drop the kept result and don't join the running load anymore.
+     * @param key the key
+     */
+    public void forget(K key) {
+        inFlight.remove(key);
+        results.remove(key);
+    }
+
+    /**
+     * all the data changed.
+     */
+    public void forgetAll() {
+        inFlight.clear();
+        results.clear();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private void keep(K key, CompletableFuture<V> flight, V value) {
+        long now = System.nanoTime();
+        // atomic with the removal of the flight by forget: kept before it (then removed by forget) or not at all
+        inFlight.computeIfPresent(key, (k, running) -> {
+            if (running == flight) {
+                results.put(key, new Result<>(value, now + ttlNanos));
+            }
+            return running;
+        });
+        if (results.size() > SWEEP_THRESHOLD) {
+            results.values().removeIf(result -> result.expiresAtNanos() - now <= 0);
+        }
+    }
+
+    private V join(CompletableFuture<V> running) {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private Counter counter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("chat.single_flight.calls")
+                .tag("name", name)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private record Result<V>(V value, long expiresAtNanos) {
+    }
+}
@@ -0,0 +1,83 @@
+package practical.singleflight;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * <h1>SingleFlightRegistry</h1>
+ * <p>
+ *     Creates the named {@link SingleFlight}s on first use, with the ttl from the property
+ *     <code>chat.single-flight.{name}.ttl-ms</code> (0 by default: only the running loads are shared).
+ * </p>
+ * <p>
+ *     metrics per single flight (tag name): <code>chat.single_flight.calls</code> with the tag result,
+ *     <code>executed</code> (the calls that ran the load), <code>coalesced</code> (joined a running load)
+ *     and <code>cached</code> (got a kept result). the coalescing ratio is (coalesced + cached) / all the calls.
+ * </p>
+ */
+@Component
+public class SingleFlightRegistry {
+
+    /**
+     * the last message of a chat room, by chat room id.
+     */
+    public static final String LAST_MESSAGE = "last-message";
+
+    /**
+     * a chat room with its members, by chat room id.
+     */
+    public static final String CHAT_ROOM = "chat-room";
+
+    private final Environment environment;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, SingleFlight<Object, Object>> singleFlights = new ConcurrentHashMap<>();
+
+    public SingleFlightRegistry(Environment environment, MeterRegistry meterRegistry) {
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * run the loader, or share the result of the same load.
+     * @param name the name of the single flight
+     * @param key the key of the load
+     * @param loader loads the result
+     * @return the result
+     * @param <V> the type of the result
+     * @see SingleFlight#execute
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V execute(String name, Object key, Supplier<V> loader) {
+        return (V) get(name).execute(key, (Supplier<Object>) loader);
+    }
+
+    /**
+     * the data of the key changed.
+     * @param name the name of the single flight
+     * @param key the key, null when all the data changed
+     */
+    public void forget(String name, Object key) {
+        SingleFlight<Object, Object> singleFlight = singleFlights.get(name);
+        if (singleFlight == null) {
+            return;
+        }
+        if (key == null) {
+            singleFlight.forgetAll();
+        } else {
+            singleFlight.forget(key);
+        }
+    }
+
+    private SingleFlight<Object, Object> get(String name) {
+        return singleFlights.computeIfAbsent(name, key -> new SingleFlight<>(name,
+                environment.getProperty("chat.single-flight." + name + ".ttl-ms", Long.class, 0L),
+                meterRegistry));
+    }
+}
@@ -0,0 +1,243 @@
+package practical.sql;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * <h1>ObservedDataSourcePostProcessor</h1>
+ * <p>
+ *     Wraps the {@link DataSource} beans, so every execution of a statement on their connections is seen:
+ *     hibernate, spring JDBC and the session store all take their connections from it.
+ *     an execution is a {@link SqlEvent} of JFR (<code>chat.jfr.enabled</code>, only during a flight recording),
+ *     and is counted by its fingerprint in {@link SqlStatistics} (<code>chat.sql.stats.enabled</code>),
+ *     with the rows it changed, or the rows read from its result set (for a sample of the queries).
+ *     the wrapper has all the interfaces of the pool (closed with the context, unwrapped by the metrics of the pool).
+ * </p>
+ * <p>
+ *     the databases of the shards are not beans and are not observed.
+ * </p>
+ */
+@Component
+@ConditionalOnExpression("${chat.jfr.enabled:true} or ${chat.sql.stats.enabled:true}")
+public class ObservedDataSourcePostProcessor implements BeanPostProcessor, SmartInitializingSingleton {
+
+    private static final int MAX_SQL_LENGTH = 2000;
+
+    private final boolean jfrEnabled;
+
+    private final ObjectProvider<SqlStatistics> statisticsProvider;
+
+    /**
+     * null until all the beans are created (the statements of the start are not counted), or when it is disabled
+     */
+    private volatile SqlStatistics statistics;
+
+    public ObservedDataSourcePostProcessor(@Value("${chat.jfr.enabled:true}") boolean jfrEnabled,
+                                           ObjectProvider<SqlStatistics> statisticsProvider) {
+        this.jfrEnabled = jfrEnabled;
+        this.statisticsProvider = statisticsProvider;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        statistics = statisticsProvider.getIfAvailable();
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource dataSource) {
+            return wrap(dataSource);
+        }
+        return bean;
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private DataSource wrap(DataSource dataSource) {
+        ClassLoader classLoader = dataSource.getClass().getClassLoader();
+        Class<?>[] interfaces = ClassUtils.getAllInterfacesForClass(dataSource.getClass(), classLoader);
+        return (DataSource) Proxy.newProxyInstance(classLoader, interfaces, (proxy, method, args) -> {
+            Object result = invoke(proxy, dataSource, method, args);
+            return result instanceof Connection connection ? wrap(connection) : result;
+        });
+    }
+
+    private Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(proxy, connection, method, args);
+                    if (result instanceof CallableStatement statement) {
+                        return wrap(statement, CallableStatement.class, (String) args[0]);
+                    } else if (result instanceof PreparedStatement statement) {
+                        return wrap(statement, PreparedStatement.class, (String) args[0]);
+                    } else if (result instanceof Statement statement) {
+                        return wrap(statement, Statement.class, null);
+                    }
+                    return result;
+                });
+    }
+
+    private Statement wrap(Statement statement, Class<? extends Statement> type, String sql) {
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{type},
+                new StatementHandler(statement, sql));
+    }
+
+    /**
+     * the rows read by the caller are added to the statistics of the query (only for the sampled queries,
+     * every call to the result set goes through the wrapper).
+     */
+    private static ResultSet wrap(ResultSet resultSet, SqlStatistics.Accumulator accumulator) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(proxy, resultSet, method, args);
+                    if (Boolean.TRUE.equals(result) && method.getName().equals("next")) {
+                        accumulator.addReadRows(1);
+                    }
+                    return result;
+                });
+    }
+
+    /**
+     * calls the wrapped object, a wrapper is only equal to itself.
+     */
+    private static Object invoke(Object proxy, Object target, Method method, Object[] args) throws Throwable {
+        if (method.getName().equals("equals") && method.getParameterCount() == 1) {
+            return proxy == args[0];
+        } else if (method.getName().equals("hashCode") && method.getParameterCount() == 0) {
+            return System.identityHashCode(proxy);
+        }
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private static long rowsOf(Object result) {
+        if (result instanceof Integer rows) {
+            return Math.max(rows, 0);
+        } else if (result instanceof Long rows) {
+            return Math.max(rows, 0);
+        } else if (result instanceof int[] batchRows) {
+            long rows = 0;
+            for (int row : batchRows) {
+                rows += Math.max(row, 0);
+            }
+            return rows;
+        } else if (result instanceof long[] batchRows) {
+            long rows = 0;
+            for (long row : batchRows) {
+                rows += Math.max(row, 0);
+            }
+            return rows;
+        }
+        return 0;
+    }
+
+    /**
+     * the executions of one statement, with the SQL it was prepared with (or given to execute)
+     * and the size of its current batch.
+     */
+    private final class StatementHandler implements InvocationHandler {
+
+        private final Statement statement;
+
+        private final String preparedSql;
+
+        private String batchSql;
+
+        private int batchSize;
+
+        private StatementHandler(Statement statement, String preparedSql) {
+            this.statement = statement;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("addBatch")) {
+                batchSize++;
+                if (batchSql == null && args != null && args.length == 1) {
+                    batchSql = (String) args[0];
+                }
+            } else if (name.equals("clearBatch")) {
+                batchSize = 0;
+                batchSql = null;
+            }
+            if (!name.startsWith("execute")) {
+                return ObservedDataSourcePostProcessor.invoke(proxy, statement, method, args);
+            }
+
+            boolean batch = name.equals("executeBatch") || name.equals("executeLargeBatch");
+            int executedBatchSize = batchSize;
+            String executedSql = args != null && args.length > 0 && args[0] instanceof String sql ? sql
+                    : batch && batchSql != null ? batchSql : preparedSql;
+            if (batch) {
+                batchSize = 0;
+                batchSql = null;
+            }
+
+            SqlStatistics currentStatistics = statistics;
+            SqlEvent event = new SqlEvent();
+            boolean recorded = jfrEnabled && event.isEnabled();
+            if (currentStatistics == null && !recorded) {
+                return ObservedDataSourcePostProcessor.invoke(proxy, statement, method, args);
+            }
+
+            if (recorded) {
+                event.begin();
+            }
+            long start = System.nanoTime();
+            Object result = null;
+            boolean failed = true;
+            try {
+                result = ObservedDataSourcePostProcessor.invoke(proxy, statement, method, args);
+                failed = false;
+            } finally {
+                long durationNanos = System.nanoTime() - start;
+                long rows = rowsOf(result);
+                if (currentStatistics != null && executedSql != null) {
+                    SqlStatistics.Accumulator accumulator =
+                            currentStatistics.record(executedSql, durationNanos, rows, failed);
+                    if (result instanceof ResultSet resultSet && currentStatistics.sampleRows(accumulator)) {
+                        result = wrap(resultSet, accumulator);
+                    }
+                }
+                if (recorded) {
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.sql = executedSql == null || executedSql.length() <= MAX_SQL_LENGTH
+                                ? executedSql : executedSql.substring(0, MAX_SQL_LENGTH) + "...";
+                        event.operation = batch ? "batch"
+                                : name.startsWith("executeQuery") ? "query"
+                                : name.contains("Update") ? "update" : "execute";
+                        event.batchSize = batch ? executedBatchSize : 1;
+                        event.rows = rows;
+                        event.failed = failed;
+                        event.commit();
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}
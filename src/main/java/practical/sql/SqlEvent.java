@@ -0,0 +1,39 @@
+package practical.sql;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * <h1>SqlEvent</h1>
+ * <p>
+ *     JFR event of one execution of a JDBC statement on the main database, by hibernate, spring JDBC
+ *     or the session store. the stack trace tells which code ran it (a lazy load, a flush ...).
+ * </p>
+ * @see ObservedDataSourcePostProcessor
+ */
+@Name("practical.Sql")
+@Label("SQL Execution")
+@Category({"Chat", "SQL"})
+@Description("An execution of a JDBC statement")
+public class SqlEvent extends Event {
+
+    @Label("SQL")
+    String sql;
+
+    @Label("Operation")
+    @Description("query, update, execute or batch")
+    String operation;
+
+    @Label("Batch Size")
+    int batchSize;
+
+    @Label("Rows")
+    @Description("The rows changed by an update or a batch, the rows of a query are not known yet")
+    long rows;
+
+    @Label("Failed")
+    boolean failed;
+}
@@ -0,0 +1,131 @@
+package practical.sql;
+
+/**
+ * <h1>SqlFingerprint</h1>
+ * <p>
+ *     Normalizes a SQL statement, so all the executions of the same query have the same fingerprint
+ *     whatever their values: the string and number literals become <code>?</code>, a list of values
+ *     (<code>in (?, ?, ?)</code>, the rows of a multi-row insert) becomes one value, the comments are dropped,
+ *     the white space is one space and everything is lower case.
+ * </p>
+ * <p>
+ *     one pass over the characters, without regular expressions.
+ * </p>
+ */
+public class SqlFingerprint {
+
+    private SqlFingerprint() {
+    }
+
+    /**
+     * @param sql the statement, as given to JDBC
+     * @return its fingerprint
+     */
+    public static String of(String sql) {
+        if (sql == null) {
+            return "";
+        }
+        StringBuilder fingerprint = new StringBuilder(sql.length());
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                // a string literal, '' is a quote inside it
+                i++;
+                while (i < length) {
+                    if (sql.charAt(i) == '\'') {
+                        if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                i++;
+                appendValue(fingerprint);
+            } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+                while (i < length && sql.charAt(i) != '\n') {
+                    i++;
+                }
+                appendSpace(fingerprint);
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+                appendSpace(fingerprint);
+            } else if (Character.isDigit(c) && !isPartOfName(fingerprint)) {
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                appendValue(fingerprint);
+            } else if (c == '?') {
+                i++;
+                appendValue(fingerprint);
+            } else if (Character.isWhitespace(c)) {
+                i++;
+                appendSpace(fingerprint);
+            } else {
+                i++;
+                if ((c == ',' || c == ')') && endsWith(fingerprint, " ")) {
+                    fingerprint.setLength(fingerprint.length() - 1);
+                }
+                fingerprint.append(Character.toLowerCase(c));
+            }
+        }
+        return collapseRows(fingerprint.toString().trim());
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    /**
+     * a value right after "?," or "?, " is the same list, it is not added again.
+     */
+    private static void appendValue(StringBuilder fingerprint) {
+        if (endsWith(fingerprint, "?, ")) {
+            fingerprint.setLength(fingerprint.length() - 2);
+        } else if (endsWith(fingerprint, "?,")) {
+            fingerprint.setLength(fingerprint.length() - 1);
+        } else {
+            fingerprint.append('?');
+        }
+    }
+
+    private static void appendSpace(StringBuilder fingerprint) {
+        if (!fingerprint.isEmpty() && fingerprint.charAt(fingerprint.length() - 1) != ' '
+                && fingerprint.charAt(fingerprint.length() - 1) != '(') {
+            fingerprint.append(' ');
+        }
+    }
+
+    /**
+     * a digit right after a letter, a digit, _ or $ is in a name (m1_0, t2), not a number.
+     */
+    private static boolean isPartOfName(StringBuilder fingerprint) {
+        if (fingerprint.isEmpty()) {
+            return false;
+        }
+        char previous = fingerprint.charAt(fingerprint.length() - 1);
+        return Character.isLetterOrDigit(previous) || previous == '_' || previous == '$';
+    }
+
+    private static boolean endsWith(StringBuilder fingerprint, String suffix) {
+        int start = fingerprint.length() - suffix.length();
+        return start >= 0 && fingerprint.indexOf(suffix, start) == start;
+    }
+
+    /**
+     * the rows of a multi-row insert: "(?), (?), (?)" is "(?)".
+     */
+    private static String collapseRows(String fingerprint) {
+        String collapsed = fingerprint;
+        int index;
+        while ((index = collapsed.indexOf("(?), (?)")) >= 0 || (index = collapsed.indexOf("(?),(?)")) >= 0) {
+            int rowLength = collapsed.startsWith("(?), (?)", index) ? 5 : 4;
+            collapsed = collapsed.substring(0, index) + collapsed.substring(index + rowLength);
+        }
+        return collapsed;
+    }
+}
@@ -0,0 +1,293 @@
+package practical.sql;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * <h1>SqlStatistics</h1>
+ * <p>
+ *     Counts the executions of the SQL statements by their {@link SqlFingerprint}: the count, the failures,
+ *     the total, maximum and 99th percentile time, and the rows (changed, or read from the result sets).
+ *     it replaces <code>spring.jpa.show-sql</code>, that writes every statement to the console and gives no totals.
+ *     the top fingerprints are in <code>/api/sql/top</code>.
+ * </p>
+ * <p>
+ *     the counters have no lock ({@link LongAdder}s and a histogram in an {@link AtomicLongArray}),
+ *     the statement of an execution is normalized only the first time it is seen.
+ *     after <code>chat.sql.stats.max-fingerprints</code> the new fingerprints are counted together as "(other)".
+ * </p>
+ * <p>
+ *     the rows read from the result sets are counted for 1 query in <code>chat.sql.stats.rows-sample</code>
+ *     (and the first one of every fingerprint), the other queries are counted with the mean of those,
+ *     a call through the wrapper of the result set for every column of every row costs more than the query itself.
+ * </p>
+ * <p>
+ *     an execution slower than <code>chat.sql.slow-threshold-ms</code> is logged with its fingerprint (never its values),
+ *     at most once per <code>chat.sql.slow-log-interval-ms</code> for the same fingerprint.
+ * </p>
+ * @see ObservedDataSourcePostProcessor
+ */
+@Component
+@ConditionalOnProperty(name = "chat.sql.stats.enabled", havingValue = "true", matchIfMissing = true)
+public class SqlStatistics {
+    private static final Logger logger = Logger.getLogger(SqlStatistics.class.getName());
+
+    private static final String OTHER = "(other)";
+
+    /**
+     * the statements (with their literals) that are kept to find their fingerprint without normalizing them again
+     */
+    private static final int MAX_STATEMENTS = 10_000;
+
+    private final int maxFingerprints;
+
+    private final long slowThresholdNanos;
+
+    private final long slowLogIntervalNanos;
+
+    private final int rowsSample;
+
+    private final Map<String, Accumulator> byStatement = new ConcurrentHashMap<>();
+
+    private final Map<String, Accumulator> byFingerprint = new ConcurrentHashMap<>();
+
+    public SqlStatistics(@Value("${chat.sql.stats.max-fingerprints:1000}") int maxFingerprints,
+                         @Value("${chat.sql.slow-threshold-ms:200}") long slowThresholdMs,
+                         @Value("${chat.sql.slow-log-interval-ms:10000}") long slowLogIntervalMs,
+                         @Value("${chat.sql.stats.rows-sample:16}") int rowsSample) {
+        this.maxFingerprints = maxFingerprints;
+        this.slowThresholdNanos = slowThresholdMs * 1_000_000;
+        this.slowLogIntervalNanos = slowLogIntervalMs * 1_000_000;
+        this.rowsSample = Math.max(rowsSample, 1);
+    }
+
+    /**
+     * count one execution.
+     * @param sql the statement
+     * @param durationNanos the time of the execution
+     * @param rows the rows it changed (the rows of a query are added to the accumulator when they are read, see {@link #sampleRows})
+     * @param failed true if it threw an exception
+     * @return the accumulator of its fingerprint
+     */
+    public Accumulator record(String sql, long durationNanos, long rows, boolean failed) {
+        Accumulator accumulator = accumulatorOf(sql);
+        accumulator.record(durationNanos, rows, failed);
+        if (durationNanos >= slowThresholdNanos) {
+            logSlow(accumulator, durationNanos, failed);
+        }
+        return accumulator;
+    }
+
+    /**
+     * count one execution that returned a result set.
+     * @param accumulator the accumulator of its fingerprint
+     * @return true if the rows of its result set must be counted with {@link Accumulator#addReadRows}
+     */
+    public boolean sampleRows(Accumulator accumulator) {
+        accumulator.queries.increment();
+        if (rowsSample > 1 && accumulator.sampledQueries.sum() > 0 && ThreadLocalRandom.current().nextInt(rowsSample) != 0) {
+            return false;
+        }
+        accumulator.sampledQueries.increment();
+        return true;
+    }
+
+    /**
+     * @param limit how many fingerprints
+     * @param orderBy total (time), count, p99, max or rows
+     * @return the fingerprints with the most of it first
+     */
+    public List<QueryStats> getTop(int limit, String orderBy) {
+        Comparator<QueryStats> comparator = switch (orderBy) {
+            case "total" -> Comparator.comparingDouble(QueryStats::totalMs);
+            case "count" -> Comparator.comparingLong(QueryStats::count);
+            case "p99" -> Comparator.comparingDouble(QueryStats::p99Ms);
+            case "max" -> Comparator.comparingDouble(QueryStats::maxMs);
+            case "rows" -> Comparator.comparingLong(QueryStats::rows);
+            default -> throw new IllegalArgumentException("orderBy must be total, count, p99, max or rows");
+        };
+        return byFingerprint.values().stream()
+                .map(Accumulator::snapshot)
+                .sorted(comparator.reversed())
+                .limit(limit)
+                .toList();
+    }
+
+    /**
+     * forget all the counters.
+     */
+    public void reset() {
+        byStatement.clear();
+        byFingerprint.clear();
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private Accumulator accumulatorOf(String sql) {
+        Accumulator accumulator = byStatement.get(sql);
+        if (accumulator != null) {
+            return accumulator;
+        }
+        String fingerprint = SqlFingerprint.of(sql);
+        accumulator = byFingerprint.get(fingerprint);
+        if (accumulator == null) {
+            accumulator = byFingerprint.computeIfAbsent(
+                    byFingerprint.size() < maxFingerprints ? fingerprint : OTHER, Accumulator::new);
+        }
+        if (byStatement.size() < MAX_STATEMENTS) {
+            byStatement.putIfAbsent(sql, accumulator);
+        }
+        return accumulator;
+    }
+
+    private void logSlow(Accumulator accumulator, long durationNanos, boolean failed) {
+        long now = System.nanoTime();
+        long lastLogged = accumulator.lastSlowLogNanos.get();
+        if (lastLogged != 0 && now - lastLogged < slowLogIntervalNanos
+                || !accumulator.lastSlowLogNanos.compareAndSet(lastLogged, now)) {
+            accumulator.slowNotLogged.increment();
+            return;
+        }
+        long notLogged = accumulator.slowNotLogged.sumThenReset();
+        logger.warning("slow SQL: " + durationNanos / 1_000_000 + "ms" + (failed ? " (failed)" : "")
+                + (notLogged > 0 ? ", " + notLogged + " more slow executions since the last log" : "")
+                + ": " + accumulator.fingerprint);
+    }
+
+    /**
+     * the counters of one fingerprint.
+     * the times are kept in a histogram of microseconds: exact under 32µs,
+     * then 8 buckets for every power of 2 (at most 12.5% too high).
+     */
+    public static final class Accumulator {
+
+        private static final int EXACT_BUCKETS = 32;
+
+        private static final int SUB_BUCKET_BITS = 3;
+
+        private static final int BUCKETS = EXACT_BUCKETS + (64 - 5) * (1 << SUB_BUCKET_BITS);
+
+        private final String fingerprint;
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder failures = new LongAdder();
+
+        private final LongAdder totalNanos = new LongAdder();
+
+        private final LongAdder changedRows = new LongAdder();
+
+        private final LongAdder queries = new LongAdder();
+
+        private final LongAdder sampledQueries = new LongAdder();
+
+        private final LongAdder sampledReadRows = new LongAdder();
+
+        private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        private final AtomicLong lastSlowLogNanos = new AtomicLong();
+
+        private final LongAdder slowNotLogged = new LongAdder();
+
+        private Accumulator(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        /**
+         * add the rows read from the result set of a sampled query.
+         * @param readRows the rows
+         */
+        public void addReadRows(long readRows) {
+            sampledReadRows.add(readRows);
+        }
+
+        private void record(long durationNanos, long rows, boolean failed) {
+            count.increment();
+            if (failed) {
+                failures.increment();
+            }
+            totalNanos.add(durationNanos);
+            changedRows.add(rows);
+            maxNanos.accumulate(durationNanos);
+            histogram.incrementAndGet(bucketOf(Math.max(durationNanos / 1000, 0)));
+        }
+
+        private QueryStats snapshot() {
+            long executions = count.sum();
+            double totalMs = totalNanos.sum() / 1_000_000.0;
+            double maxMs = maxNanos.get() / 1_000_000.0;
+            long sampled = sampledQueries.sum();
+            long readRows = sampled == 0 ? 0 : sampledReadRows.sum() * queries.sum() / sampled;
+            // the percentile is the upper bound of its bucket, never more than the slowest execution
+            return new QueryStats(fingerprint, executions, failures.sum(), totalMs,
+                    executions == 0 ? 0 : totalMs / executions, Math.min(percentileMs(0.99), maxMs), maxMs, changedRows.sum() + readRows);
+        }
+
+        private double percentileMs(double percentile) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = histogram.get(i);
+                total += counts[i];
+            }
+            long rank = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return upperMicrosOf(i) / 1000.0;
+                }
+            }
+            return 0;
+        }
+
+        private static int bucketOf(long micros) {
+            if (micros < EXACT_BUCKETS) {
+                return (int) micros;
+            }
+            int highestBit = 63 - Long.numberOfLeadingZeros(micros);
+            int subBucket = (int) (micros >>> (highestBit - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+            return EXACT_BUCKETS + (highestBit - 5) * (1 << SUB_BUCKET_BITS) + subBucket;
+        }
+
+        private static long upperMicrosOf(int bucket) {
+            if (bucket < EXACT_BUCKETS) {
+                return bucket;
+            }
+            int highestBit = (bucket - EXACT_BUCKETS) / (1 << SUB_BUCKET_BITS) + 5;
+            int subBucket = (bucket - EXACT_BUCKETS) % (1 << SUB_BUCKET_BITS);
+            return ((long) ((1 << SUB_BUCKET_BITS) + subBucket + 1) << (highestBit - SUB_BUCKET_BITS)) - 1;
+        }
+    }
+
+    /**
+     * the counters of one fingerprint.
+     * @param fingerprint the normalized statement
+     * @param count how many times it was executed
+     * @param failures how many executions threw an exception
+     * @param totalMs the time of all the executions
+     * @param meanMs the mean time of an execution
+     * @param p99Ms the 99th percentile time of an execution
+     * @param maxMs the longest execution
+     * @param rows the rows changed or read by all the executions (the rows read are estimated from a sample)
+     */
+    public record QueryStats(String fingerprint, long count, long failures, double totalMs, double meanMs,
+                             double p99Ms, double maxMs, long rows) {
+    }
+}
@@ -0,0 +1,180 @@
+package practical.threads;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * <h1>PinnedThreadMonitor</h1>
+ * <p>
+ *     Finds the places where a virtual thread blocks while it is pinned to its carrier thread
+ *     (waiting inside <code>synchronized</code> or a native call), these block a platform thread like before.
+ *     it listens to the <code>jdk.VirtualThreadPinned</code> events of JFR (Java 21) in the same process.
+ * </p>
+ * <p>
+ *     every pinning is counted by its site, the first frame of hibernate, the connection pool, the JDBC driver,
+ *     spring JDBC or this application in the stack.
+ *     the first time a site is seen its stack is logged, the sites are in <code>/api/threads/pinned</code>
+ *     and the timer <code>chat.virtual_threads.pinned</code> (by layer).
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "chat.threads.virtual", havingValue = "true")
+public class PinnedThreadMonitor {
+    private static final Logger logger = Logger.getLogger(PinnedThreadMonitor.class.getName());
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private static final Map<String, String> LAYERS = Map.of(
+            "org.hibernate.", "hibernate",
+            "com.zaxxer.hikari.", "connection-pool",
+            "org.h2.", "jdbc-driver",
+            "com.mysql.", "jdbc-driver",
+            "org.springframework.jdbc.", "spring-jdbc",
+            "practical.", "application");
+
+    private final MeterRegistry meterRegistry;
+
+    private final long thresholdMs;
+
+    private final Map<String, Site> sites = new ConcurrentHashMap<>();
+
+    private RecordingStream recordingStream;
+
+    public PinnedThreadMonitor(MeterRegistry meterRegistry,
+                               @Value("${chat.threads.pinned-threshold-ms:20}") long thresholdMs) {
+        this.meterRegistry = meterRegistry;
+        this.thresholdMs = thresholdMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        recordingStream = new RecordingStream();
+        recordingStream.enable(PINNED_EVENT).withThreshold(Duration.ofMillis(thresholdMs)).withStackTrace();
+        recordingStream.onEvent(PINNED_EVENT, this::onPinned);
+        recordingStream.startAsync();
+    }
+
+    @PreDestroy
+    public void stop() {
+        recordingStream.close();
+    }
+
+    /**
+     * @return the sites where virtual threads were pinned, the longest total first
+     */
+    public List<PinnedSite> getPinnedSites() {
+        return sites.entrySet().stream()
+                .map(entry -> entry.getValue().snapshot(entry.getKey()))
+                .sorted(Comparator.comparingLong(PinnedSite::totalMs).reversed())
+                .toList();
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private void onPinned(RecordedEvent event) {
+        RecordedFrame frame = siteFrame(event.getStackTrace());
+        String site = frame == null ? "unknown"
+                : frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+        String layer = frame == null ? "other" : layerOf(frame.getMethod().getType().getName());
+
+        Site stats = sites.computeIfAbsent(site, key -> {
+            logger.warning("virtual thread pinned for " + event.getDuration().toMillis() + "ms at " + key
+                    + stackOf(event.getStackTrace()));
+            return new Site(layer);
+        });
+        stats.record(event.getDuration());
+        Timer.builder("chat.virtual_threads.pinned")
+                .description("time virtual threads were blocked while pinned to their carrier thread")
+                .tag("layer", layer)
+                .register(meterRegistry)
+                .record(event.getDuration());
+    }
+
+    private RecordedFrame siteFrame(RecordedStackTrace stackTrace) {
+        if (stackTrace == null || stackTrace.getFrames().isEmpty()) {
+            return null;
+        }
+        List<RecordedFrame> frames = stackTrace.getFrames().stream().filter(RecordedFrame::isJavaFrame).toList();
+        return frames.stream()
+                .filter(frame -> !"other".equals(layerOf(frame.getMethod().getType().getName())))
+                .findFirst()
+                // else the first frame outside of the JDK
+                .or(() -> frames.stream()
+                        .filter(frame -> !frame.getMethod().getType().getName().matches("^(java|jdk|sun)\\..*"))
+                        .findFirst())
+                .orElse(stackTrace.getFrames().get(0));
+    }
+
+    private String layerOf(String className) {
+        return LAYERS.entrySet().stream()
+                .filter(entry -> className.startsWith(entry.getKey()))
+                .map(Map.Entry::getValue)
+                .findFirst()
+                .orElse("other");
+    }
+
+    private String stackOf(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return "";
+        }
+        return stackTrace.getFrames().stream()
+                .limit(32)
+                .map(frame -> "\n\tat " + frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+                        + ":" + frame.getLineNumber())
+                .collect(Collectors.joining());
+    }
+
+    private static final class Site {
+        private final String layer;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private Site(String layer) {
+            this.layer = layer;
+        }
+
+        private void record(Duration duration) {
+            long nanos = duration.toNanos();
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        private PinnedSite snapshot(String site) {
+            return new PinnedSite(site, layer, count.sum(), totalNanos.sum() / 1_000_000, maxNanos.get() / 1_000_000);
+        }
+    }
+
+    /**
+     * where virtual threads were pinned.
+     * @param site the class, method and line
+     * @param layer hibernate, connection-pool, jdbc-driver, spring-jdbc, application or other
+     * @param count how many times
+     * @param totalMs the total time pinned
+     * @param maxMs the longest time pinned
+     */
+    public record PinnedSite(String site, String layer, long count, long totalMs, long maxMs) {
+    }
+}
@@ -0,0 +1,138 @@
+package practical.threads;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import practical.repositories.MessageStore;
+import practical.util.VirtualThreads;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * <h1>ThreadsBenchmark</h1>
+ * <p>
+ *     Compares the platform thread pool of Tomcat (<code>server.tomcat.threads.max</code> threads) with one virtual
+ *     thread per request, at increasing concurrency. every request does what a request of the app does: it reads the
+ *     latest 50 messages of a chat room from the {@link MessageStore}, then blocks <code>blockingMs</code> more
+ *     (a call to another service). at every level, <code>concurrency</code> requests are in flight at the same time,
+ *     the time of a request counts from its submission, so the wait for a free platform thread is in it.
+ * </p>
+ * <p>
+ *     the database connections are limited by the connection pool in both modes: the difference comes from the
+ *     blocking outside of the database. it only reads, but loads the database: it exists only with
+ *     <code>chat.benchmarks.enabled=true</code>, and runs as a job of {@link practical.benchmark.BenchmarkJobService}.
+ *     the virtual threads need Java 21, see {@link VirtualThreads}.
+ * </p>
+ */
+@Component
+@ConditionalOnProperty(name = "chat.benchmarks.enabled", havingValue = "true")
+public class ThreadsBenchmark {
+    private static final int LATEST_LIMIT = 50;
+
+    private final MessageStore messageStore;
+
+    private final int platformThreads;
+
+    public ThreadsBenchmark(MessageStore messageStore,
+                            @Value("${server.tomcat.threads.max:200}") int platformThreads) {
+        this.messageStore = messageStore;
+        this.platformThreads = platformThreads;
+    }
+
+    /**
+     * run the two modes at every level of concurrency.
+     * @param chatRoomId the chat room that is read
+     * @param concurrencies the levels of concurrency, in their order
+     * @param requests how many requests at every level
+     * @param blockingMs how long every request blocks after its read
+     * @return the result of every mode at every level
+     */
+    public List<Result> run(Integer chatRoomId, List<Integer> concurrencies, int requests, long blockingMs) {
+        Runnable request = () -> {
+            messageStore.findLatestResponsesByChatRoomId(chatRoomId, LATEST_LIMIT);
+            try {
+                Thread.sleep(blockingMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        // warm-up, not counted
+        runMode("platform", () -> Executors.newFixedThreadPool(platformThreads), 16, Math.max(1, requests / 10), request);
+        runMode("virtual", () -> VirtualThreads.newThreadPerTaskExecutor("benchmark-virtual-"), 16,
+                Math.max(1, requests / 10), request);
+
+        List<Result> results = new ArrayList<>();
+        for (int concurrency : concurrencies) {
+            results.add(runMode("platform", () -> Executors.newFixedThreadPool(platformThreads), concurrency, requests, request));
+            results.add(runMode("virtual", () -> VirtualThreads.newThreadPerTaskExecutor("benchmark-virtual-"),
+                    concurrency, requests, request));
+        }
+        return results;
+    }
+
+    //==========================================================================
+    //============================== HELPERS ===================================
+    //==========================================================================
+
+    private Result runMode(String mode, Supplier<ExecutorService> executorFactory, int concurrency, int requests,
+                           Runnable request) {
+        long[] latenciesNs = new long[requests];
+        AtomicInteger failed = new AtomicInteger();
+        Semaphore inFlight = new Semaphore(concurrency);
+        ExecutorService executor = executorFactory.get();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < requests; i++) {
+                int index = i;
+                inFlight.acquire();
+                long submittedNs = System.nanoTime();
+                executor.execute(() -> {
+                    try {
+                        request.run();
+                    } catch (RuntimeException e) {
+                        failed.incrementAndGet();
+                    } finally {
+                        latenciesNs[index] = System.nanoTime() - submittedNs;
+                        inFlight.release();
+                    }
+                });
+            }
+            // all the requests are done when all the permits are back
+            inFlight.acquire(concurrency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("benchmark " + mode + " interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        long durationNs = System.nanoTime() - start;
+
+        Arrays.sort(latenciesNs);
+        return new Result(mode, concurrency, requests, failed.get(), durationNs / 1_000_000,
+                requests * 1_000_000_000L / Math.max(1, durationNs),
+                latenciesNs[requests / 2] / 1_000_000.0,
+                latenciesNs[Math.min(requests - 1, requests * 99 / 100)] / 1_000_000.0);
+    }
+
+    /**
+     * the result of one mode at one level of concurrency.
+     * @param mode platform or virtual
+     * @param concurrency how many requests were in flight at the same time
+     * @param requests how many requests were done
+     * @param failed how many requests failed
+     * @param durationMs the time of all of them
+     * @param requestsPerSecond the throughput
+     * @param p50Ms the median time of one request, from its submission
+     * @param p99Ms the 99th percentile time of one request, from its submission
+     */
+    public record Result(String mode, int concurrency, int requests, int failed, long durationMs,
+                         long requestsPerSecond, double p50Ms, double p99Ms) {
+    }
+}
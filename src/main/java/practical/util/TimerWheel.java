@@ -0,0 +1,83 @@
+package practical.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * <b>TimerWheel class</b>
+ * <p>
+ *     Hashed timer wheel, a ring of slots where every slot holds the items that expire in the same tick.
+ *     scheduling an item is O(1) and one tick only looks at one slot,
+ *     so a lot of timeouts cost one timer instead of one scheduled task each.
+ * </p>
+ * <p>
+ *     items with a deadline further than one turn of the wheel are put back until their turn comes.
+ * </p>
+ * @param <T> the type of the items
+ */
+public class TimerWheel<T> {
+
+    private final long tickMs;
+
+    private final Queue<Entry<T>>[] slots;
+
+    private volatile long currentTick;
+
+    /**
+     * @param tickMs the duration of one tick in milliseconds
+     * @param slotsCount how many slots are in the wheel
+     * @param nowMs the current time in milliseconds
+     */
+    @SuppressWarnings("unchecked")
+    public TimerWheel(long tickMs, int slotsCount, long nowMs) {
+        this.tickMs = tickMs;
+        this.slots = new Queue[slotsCount];
+        for (int i = 0; i < slotsCount; i++) {
+            slots[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.currentTick = nowMs / tickMs;
+    }
+
+    /**
+     * schedule the item, can be called from any thread.
+     * @param item the item
+     * @param deadlineMs when the item expires, in milliseconds
+     */
+    public void schedule(T item, long deadlineMs) {
+        // rounded up, so the slot is visited only when the deadline has passed
+        long tick = Math.max((deadlineMs + tickMs - 1) / tickMs, currentTick + 1);
+        slots[(int) (tick % slots.length)].add(new Entry<>(item, deadlineMs));
+    }
+
+    /**
+     * move the wheel up to the given time and give the expired items to the consumer.
+     * must be called from one thread at a time.
+     * @param nowMs the current time in milliseconds
+     * @param expired called for every expired item
+     */
+    public void advance(long nowMs, Consumer<T> expired) {
+        long targetTick = nowMs / tickMs;
+        // after a long pause one turn is enough, every slot is visited once
+        long fromTick = Math.max(currentTick + 1, targetTick - slots.length + 1);
+        for (long tick = fromTick; tick <= targetTick; tick++) {
+            Queue<Entry<T>> slot = slots[(int) (tick % slots.length)];
+            int size = slot.size();
+            for (int i = 0; i < size; i++) {
+                Entry<T> entry = slot.poll();
+                if (entry == null) {
+                    break;
+                }
+                if (entry.deadlineMs() <= nowMs) {
+                    expired.accept(entry.item());
+                } else {
+                    slot.add(entry);
+                }
+            }
+        }
+        currentTick = Math.max(currentTick, targetTick);
+    }
+
+    private record Entry<T>(T item, long deadlineMs) {
+    }
+}
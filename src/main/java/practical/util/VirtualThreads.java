@@ -0,0 +1,71 @@
+package practical.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <b>VirtualThreads class</b>
+ * <p>
+ *     Creates virtual threads (Java 21) while the application is still compiled for Java 17.
+ *     the Java 21 methods are found by reflection once, on an older runtime {@link #isSupported()} is false.
+ * </p>
+ */
+public class VirtualThreads {
+
+    private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return true if the runtime has virtual threads (Java 21 or later)
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * a factory of virtual threads named <code>prefix0</code>, <code>prefix1</code> ...
+     * @param prefix the prefix of the names
+     * @return the thread factory
+     * @throws IllegalStateException if the runtime has no virtual threads
+     */
+    public static ThreadFactory factory(String prefix) {
+        if (!isSupported()) {
+            throw new IllegalStateException("virtual threads need Java 21 or later, running on Java " + Runtime.version());
+        }
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("can't create virtual threads", e);
+        }
+    }
+
+    /**
+     * an executor that starts a new virtual thread for every task.
+     * @param prefix the prefix of the thread names
+     * @return the executor
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        ThreadFactory factory = factory(prefix);
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("can't create virtual threads", e);
+        }
+    }
+
+    private static Method findMethod(Class<?> type, String name) {
+        try {
+            return type.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
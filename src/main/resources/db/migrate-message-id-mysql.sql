@@ -0,0 +1,5 @@
+-- the ids of the messages were an int auto_increment, they are now 64 bit ids given by the server
+-- (practical.ids.MessageIdGenerator). hibernate ddl-auto=update does not change the type of an existing column:
+-- run this once on MySQL, with the application stopped, before starting the new version.
+-- the old ids stay, they are all smaller than the new ones, so the order of the messages is kept.
+alter table message modify id bigint not null;
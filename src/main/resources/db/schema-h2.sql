@@ -0,0 +1,43 @@
+-- schema of the JPA entities, used by the "fast" profile instead of hibernate ddl-auto=update.
+-- keep it in sync with the entities, hibernate validates it at startup.
+create table if not exists chat_room (
+    id integer generated by default as identity,
+    name varchar(255),
+    primary key (id)
+);
+
+create table if not exists users (
+    id integer generated by default as identity,
+    email varchar(255) unique,
+    firstname varchar(255),
+    lastname varchar(255),
+    password varchar(255),
+    role varchar(255) check (role in ('USER','ADMIN')),
+    primary key (id)
+);
+
+create table if not exists message (
+    id bigint not null,
+    chat_room_id integer not null,
+    user_id integer not null,
+    timestamp timestamp(6),
+    client_timestamp timestamp(6),
+    room_seq bigint,
+    text varchar(255),
+    primary key (id)
+);
+
+create index if not exists idx_message_chat_room_id on message (chat_room_id, id);
+create unique index if not exists idx_message_room_seq on message (chat_room_id, room_seq);
+
+create table if not exists user_chat_room (
+    user_id integer not null,
+    chat_room_id integer not null,
+    primary key (user_id, chat_room_id)
+);
+create index if not exists idx_user_chat_room_chat_room_id on user_chat_room (chat_room_id, user_id);
+
+alter table message add constraint if not exists fk_message_chat_room foreign key (chat_room_id) references chat_room;
+alter table message add constraint if not exists fk_message_user foreign key (user_id) references users;
+alter table user_chat_room add constraint if not exists fk_user_chat_room_chat_room foreign key (chat_room_id) references chat_room;
+alter table user_chat_room add constraint if not exists fk_user_chat_room_user foreign key (user_id) references users;